@@ -24,10 +24,11 @@
 package edu.colorado.clear.common.alg;
 
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.List;
 
+import edu.colorado.clear.common.util.ComputePool;
 import edu.colorado.clear.common.util.JArrays;
 
 /**
@@ -83,16 +84,15 @@ public class AdaBoostTrainer extends SuperTrainer
      */
     private void train(int numThreads)
     {
-        ExecutorService executor = Executors.newFixedThreadPool(numThreads);;
         System.out.println("\n* Training");
         
         short[] aLabels = s_labels.toArray();
         Arrays.sort(aLabels);
         
+        List<TrainTask> tasks = new ArrayList<TrainTask>(aLabels.length);
         for (short currLabel : aLabels)
-            executor.execute(new TrainTask(currLabel));
-        
-        executor.shutdown();
+            tasks.add(new TrainTask(currLabel));
+        ComputePool.runAll(tasks, numThreads);
     }
         
     /**
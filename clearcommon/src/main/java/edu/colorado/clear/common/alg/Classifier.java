@@ -6,6 +6,7 @@ import gnu.trove.map.TObjectIntMap;
 import java.io.Serializable;
 import java.util.BitSet;
 import java.util.Properties;
+import java.util.SplittableRandom;
 
 public abstract class Classifier implements Serializable {
     /**
@@ -51,6 +52,14 @@ public abstract class Classifier implements Serializable {
     	return null;
     }
     
+    /**
+     * Switches a trained classifier to a smaller, faster representation 
+     * for prediction only. The classifier should not be trained again 
+     * afterwards. Does nothing by default.
+     */
+    public void compact() {
+    }
+    
     public Object getNativeFormat(int[] x) {
     	return x;
     }
@@ -74,6 +83,35 @@ public abstract class Classifier implements Serializable {
 
     public abstract void trainNative(Object[] X, int[] Y, double[] weightY);
     
+    /**
+     * Trains on the given rows of X and Y only. Classifiers that can train 
+     * on a view of the data override this so the rows are not copied.
+     */
+    public void trainNativeRows(Object[] X, int[] Y, int[] rows) {
+    	Object[] xRows = new Object[rows.length];
+    	int[] yRows = new int[rows.length];
+    	for (int i=0; i<rows.length; ++i) {
+    		xRows[i] = X[rows[i]];
+    		yRows[i] = Y[rows[i]];
+    	}
+    	trainNative(xRows, yRows);
+    }
+    
+    /**
+     * Starts the next training from a classifier trained on a similar 
+     * problem (the same fold of the last iteration) if warm start is 
+     * supported and enabled. Does nothing by default.
+     */
+    public void warmStart(Classifier previous) {
+    }
+    
+    /**
+     * @return whether training starts from the previous model
+     */
+    public boolean isWarmStart() {
+    	return false;
+    }
+    
     public int getThreads() {
     	return 1;
     }
@@ -82,6 +120,25 @@ public abstract class Classifier implements Serializable {
     	return 1;
     }
     
+    public long getSeed() {
+    	return 0;
+    }
+    
+    /**
+     * Seeds training, the same seed gives the same model. Does nothing by 
+     * default.
+     */
+    public void setSeed(long seed) {
+    }
+    
+    /**
+     * @return the seed of one of the jobs (folds, pairs) trained from seed, 
+     * it depends only on seed and the job index
+     */
+    public static long deriveSeed(long seed, int job) {
+    	return new SplittableRandom(seed+job).nextLong();
+    }
+    
     public int predict(int[] x) {
     	return predictNative(getNativeFormat(x));
     }
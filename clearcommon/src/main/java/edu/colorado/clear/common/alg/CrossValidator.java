@@ -1,16 +1,15 @@
 package edu.colorado.clear.common.alg;
 
-import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+
+import edu.colorado.clear.common.util.ComputePool;
 
 public class CrossValidator {
     
@@ -42,13 +41,12 @@ public class CrossValidator {
             	return;
             }
 
-            List<Object> Xtrain = new ArrayList<Object>();
-            TIntArrayList ytrain = new TIntArrayList();
-            for (int i=testIndices.nextClearBit(0) ; i<y.length; i=testIndices.nextClearBit(i+1)) {
-                Xtrain.add(X[i]);
-                ytrain.add(y[i]);
-            }
-            cf.trainNative(Xtrain.toArray(), ytrain.toArray());
+            // the fold is a view of the rows, X and y are shared by all the folds
+            int[] rows = new int[y.length-testIndices.cardinality()];
+            int r=0;
+            for (int i=testIndices.nextClearBit(0) ; i<y.length; i=testIndices.nextClearBit(i+1))
+                rows[r++] = i;
+            cf.trainNativeRows(X, y, rows);
             
             for (int i=testIndices.nextSetBit(0) ; i>=0; i=testIndices.nextSetBit(i+1))
             	yValidate[i] = labelValues==null?cf.predictNative(X[i]):cf.predictValuesNative(X[i], labelValues[i]);
@@ -57,6 +55,8 @@ public class CrossValidator {
     
     Classifier classifier;
     int threads;
+    Classifier[] previousFolds;
+    Classifier[] foldClassifiers;
     
     public CrossValidator(Classifier classifier) {
         this(classifier, 1);
@@ -67,6 +67,35 @@ public class CrossValidator {
         this.threads = threads;
     }
 
+    /**
+     * Warm starts each fold from the same fold of the last validation 
+     * (see {@link Classifier#warmStart(Classifier)}), the folds are the 
+     * same for the same seeds
+     */
+    public void setPreviousFolds(Classifier[] previousFolds) {
+        this.previousFolds = previousFolds;
+    }
+    
+    /**
+     * @return the classifiers trained on each fold by the last validation
+     */
+    public Classifier[] getFoldClassifiers() {
+        return foldClassifiers;
+    }
+    
+    /**
+     * @return X as an int[][] if all the samples are int[] (it's used as is 
+     * by linear classifiers), otherwise X
+     */
+    static Object[] toFeatureStore(Object[] X) {
+        if (X instanceof int[][])
+            return X;
+        for (Object x:X)
+            if (!(x instanceof int[]))
+                return X;
+        return Arrays.copyOf(X, X.length, int[][].class);
+    }
+    
     public static void randomPermute(int[] perm, Random rand) {
         for (int i = 0; i < perm.length; i++) {
             int r = (int) (rand.nextDouble() * (i+1));     // int between 0 and i
@@ -119,15 +148,12 @@ public class CrossValidator {
      * @return predicted labels through cross validation
      */
     public int[] validate(int foldNum, Object[] X, int[] y, double[][] yValues, int[] seed, boolean trainAll) {
-        ExecutorService executor = null;
-        if (threads>1) executor = Executors.newFixedThreadPool(threads);
+        X = toFeatureStore(X);
+        List<TrainJob> jobs = new ArrayList<TrainJob>(foldNum+1);
           
-        if (trainAll) { 
-            TrainJob job = new TrainJob(classifier, X, y, null, null, null,
-                    "*********** Training all ***************");
-            if (executor!=null) executor.execute(job);
-            else job.run();
-        }
+        if (trainAll)
+            jobs.add(new TrainJob(classifier, X, y, null, null, null,
+                    "*********** Training all ***************"));
          
         int[] yValidate = new int[y.length];
         
@@ -144,6 +170,7 @@ public class CrossValidator {
         }
         
         randomPermute(perm, new Random(y.length));
+        foldClassifiers = new Classifier[foldNum];
 
         for (int f=0; f<foldNum; ++f)  {   
             TIntSet permSet = new TIntHashSet();
@@ -157,23 +184,16 @@ public class CrossValidator {
                 	validateIndices.set(i);
             
             Classifier cf = classifier.getNewInstance();
-            TrainJob job = new TrainJob(cf, X, y, yValidate, yValues, validateIndices,
-                    String.format("*********** Training fold %d ***************",f+1));
-            
-            if (executor!=null) executor.execute(job);
-            else job.run();
+            cf.setSeed(Classifier.deriveSeed(classifier.getSeed(), f));
+            if (previousFolds!=null && previousFolds.length==foldNum)
+                cf.warmStart(previousFolds[f]);
+            foldClassifiers[f] = cf;
+            jobs.add(new TrainJob(cf, X, y, yValidate, yValues, validateIndices,
+                    String.format("*********** Training fold %d ***************",f+1)));
         }
 
-        if (executor!=null) {
-            executor.shutdown();
-            while (true) {
-                try {
-                    if (executor.awaitTermination(5, TimeUnit.MINUTES)) break;
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+        // folds run on the shared pool, nested pairwise training composes with them
+        ComputePool.runAll(jobs, threads);
         
         return yValidate;
     }
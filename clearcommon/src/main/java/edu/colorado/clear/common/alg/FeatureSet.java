@@ -1,8 +1,13 @@
 package edu.colorado.clear.common.alg;
 
+import gnu.trove.iterator.TLongFloatIterator;
 import gnu.trove.iterator.TObjectFloatIterator;
+import gnu.trove.map.TLongFloatMap;
+import gnu.trove.map.TLongObjectMap;
 import gnu.trove.map.TObjectFloatMap;
 import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TLongFloatHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.map.hash.TObjectFloatHashMap;
 import gnu.trove.map.hash.TObjectIntHashMap;
 import gnu.trove.set.TIntSet;
@@ -22,6 +27,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.logging.Logger;
 
 /**
  * Encapsulate binary feature representation. Basic feature types are 
@@ -45,6 +51,90 @@ public class FeatureSet<T extends Enum<T>> implements Serializable {
      */
     private static final long serialVersionUID = 1L;
     
+    /**
+     * How n-gram feature values are mapped to indices
+     */
+    public enum Hashing {
+        /** concatenate the n-gram strings and look them up in the dictionary */
+        NONE,
+        /** combine the unigram fingerprints arithmetically and look them up 
+         *  in the dictionary, matches are verified against the dictionary keys */
+        VERIFIED,
+        /** hashing trick: hash the combined fingerprints into a fixed 
+         *  dimension, no dictionary is kept (except the ones requested by 
+         *  {@link FeatureSet#keepDictionary(EnumSet)}) */
+        HASHED
+    }
+    
+    /**
+     * n-gram template with the information needed to stream its values
+     */
+    static final class Template<T extends Enum<T>> {
+        final EnumSet<T> feature;
+        final int[]      ordinals;
+        final long       seed;
+        
+        Template(EnumSet<T> feature) {
+            this.feature = feature;
+            ordinals = new int[feature.size()];
+            int i=0;
+            for (T t:feature)
+                ordinals[i++] = t.ordinal();
+            seed = FrozenStringIntMap.fingerprint(FeatureSet.toString(feature));
+        }
+    }
+    
+    /**
+     * Space separated n-gram value presented without concatenating the unigrams
+     */
+    static final class ConjunctionKey implements CharSequence {
+        final String[] parts;
+        int            nParts;
+        
+        ConjunctionKey(int capacity) {
+            parts = new String[capacity];
+        }
+        
+        @Override
+        public int length() {
+            int length = nParts-1;
+            for (int i=0; i<nParts; ++i)
+                length += parts[i].length();
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            for (int i=0; i<nParts; ++i) {
+                int len = parts[i].length();
+                if (index<len) return parts[i].charAt(index);
+                if (index==len) return ' ';
+                index -= len+1;
+            }
+            throw new IndexOutOfBoundsException();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+        
+        @Override
+        public String toString() {
+            if (nParts==1) return parts[0];
+            StringBuilder builder = new StringBuilder(length());
+            for (int i=0; i<nParts; ++i) {
+                if (i>0) builder.append(' ');
+                builder.append(parts[i]);
+            }
+            return builder.toString();
+        }
+    }
+    
+    interface ConjunctionVisitor {
+        void visit(int template, long fingerprint, ConjunctionKey key);
+    }
+    
     Set<EnumSet<T>>                                    features;
     EnumSet<T>                                         featuresFlat;
     Map<EnumSet<T>, TObjectIntMap<String>>             featureStrMap;
@@ -54,6 +144,16 @@ public class FeatureSet<T extends Enum<T>> implements Serializable {
 
     transient Map<EnumSet<T>, TObjectFloatMap<String>> featureCountMap;
     
+    Hashing                                            hashing;
+    int                                                hashDimension;
+    /** templates whose dictionaries are built under {@link Hashing#HASHED} */
+    Set<EnumSet<T>>                                    keptDictionaries;
+    
+    transient volatile Template<T>[]                   templates;
+    transient TLongFloatMap[]                          fingerprintCountMaps;
+    transient TLongObjectMap<String>[]                 fingerprintKeyMaps;
+    transient int                                      collisions;
+    
     public FeatureSet(Set<EnumSet<T>> features) {
         this.features = features;
     }
@@ -70,8 +170,42 @@ public class FeatureSet<T extends Enum<T>> implements Serializable {
         }
     }
     
+    /**
+     * Sets how n-gram values are mapped to indices, call before 
+     * {@link #initialize()}
+     * @param hashing
+     * @param dimension feature dimension of {@link Hashing#HASHED}
+     */
+    public void setHashing(Hashing hashing, int dimension) {
+        this.hashing = hashing;
+        this.hashDimension = dimension;
+    }
+    
+    public Hashing getHashing() {
+        return hashing==null?Hashing.NONE:hashing;
+    }
+    
+    /**
+     * Builds the dictionary of a template under {@link Hashing#HASHED} too, 
+     * for callers that look its values up through {@link #getFeatureStrMap()}. 
+     * The values of such a dictionary are not the (hashed) feature indices.
+     * @param feature
+     */
+    public void keepDictionary(EnumSet<T> feature) {
+        if (keptDictionaries==null)
+            keptDictionaries = new HashSet<EnumSet<T>>();
+        keptDictionaries.add(feature);
+    }
+    
+    boolean keepsDictionary(EnumSet<T> feature) {
+        return keptDictionaries!=null && keptDictionaries.contains(feature);
+    }
+    
+    @SuppressWarnings("unchecked")
     public void initialize() {
         dictionaryFinalized = false;
+        templates = null;
+        collisions = 0;
         featureStrMap = new HashMap<EnumSet<T>, TObjectIntMap<String>>();
         featureCountMap = new HashMap<EnumSet<T>, TObjectFloatMap<String>>();
         
@@ -82,6 +216,115 @@ public class FeatureSet<T extends Enum<T>> implements Serializable {
             featureList.addAll(feature);
         }
         featuresFlat = EnumSet.copyOf(featureList);
+        
+        if (getHashing()==Hashing.VERIFIED) {
+            fingerprintCountMaps = new TLongFloatMap[features.size()];
+            fingerprintKeyMaps = (TLongObjectMap<String>[])new TLongObjectMap<?>[features.size()];
+            for (int i=0; i<features.size(); ++i) {
+                fingerprintCountMaps[i] = new TLongFloatHashMap();
+                fingerprintKeyMaps[i] = new TLongObjectHashMap<String>();
+            }
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    Template<T>[] getTemplates() {
+        Template<T>[] ret = templates;
+        if (ret==null) {
+            ret = (Template<T>[])new Template<?>[features.size()];
+            int i=0;
+            for (EnumSet<T> feature:features)
+                ret[i++] = new Template<T>(feature);
+            templates = ret;
+        }
+        return ret;
+    }
+    
+    /**
+     * Streams the n-gram values of sampleFlat for every template in the same 
+     * order {@link #convertFlatSample(EnumMap)} would produce them. The 
+     * fingerprint of each unigram is computed once and n-gram fingerprints 
+     * are combined from them, so no intermediate String is created.
+     * @param sampleFlat
+     * @param visitor
+     */
+    void forEachConjunction(EnumMap<T,Collection<String>> sampleFlat, ConjunctionVisitor visitor) {
+        forEachConjunction(sampleFlat, null, false, visitor);
+    }
+    
+    /**
+     * Streams the n-gram values of the templates selected by 
+     * {@link #isSelected(EnumSet, EnumSet, boolean)}
+     */
+    void forEachConjunction(EnumMap<T,Collection<String>> sampleFlat, EnumSet<T> selector, boolean containing, ConjunctionVisitor visitor) {
+        Template<T>[] templates = getTemplates();
+        
+        int universe = featuresFlat.iterator().next().getDeclaringClass().getEnumConstants().length;
+        String[][] values = new String[universe][];
+        long[][] fingerprints = new long[universe][];
+        // fingerprint of " "+value and the multiplier to append it
+        long[][] suffixes = new long[universe][];
+        long[][] shifts = new long[universe][];
+        
+        int maxLength = 1;
+        for (Template<T> template:templates)
+            maxLength = Math.max(maxLength, template.ordinals.length);
+        
+        for (Map.Entry<T,Collection<String>> entry:sampleFlat.entrySet()) {
+            if (entry.getValue()==null) continue;
+            int o = entry.getKey().ordinal();
+            values[o] = new String[entry.getValue().size()];
+            fingerprints[o] = new long[values[o].length];
+            suffixes[o] = new long[values[o].length];
+            shifts[o] = new long[values[o].length];
+            int i=0;
+            for (String value:entry.getValue()) {
+                values[o][i] = value==null?"null":value;
+                fingerprints[o][i] = FrozenStringIntMap.fingerprint(values[o][i]);
+                long shift = FrozenStringIntMap.fingerprintShift(values[o][i].length());
+                suffixes[o][i] = ' '*shift+fingerprints[o][i];
+                shifts[o][i] = shift*FrozenStringIntMap.FINGERPRINT_BASE;
+                ++i;
+            }
+        }
+        
+        ConjunctionKey key = new ConjunctionKey(maxLength);
+        for (int t=0; t<templates.length; ++t) {
+            if (!isSelected(templates[t].feature, selector, containing))
+                continue;
+            boolean missing = false;
+            for (int o:templates[t].ordinals)
+                if (values[o]==null) {
+                    missing = true;
+                    break;
+                }
+            if (!missing)
+                visitConjunctions(t, templates[t].ordinals, 0, 0, values, fingerprints, suffixes, shifts, key, visitor);
+        }
+    }
+    
+    static void visitConjunctions(int template, int[] ordinals, int level, long prefix, String[][] values, long[][] fingerprints, long[][] suffixes, long[][] shifts, ConjunctionKey key, ConjunctionVisitor visitor) {
+        int o = ordinals[level];
+        for (int i=0; i<values[o].length; ++i) {
+            long fingerprint = level==0?fingerprints[o][i]:prefix*shifts[o][i]+suffixes[o][i];
+            key.parts[level] = values[o][i];
+            if (level+1==ordinals.length) {
+                key.nParts = level+1;
+                visitor.visit(template, fingerprint, key);
+            } else
+                visitConjunctions(template, ordinals, level+1, fingerprint, values, fingerprints, suffixes, shifts, key, visitor);
+        }
+    }
+    
+    /**
+     * @return the hashing trick index (1-based) of an n-gram 
+     */
+    int hashIndex(long seed, long fingerprint) {
+        long h = fingerprint^seed;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int)((h&Long.MAX_VALUE)%hashDimension)+1;
     }
     
     /**
@@ -140,10 +383,16 @@ public class FeatureSet<T extends Enum<T>> implements Serializable {
      * @return
      */
     public Map<EnumSet<T>,Collection<String>> convertFlatSample(EnumMap<T,Collection<String>> sampleFlat)  { 
+        return convertFlatSample(sampleFlat, null, false);
+    }
+    
+    Map<EnumSet<T>,Collection<String>> convertFlatSample(EnumMap<T,Collection<String>> sampleFlat, EnumSet<T> selector, boolean containing)  { 
         //System.out.println(sampleFlat);
         Map<EnumSet<T>,Collection<String>> sample = new HashMap<EnumSet<T>,Collection<String>>();
         
         for (EnumSet<T> feature:features)  {   
+            if (!isSelected(feature, selector, containing))
+                continue;
             Iterator<T> iter = feature.iterator();
             
             Collection<String> sList = sampleFlat.get(iter.next());
@@ -191,6 +440,13 @@ public class FeatureSet<T extends Enum<T>> implements Serializable {
                 featureSet.add(val);
         
         for(Map.Entry<EnumSet<T>,Collection<String>> entry:featureValueMap.entrySet()) {
+            if (getHashing()==Hashing.HASHED) {
+                if (!features.contains(entry.getKey())) continue;
+                long seed = FrozenStringIntMap.fingerprint(toString(entry.getKey()));
+                for (String fVal:entry.getValue())
+                    featureSet.add(hashIndex(seed, FrozenStringIntMap.fingerprint(fVal)));
+                continue;
+            }
             TObjectIntMap<String> fMap = featureStrMap.get(entry.getKey());
             // unused feature that was extracted
             if (fMap==null) continue;
@@ -216,7 +472,113 @@ public class FeatureSet<T extends Enum<T>> implements Serializable {
     }
     
     public int[] getFeatureVector(EnumMap<T,Collection<String>> sampleFlat) {
-        return getFeatureVector(convertFlatSample(sampleFlat));
+        return getFeatureVector(sampleFlat, null, false);
+    }
+    
+    /**
+     * Converts the n-gram templates that contain (or do not contain) any of 
+     * the selector features. Vectors of complementary selections can be 
+     * combined with {@link #union(int[], int[])}, so the part of a vector 
+     * that does not change between passes is only converted once.
+     * @param selector features selecting the templates, null for all templates
+     * @param containing whether to convert the templates containing a 
+     * selector feature or the ones that don't
+     */
+    public int[] getFeatureVector(EnumMap<T,Collection<String>> sampleFlat, EnumSet<T> selector, boolean containing) {
+        if (getHashing()==Hashing.NONE)
+            return getFeatureVector(convertFlatSample(sampleFlat, selector, containing));
+        
+        final TIntSet featureSet = new TIntHashSet();
+        final Template<T>[] templates = getTemplates();
+        
+        if (getHashing()==Hashing.HASHED) {
+            forEachConjunction(sampleFlat, selector, containing, new ConjunctionVisitor() {
+                @Override
+                public void visit(int template, long fingerprint, ConjunctionKey key) {
+                    featureSet.add(hashIndex(templates[template].seed, fingerprint));
+                }
+            });
+        } else {
+            @SuppressWarnings("unchecked")
+            final TObjectIntMap<String>[] fMaps = (TObjectIntMap<String>[])new TObjectIntMap<?>[templates.length];
+            for (int t=0; t<templates.length; ++t)
+                fMaps[t] = featureStrMap.get(templates[t].feature);
+            
+            forEachConjunction(sampleFlat, selector, containing, new ConjunctionVisitor() {
+                @Override
+                public void visit(int template, long fingerprint, ConjunctionKey key) {
+                    TObjectIntMap<String> fMap = fMaps[template];
+                    if (fMap==null) return;
+                    int mapIdx = fMap instanceof FrozenStringIntMap?
+                            ((FrozenStringIntMap)fMap).get(fingerprint, key):fMap.get(key.toString());
+                    if (mapIdx>0) featureSet.add(mapIdx);
+                }
+            });
+        }
+        
+        int [] features = featureSet.toArray();
+        Arrays.sort(features);
+        return features;
+    }
+    
+    /**
+     * @return whether the template contains (or doesn't contain) any of the 
+     * selector features, always true for a null selector
+     */
+    static <T extends Enum<T>> boolean isSelected(EnumSet<T> template, EnumSet<T> selector, boolean containing) {
+        if (selector==null)
+            return true;
+        for (T t:template)
+            if (selector.contains(t))
+                return containing;
+        return !containing;
+    }
+    
+    /**
+     * @return whether some template has both selector and other features
+     */
+    public boolean hasMixedTemplate(EnumSet<T> selector) {
+        for (EnumSet<T> feature:features)
+            if (isSelected(feature, selector, true) && !selector.containsAll(feature))
+                return true;
+        return false;
+    }
+    
+    /**
+     * @return the other features of the templates with selector features, 
+     * the values needed besides the selector ones to convert those templates
+     */
+    public EnumSet<T> getMixedFeatures(EnumSet<T> selector) {
+        EnumSet<T> mixed = EnumSet.complementOf(selector);
+        EnumSet<T> used = EnumSet.copyOf(selector);
+        for (EnumSet<T> feature:features)
+            if (isSelected(feature, selector, true))
+                used.addAll(feature);
+        mixed.retainAll(used);
+        return mixed;
+    }
+    
+    /**
+     * @return sorted union of two sorted feature vectors
+     */
+    public static int[] union(int[] lhs, int[] rhs) {
+        if (lhs.length==0) return rhs;
+        if (rhs.length==0) return lhs;
+        int[] ret = new int[lhs.length+rhs.length];
+        int i=0, j=0, k=0;
+        while (i<lhs.length && j<rhs.length) {
+            if (lhs[i]<rhs[j])
+                ret[k++] = lhs[i++];
+            else if (lhs[i]>rhs[j])
+                ret[k++] = rhs[j++];
+            else {
+                ret[k++] = lhs[i++];
+                ++j;
+            }
+        }
+        while (i<lhs.length) ret[k++] = lhs[i++];
+        while (j<rhs.length) ret[k++] = rhs[j++];
+        return k==ret.length?ret:Arrays.copyOf(ret, k);
     }
     
     public void addToDictionary(EnumSet<T> type, Collection<String> values) {
@@ -230,7 +592,18 @@ public class FeatureSet<T extends Enum<T>> implements Serializable {
      * @param weight changes the occurrence count for this feature value
      */
     public void addToDictionary(EnumSet<T> type, Collection<String> values, float weight) {
-        if (dictionaryFinalized) return;
+        if (dictionaryFinalized || getHashing()==Hashing.HASHED && !keepsDictionary(type)) return;
+        
+        if (getHashing()==Hashing.VERIFIED) {
+            Template<T>[] templates = getTemplates();
+            for (int t=0; t<templates.length; ++t)
+                if (templates[t].feature.equals(type)) {
+                    for (String fVal:values)
+                        countFingerprint(t, FrozenStringIntMap.fingerprint(fVal), fVal, weight);
+                    break;
+                }
+            return;
+        }
 
         TObjectFloatMap<String> fMap = featureCountMap.get(type);
         if (fMap==null) return;
@@ -243,19 +616,96 @@ public class FeatureSet<T extends Enum<T>> implements Serializable {
         addToDictionary(sampleFlat, 1f);
     }
     
-    public void addToDictionary(EnumMap<T,Collection<String>> sampleFlat, float weight) {
+    public void addToDictionary(EnumMap<T,Collection<String>> sampleFlat, final float weight) {
+        if (dictionaryFinalized) return;
+        
+        if (getHashing()==Hashing.HASHED) {
+            if (keptDictionaries==null) return;
+            final Template<T>[] templates = getTemplates();
+            final boolean[] kept = new boolean[templates.length];
+            for (int t=0; t<templates.length; ++t)
+                kept[t] = keepsDictionary(templates[t].feature);
+            forEachConjunction(sampleFlat, new ConjunctionVisitor() {
+                @Override
+                public void visit(int template, long fingerprint, ConjunctionKey key) {
+                    if (kept[template])
+                        featureCountMap.get(templates[template].feature).adjustOrPutValue(key.toString(), weight, weight);
+                }
+            });
+            return;
+        }
+        
+        if (getHashing()==Hashing.VERIFIED) {
+            forEachConjunction(sampleFlat, new ConjunctionVisitor() {
+                @Override
+                public void visit(int template, long fingerprint, ConjunctionKey key) {
+                    countFingerprint(template, fingerprint, key, weight);
+                }
+            });
+            return;
+        }
+        
         for (Map.Entry<EnumSet<T>,Collection<String>> entry:convertFlatSample(sampleFlat).entrySet())
             addToDictionary(entry.getKey(),entry.getValue(),weight);
     }
     
+    /**
+     * Counts an n-gram value by its fingerprint, the value is materialized 
+     * only the first time it's seen. Values colliding with a different value 
+     * of the same fingerprint are counted by String instead.
+     */
+    void countFingerprint(int template, long fingerprint, CharSequence key, float weight) {
+        String value = fingerprintKeyMaps[template].get(fingerprint);
+        if (value==null)
+            fingerprintKeyMaps[template].put(fingerprint, key.toString());
+        else if (!value.contentEquals(key)) {
+            ++collisions;
+            featureCountMap.get(getTemplates()[template].feature).adjustOrPutValue(key.toString(), weight, weight);
+            return;
+        }
+        fingerprintCountMaps[template].adjustOrPutValue(fingerprint, weight, weight);
+    }
+    
     /**
      * Prunes away rare features (occurs less than cutoff) and indexes all remain feature values
      * @param cutoff
      */
     public void rebuildMap(float cutoff) {
+        if (getHashing()==Hashing.HASHED) {
+            dimension = hashDimension;
+            for (EnumSet<T> feature:features) {
+                if (!keepsDictionary(feature)) continue;
+                TObjectIntMap<String> indexMap = new TObjectIntHashMap<String>();
+                for (TObjectFloatIterator<String> iter = featureCountMap.get(feature).iterator();iter.hasNext();) {
+                    iter.advance();
+                    if (iter.value()>=cutoff)
+                        indexMap.put(iter.key(), indexMap.size()+1);
+                }
+                featureStrMap.put(feature, indexMap);
+            }
+            dictionaryFinalized = true;
+            featureCountMap.clear();
+            freeze();
+            return;
+        }
+        if (getHashing()==Hashing.VERIFIED) {
+            Template<T>[] templates = getTemplates();
+            for (int t=0; t<templates.length; ++t) {
+                TObjectFloatMap<String> fMap = featureCountMap.get(templates[t].feature);
+                for (TLongFloatIterator iter=fingerprintCountMaps[t].iterator(); iter.hasNext();) {
+                    iter.advance();
+                    fMap.adjustOrPutValue(fingerprintKeyMaps[t].get(iter.key()), iter.value(), iter.value());
+                }
+            }
+            fingerprintCountMaps = null;
+            fingerprintKeyMaps = null;
+            if (collisions>0)
+                Logger.getLogger("clearcommon").info(collisions+" feature fingerprint collisions resolved");
+        }
         rebuildMapOptimized(cutoff);
         dictionaryFinalized = true;
         featureCountMap.clear();
+        freeze();
     }
     
     void rebuildMapFast(float cutoff) {
@@ -316,6 +766,19 @@ public class FeatureSet<T extends Enum<T>> implements Serializable {
             featureStrMap.get(featVal.type).put(featVal.value, ++dimension);
     }
     
+    /**
+     * Converts the finalized dictionary to read only, off heap maps, which 
+     * take a fraction of the memory and can be memory mapped from a model 
+     * file. Done by {@link #rebuildMap(float)}, needed only for dictionaries 
+     * deserialized from older models.
+     */
+    public void freeze() {
+        if (!dictionaryFinalized || featureStrMap==null) return;
+        for (Map.Entry<EnumSet<T>, TObjectIntMap<String>> entry:featureStrMap.entrySet())
+            if (!(entry.getValue() instanceof FrozenStringIntMap))
+                entry.setValue(FrozenStringIntMap.build(entry.getValue()));
+    }
+
     public static int buildMapIndex(TObjectIntMap<String> mapObj, int startIdx , boolean sorted) {
         String[] keys = mapObj.keys(new String[mapObj.size()]);
         if (sorted) Arrays.sort(keys);
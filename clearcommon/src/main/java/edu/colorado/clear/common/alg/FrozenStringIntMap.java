@@ -0,0 +1,533 @@
+package edu.colorado.clear.common.alg;
+
+import gnu.trove.TCollections;
+import gnu.trove.TIntCollection;
+import gnu.trove.function.TIntFunction;
+import gnu.trove.iterator.TObjectIntIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.procedure.TObjectIntProcedure;
+import gnu.trove.procedure.TObjectProcedure;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read only String to int map kept in a single flat (off heap) buffer, used
+ * for finalized feature dictionaries. The buffer can also be a memory mapped
+ * file region (see {@link edu.colorado.clear.common.util.MappedObjectFile}).
+ * 
+ * Keys are looked up through an open addressing table on their 64-bit
+ * {@link #fingerprint(CharSequence) fingerprint} and verified against the
+ * UTF-8 key arena, so a lookup does not allocate.
+ *
+ * Buffer layout (little endian):
+ * <pre>
+ * int    size
+ * int    no entry value
+ * int    table mask (table size - 1)
+ * int    (reserved)
+ * long[] fingerprints (size)
+ * int[]  table: entry+1, 0 if empty (table size)
+ * int[]  key offsets into the key arena (size+1)
+ * int[]  values (size)
+ * byte[] key arena: UTF-8 keys
+ * </pre>
+ */
+public final class FrozenStringIntMap implements TObjectIntMap<String>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int HEADER_SIZE = 16;
+    
+    static final long FINGERPRINT_BASE = 0x100000001b3L;
+
+    transient ByteBuffer buffer;
+    transient int size;
+    transient int noEntryValue;
+    transient int mask;
+    transient int tableStart;
+    transient int offsetStart;
+    transient int valueStart;
+    transient int arenaStart;
+
+    FrozenStringIntMap(ByteBuffer buffer) {
+        init(buffer);
+    }
+
+    void init(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        size = this.buffer.getInt(0);
+        noEntryValue = this.buffer.getInt(4);
+        mask = this.buffer.getInt(8);
+        tableStart = HEADER_SIZE+size*8;
+        offsetStart = tableStart+(mask+1)*4;
+        valueStart = offsetStart+(size+1)*4;
+        arenaStart = valueStart+size*4;
+    }
+    
+    /**
+     * Polynomial hash of the characters of key. It composes, i.e., 
+     * fingerprint(a+b) == fingerprint(a)*{@link #fingerprintShift(int) fingerprintShift}(b.length())+fingerprint(b)
+     * @param key
+     * @return
+     */
+    public static long fingerprint(CharSequence key) {
+        long fp = 0;
+        for (int i=0; i<key.length(); ++i)
+            fp = fp*FINGERPRINT_BASE+key.charAt(i);
+        return fp;
+    }
+    
+    /**
+     * @param length
+     * @return the fingerprint multiplier for appending length characters
+     */
+    public static long fingerprintShift(int length) {
+        long result = 1;
+        long base = FINGERPRINT_BASE;
+        for (; length>0; length>>>=1, base*=base)
+            if ((length&1)!=0)
+                result *= base;
+        return result;
+    }
+    
+    static int slot(long fingerprint, int mask) {
+        fingerprint ^= fingerprint >>> 33;
+        fingerprint *= 0xff51afd7ed558ccdL;
+        fingerprint ^= fingerprint >>> 33;
+        return (int)fingerprint & mask;
+    }
+    
+    static byte[] encode(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds a frozen copy of map
+     * @param map
+     * @return
+     */
+    public static FrozenStringIntMap build(TObjectIntMap<String> map) {
+        int size = map.size();
+        byte[][] keys = new byte[size][];
+        long[] fingerprints = new long[size];
+        int[] values = new int[size];
+
+        int tableSize = Integer.highestOneBit(Math.max(size*2-1, 1))<<1;
+        int[] table = new int[tableSize];
+        
+        int i=0;
+        int arenaSize=0;
+        for (TObjectIntIterator<String> iter=map.iterator(); iter.hasNext();++i) {
+            iter.advance();
+            keys[i] = encode(iter.key());
+            fingerprints[i] = fingerprint(iter.key());
+            values[i] = iter.value();
+            arenaSize += keys[i].length;
+            
+            int s = slot(fingerprints[i], tableSize-1);
+            while (table[s]!=0)
+                s = (s+1)&(tableSize-1);
+            table[s] = i+1;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_SIZE+size*8+tableSize*4+(size*2+1)*4+arenaSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(size);
+        buffer.putInt(map.getNoEntryValue());
+        buffer.putInt(tableSize-1);
+        buffer.putInt(0);
+        for (long fingerprint:fingerprints)
+            buffer.putLong(fingerprint);
+        for (int entry:table)
+            buffer.putInt(entry);
+        int offset = 0;
+        for (byte[] key:keys) {
+            buffer.putInt(offset);
+            offset += key.length;
+        }
+        buffer.putInt(offset);
+        for (int value:values)
+            buffer.putInt(value);
+        for (byte[] key:keys)
+            buffer.put(key);
+        buffer.flip();
+
+        return new FrozenStringIntMap(buffer);
+    }
+
+    /**
+     * @param buffer a buffer in the layout produced by {@link #getBuffer()}
+     * @return a map reading from (not copying) buffer
+     */
+    public static FrozenStringIntMap wrap(ByteBuffer buffer) {
+        return new FrozenStringIntMap(buffer);
+    }
+
+    /**
+     * @return read only view of the underlying buffer
+     */
+    public ByteBuffer getBuffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    long fingerprintAt(int idx) {
+        return buffer.getLong(HEADER_SIZE+idx*8);
+    }
+    
+    int keyOffset(int idx) {
+        return buffer.getInt(offsetStart+idx*4);
+    }
+
+    int valueAt(int idx) {
+        return buffer.getInt(valueStart+idx*4);
+    }
+
+    String keyAt(int idx) {
+        int start = keyOffset(idx);
+        byte[] bytes = new byte[keyOffset(idx+1)-start];
+        for (int i=0; i<bytes.length; ++i)
+            bytes[i] = buffer.get(arenaStart+start+i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * compares the UTF-8 key of entry idx with key without encoding key
+     */
+    boolean keyEquals(int idx, CharSequence key) {
+        int pos = arenaStart+keyOffset(idx);
+        int end = arenaStart+keyOffset(idx+1);
+        int len = key.length();
+        for (int i=0; i<len; ++i) {
+            int c = key.charAt(i);
+            if (c<0x80) {
+                if (pos>=end || buffer.get(pos++)!=c) return false;
+                continue;
+            }
+            int nBytes;
+            if (c<0x800)
+                nBytes = 2;
+            else if (!Character.isSurrogate((char)c))
+                nBytes = 3;
+            else if (Character.isHighSurrogate((char)c) && i+1<len && Character.isLowSurrogate(key.charAt(i+1))) {
+                c = Character.toCodePoint((char)c, key.charAt(++i));
+                nBytes = 4;
+            } else {
+                // unpaired surrogates are encoded as '?'
+                if (pos>=end || buffer.get(pos++)!='?') return false;
+                continue;
+            }
+            if (pos+nBytes>end) return false;
+            int lead = nBytes==2?0xc0:nBytes==3?0xe0:0xf0;
+            if ((buffer.get(pos++)&0xff)!=(lead|(c>>>(6*(nBytes-1))))) return false;
+            for (int b=nBytes-2; b>=0; --b)
+                if ((buffer.get(pos++)&0xff)!=(0x80|((c>>>(6*b))&0x3f))) return false;
+        }
+        return pos==end;
+    }
+
+    /**
+     * @return index of key, or -1 if not found
+     */
+    int indexOf(Object key) {
+        if (!(key instanceof CharSequence) || size==0) return -1;
+        CharSequence str = (CharSequence)key;
+        long fingerprint = fingerprint(str);
+        for (int s=slot(fingerprint, mask);; s=(s+1)&mask) {
+            int entry = buffer.getInt(tableStart+s*4);
+            if (entry==0) return -1;
+            if (fingerprintAt(entry-1)==fingerprint && keyEquals(entry-1, str))
+                return entry-1;
+        }
+    }
+
+    /**
+     * Looks up a key by its precomputed fingerprint
+     * @param fingerprint {@link #fingerprint(CharSequence)} of key
+     * @param key the key to verify the match against, or null to trust
+     * the fingerprint (first entry with a matching fingerprint)
+     * @return
+     */
+    public int get(long fingerprint, CharSequence key) {
+        if (size==0) return noEntryValue;
+        for (int s=slot(fingerprint, mask);; s=(s+1)&mask) {
+            int entry = buffer.getInt(tableStart+s*4);
+            if (entry==0) return noEntryValue;
+            if (fingerprintAt(entry-1)==fingerprint && (key==null || keyEquals(entry-1, key)))
+                return valueAt(entry-1);
+        }
+    }
+
+    @Override
+    public int getNoEntryValue() {
+        return noEntryValue;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size==0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key)>=0;
+    }
+
+    @Override
+    public boolean containsValue(int value) {
+        for (int i=0; i<size; ++i)
+            if (valueAt(i)==value)
+                return true;
+        return false;
+    }
+
+    @Override
+    public int get(Object key) {
+        int idx = indexOf(key);
+        return idx<0?noEntryValue:valueAt(idx);
+    }
+
+    @Override
+    public int put(String key, int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int putIfAbsent(String key, int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int remove(Object key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Integer> map) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void putAll(TObjectIntMap<? extends String> map) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    int idx = 0;
+                    @Override
+                    public boolean hasNext() {
+                        return idx<size;
+                    }
+                    @Override
+                    public String next() {
+                        if (idx>=size) throw new NoSuchElementException();
+                        return keyAt(idx++);
+                    }
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+            @Override
+            public int size() {
+                return size;
+            }
+            @Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+        };
+    }
+
+    @Override
+    public Object[] keys() {
+        return keys(new String[size]);
+    }
+
+    @Override
+    public String[] keys(String[] array) {
+        if (array.length<size)
+            array = new String[size];
+        for (int i=0; i<size; ++i)
+            array[i] = keyAt(i);
+        return array;
+    }
+
+    @Override
+    public TIntCollection valueCollection() {
+        return TCollections.unmodifiableCollection(new TIntArrayList(values()));
+    }
+
+    @Override
+    public int[] values() {
+        return values(new int[size]);
+    }
+
+    @Override
+    public int[] values(int[] array) {
+        if (array.length<size)
+            array = new int[size];
+        for (int i=0; i<size; ++i)
+            array[i] = valueAt(i);
+        return array;
+    }
+
+    @Override
+    public TObjectIntIterator<String> iterator() {
+        return new TObjectIntIterator<String>() {
+            int idx = -1;
+            @Override
+            public void advance() {
+                if (++idx>=size) throw new NoSuchElementException();
+            }
+            @Override
+            public boolean hasNext() {
+                return idx+1<size;
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+            @Override
+            public String key() {
+                return keyAt(idx);
+            }
+            @Override
+            public int value() {
+                return valueAt(idx);
+            }
+            @Override
+            public int setValue(int val) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public boolean increment(String key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean adjustValue(String key, int amount) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int adjustOrPutValue(String key, int adjust_amount, int put_amount) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean forEachKey(TObjectProcedure<? super String> procedure) {
+        for (int i=0; i<size; ++i)
+            if (!procedure.execute(keyAt(i)))
+                return false;
+        return true;
+    }
+
+    @Override
+    public boolean forEachValue(TIntProcedure procedure) {
+        for (int i=0; i<size; ++i)
+            if (!procedure.execute(valueAt(i)))
+                return false;
+        return true;
+    }
+
+    @Override
+    public boolean forEachEntry(TObjectIntProcedure<? super String> procedure) {
+        for (int i=0; i<size; ++i)
+            if (!procedure.execute(keyAt(i), valueAt(i)))
+                return false;
+        return true;
+    }
+
+    @Override
+    public void transformValues(TIntFunction function) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainEntries(TObjectIntProcedure<? super String> procedure) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this==obj) return true;
+        if (!(obj instanceof TObjectIntMap)) return false;
+        @SuppressWarnings("unchecked")
+        TObjectIntMap<Object> rhs = (TObjectIntMap<Object>)obj;
+        if (rhs.size()!=size) return false;
+        for (int i=0; i<size; ++i) {
+            String key = keyAt(i);
+            if (!rhs.containsKey(key) || rhs.get(key)!=valueAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hashCode = 0;
+        for (int i=0; i<size; ++i)
+            hashCode += keyAt(i).hashCode() ^ valueAt(i);
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i=0; i<size; ++i) {
+            if (i>0) builder.append(',');
+            builder.append(keyAt(i)).append('=').append(valueAt(i));
+        }
+        return builder.append('}').toString();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        ByteBuffer src = buffer.duplicate();
+        src.clear();
+        byte[] bytes = new byte[src.remaining()];
+        src.get(bytes);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        init(buffer);
+    }
+}
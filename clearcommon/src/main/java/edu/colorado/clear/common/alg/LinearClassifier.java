@@ -7,6 +7,8 @@ import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Properties;
 
+import edu.colorado.clear.common.util.ComputePool;
+import edu.colorado.clear.liblinearbinary.CompactModel;
 import edu.colorado.clear.liblinearbinary.Linear;
 import edu.colorado.clear.liblinearbinary.SolverType;
 
@@ -20,7 +22,13 @@ public class LinearClassifier extends Classifier implements Serializable {
     double C;
     double eps = 1e-3;
     double bias = -1;
+    int threads = 1;
+    long seed = 0;
+    boolean warmStart = false;
+    boolean compress = true;
+    transient edu.colorado.clear.liblinearbinary.Model initialModel;
     edu.colorado.clear.liblinearbinary.Model model;
+    CompactModel compactModel;
     int[] mLabelIdx;
     
     public LinearClassifier() {
@@ -45,10 +53,74 @@ public class LinearClassifier extends Classifier implements Serializable {
         }
  
         bias = Double.parseDouble(prop.getProperty("liblinear.bias", "-1"));
+        threads = Integer.parseInt(prop.getProperty("liblinear.threads", "1"));
+        seed = Long.parseLong(prop.getProperty("liblinear.seed", "0"));
+        warmStart = Boolean.parseBoolean(prop.getProperty("liblinear.warmStart", "false"));
+        compress = Boolean.parseBoolean(prop.getProperty("liblinear.compress", "true"));
+    }
+    
+    /**
+     * Retraining starts from the last model, or from previous if it's a 
+     * trained linear classifier
+     */
+    @Override
+    public void warmStart(Classifier previous) {
+    	if (warmStart && previous instanceof LinearClassifier)
+    		initialModel = ((LinearClassifier)previous).model;
+    }
+    
+    @Override
+    public boolean isWarmStart() {
+    	return warmStart;
+    }
+    
+    @Override
+    public int getThreads() {
+    	return threads;
+    }
+    
+    /**
+     * Sets the number of threads training the model
+     */
+    @Override
+    public int setThreads(int threads) {
+    	prop.setProperty("liblinear.threads", Integer.toString(threads));
+    	return this.threads=threads;
+    }
+    
+    @Override
+    public long getSeed() {
+    	return seed;
+    }
+    
+    /**
+     * Sets the seed of the solvers' PRNGs
+     */
+    @Override
+    public void setSeed(long seed) {
+    	prop.setProperty("liblinear.seed", Long.toString(seed));
+    	this.seed = seed;
+    }
+    
+    /**
+     * Replaces the trained model with a {@link CompactModel}: zero weight 
+     * features are dropped and weights are stored as floats
+     */
+    @Override
+    public void compact() {
+    	if (compactModel!=null) return;
+    	compactModel = CompactModel.build(model);
+    	model = null;
+    }
+    
+    int getNrFeature() {
+    	return compactModel==null?model.getNrFeature():compactModel.getNrFeature();
     }
     
     @Override
     public int predictNative(Object x) {
+    	if (compactModel!=null)
+    		return compactModel.predict((int[])x);
         return Linear.predict(model, (int[])x);
         //return predict(convertToNodes(x));
     }
@@ -60,45 +132,45 @@ public class LinearClassifier extends Classifier implements Serializable {
     
     @Override
     public int predictProbNative(Object x, double[] prob) {
-
-        double[] values = new double[model.getNrClass()];
-        int label = Linear.predictProbability(model, (int[])x, values);
-        
-        Arrays.fill(prob, 0);
+        int label = compactModel==null?Linear.predictLabelProbability(model, (int[])x, prob):compactModel.predictLabelProbability((int[])x, prob);
         
         if (label==0) {
-            label = Linear.predictValues(model, (int[])x, values);
+            label = predictNative(x);
+            Arrays.fill(prob, 0);
             prob[label-1]=1;
-            return label;
         }
-        
-        for (int i=0; i<mLabelIdx.length; ++i)
-            prob[mLabelIdx[i]-1] = values[i];
         return label;
     }
     
     @Override
     public int predictValuesNative(Object x, double[] val) {
-    	double[] values = new double[model.getNrClass()];
-        int label = Linear.predictValues(model, (int[])x, values);
-        
-        Arrays.fill(val, 0);
-        for (int i=0; i<mLabelIdx.length; ++i)
-            val[mLabelIdx[i]-1] = values[i];
-        return label;
+    	if (compactModel!=null)
+    		return compactModel.predictLabelValues((int[])x, val);
+        return Linear.predictLabelValues(model, (int[])x, val);
     }
 
     public void train (edu.colorado.clear.liblinearbinary.Problem problem)
     {
         edu.colorado.clear.liblinearbinary.Parameter param = new edu.colorado.clear.liblinearbinary.Parameter(solverType,C,eps);
+        param.setThreads(Math.max(1, threads), ComputePool.getPool());
+        param.setSeed(seed);
+        if (warmStart) {
+        	// keeps the dual variables of the dual solvers to start from too
+        	param.setKeepDual(true);
+        	param.setInitialModel(initialModel!=null?initialModel:model);
+        	initialModel = null;
+        }
         
         model = Linear.train(problem, param);
+        compactModel = null;
         mLabelIdx = model.getLabels();
     }
     
     
     @Override
 	public BitSet getFeatureMask() {
+    	if (compactModel!=null)
+    		return compactModel.getFeatureMask();
     	BitSet mask = new BitSet();
     	double[] w = model.getFeatureWeights();
     	for (int i=0; i<w.length; ++i) {
@@ -113,7 +185,7 @@ public class LinearClassifier extends Classifier implements Serializable {
     	if (bias<=0)
     		return x;
     	int[] xMod = Arrays.copyOf(x, x.length+1);
-    	xMod[x.length] = dimension>0?dimension+1:model.getNrFeature();
+    	xMod[x.length] = dimension>0?dimension+1:getNrFeature();
     	return xMod;
     }
 
@@ -145,9 +217,13 @@ public class LinearClassifier extends Classifier implements Serializable {
         
         problem.bias = bias>0?1:-1;
         problem.l = X.length;
-        problem.x = new int[X.length][];
-        for (int i=0; i<X.length;++i)
-            problem.x[i] = (int[])X[i];
+        if (X instanceof int[][])
+            problem.x = (int[][])X;
+        else {
+            problem.x = new int[X.length][];
+            for (int i=0; i<X.length;++i)
+                problem.x[i] = (int[])X[i];
+        }
         
         /*
         problem.x = new liblinear.FeatureNode[X.length][];
@@ -174,9 +250,29 @@ public class LinearClassifier extends Classifier implements Serializable {
         return problem;
     }
 
+    /**
+     * Collapses duplicate samples (same label and features) into weighted 
+     * ones if the solver supports it. It's skipped when the dual variables 
+     * of the dual solvers are kept for warm start, they are by sample.
+     */
+    edu.colorado.clear.liblinearbinary.Problem compress(edu.colorado.clear.liblinearbinary.Problem problem) {
+    	if (!compress || !solverType.supportsInstanceWeights() || 
+    			warmStart && (solverType==SolverType.L2R_L1LOSS_SVC_DUAL || solverType==SolverType.L2R_L2LOSS_SVC_DUAL))
+    		return problem;
+    	return problem.compress();
+    }
+
     @Override
     public void trainNative(Object[] X, int[] Y, double[] weightY) {
-        train(convertToProblem(X,Y, weightY, bias, dimension));
+        train(compress(convertToProblem(X,Y, weightY, bias, dimension)));
+    }
+    
+    /**
+     * Trains on a view of the rows, X is used as is if it's an int[][]
+     */
+    @Override
+    public void trainNativeRows(Object[] X, int[] Y, int[] rows) {
+        train(compress(convertToProblem(X, Y, null, bias, dimension).subset(rows)));
     }
 /*
     @Override
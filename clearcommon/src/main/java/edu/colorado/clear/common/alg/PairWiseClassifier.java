@@ -5,12 +5,13 @@ import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.hash.TObjectIntHashMap;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+
+import edu.colorado.clear.common.util.ComputePool;
 
 public class PairWiseClassifier extends Classifier implements Serializable {
     /**
@@ -24,6 +25,8 @@ public class PairWiseClassifier extends Classifier implements Serializable {
     
     int threads;
     
+    long seed;
+    
     class TrainJob implements Runnable{
         Classifier cf;
         TIntArrayList[] classLabels;
@@ -71,7 +74,8 @@ public class PairWiseClassifier extends Classifier implements Serializable {
             
             cf.dimension = dimension;
             cf.initialize(map, prop);
-
+            // each pair gets its own seed, the same whatever order the pairs train in
+            cf.setSeed(deriveSeed(seed, i*labels.length+j));
             
             cf.trainNative(XPair, YPair, weights);
         }
@@ -112,6 +116,7 @@ public class PairWiseClassifier extends Classifier implements Serializable {
             }
         topN = ((int)Math.round(labelMap.size()*0.1))+1;
         threads = Integer.parseInt(prop.getProperty("pairwise.threads","1"));
+        seed = Long.parseLong(prop.getProperty("liblinear.seed", "0"));
     }
     
     @Override
@@ -125,6 +130,29 @@ public class PairWiseClassifier extends Classifier implements Serializable {
     	return this.threads=threads;
     }
     
+    @Override
+    public long getSeed() {
+    	return seed;
+    }
+    
+    /**
+     * Sets the seed the pairwise classifiers' seeds are derived from
+     */
+    @Override
+    public void setSeed(long seed) {
+    	prop.setProperty("liblinear.seed", Long.toString(seed));
+    	this.seed = seed;
+    }
+    
+    @Override
+    public void compact() {
+    	for (Classifier[] row:classifiers)
+    		if (row!=null)
+    			for (Classifier classifier:row)
+    				if (classifier!=null)
+    					classifier.compact();
+    }
+    
     @Override
     public int predictNative(Object x) {
         return predictValuesNative(x, new double[labelMap.size()]);
@@ -172,8 +200,7 @@ public class PairWiseClassifier extends Classifier implements Serializable {
             for (int j=i+1; j<labelMap.size(); ++j) {
             	if (classifiers[i][j]==null) continue;
             	
-                double[] probs = new double[classifiers[i][j].getClassCnt()];
-                int label = classifiers[i][j].predictValuesNative(x,probs);
+                int label = classifiers[i][j].predictNative(x);
                 //double a = 1 / (1 + Math.exp(-probs[0]));
                 //double b = 1 / (1 + Math.exp(-probs[1]));
                 //double s = a+b;
@@ -265,8 +292,7 @@ public class PairWiseClassifier extends Classifier implements Serializable {
         }
         */
 
-        ExecutorService executor = null;
-        if (threads>1) executor = Executors.newFixedThreadPool(threads);
+        List<TrainJob> jobs = new ArrayList<TrainJob>();
         
         for (int i=0; i<labelMap.size()-1; ++i) {
             for (int j=i+1; j<labelMap.size(); ++j) {
@@ -279,10 +305,7 @@ public class PairWiseClassifier extends Classifier implements Serializable {
                 if (classifiers[i][j]==null)
                     classifiers[i][j] = new LinearClassifier();
                 
-                TrainJob job = new TrainJob(classifiers[i][j], classLabels, i, j, X, weightY);
-                
-                if (executor !=null) executor.execute(job);
-                else job.run();
+                jobs.add(new TrainJob(classifiers[i][j], classLabels, i, j, X, weightY));
 
                 /*
                 System.out.println("2 vs rest");
@@ -303,17 +326,7 @@ public class PairWiseClassifier extends Classifier implements Serializable {
             }
         }
         
-        if (executor!=null) {
-            executor.shutdown();
-            while (true)
-            {
-                try {
-                    if (executor.awaitTermination(5, TimeUnit.MINUTES)) break;
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+        ComputePool.runAll(jobs, threads);
     }
     
     @Override
@@ -24,12 +24,12 @@
 package edu.colorado.clear.common.alg;
 
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
 
 import edu.colorado.clear.common.alg.Classifier.InstanceFormat;
+import edu.colorado.clear.common.util.ComputePool;
 
 /**
  * Trains one-vs-all RRM classifiers.
@@ -111,7 +111,6 @@ public class RRMTrainer extends SuperTrainer
      */
     private void train(int numThreads)
     {
-        ExecutorService executor = Executors.newFixedThreadPool(numThreads);;
         System.out.println("\n* Training");
         
         short[] aLabels = s_labels.toArray();
@@ -120,15 +119,10 @@ public class RRMTrainer extends SuperTrainer
         if (aLabels.length<2)
             return;
 
+        List<TrainTask> tasks = new ArrayList<TrainTask>(aLabels.length);
         for (short currLabel : aLabels)
-            executor.execute(new TrainTask(currLabel));
-        executor.shutdown();
-        try {
-            executor.awaitTermination(10, TimeUnit.MINUTES);
-        } catch (InterruptedException e)
-        {
-            
-        }
+            tasks.add(new TrainTask(currLabel));
+        ComputePool.runAll(tasks, numThreads);
     }
         
     /**
@@ -131,6 +131,15 @@ public class SimpleModel<T extends Enum<T>> implements Serializable {
         return strLabels;
     }
     
+    /**
+     * see {@link Classifier#compact()}
+     */
+    public void compact() {
+    	if (classifier!=null)
+    		classifier.compact();
+    	featureSet.freeze();
+    }
+    
     public String predictLabel(EnumMap<T,Collection<String>> sample) {
         return labelIndexMap.get(classifier.predict(featureSet.getFeatureVector(sample)));
     }
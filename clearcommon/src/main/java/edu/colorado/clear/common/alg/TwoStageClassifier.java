@@ -28,6 +28,12 @@ public class TwoStageClassifier extends Classifier implements Serializable {
         this.cutoff = Double.parseDouble(prop.getProperty("TwoStageClassifier.cutoff"));
     }
 
+    @Override
+    public void compact() {
+    	if (stageOneClassifier!=null) stageOneClassifier.compact();
+    	if (stageTwoClassifier!=null) stageTwoClassifier.compact();
+    }
+
     @Override
     public void trainNative(Object[] X, int[] Y, double[] weightY) {
         
@@ -27,6 +27,7 @@ import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
@@ -92,10 +93,18 @@ public class PBFileReader
     }
 
     public PBFileReader(TBReader tbReader, String annotationFile, PBTokenizer tokenizer) throws IOException
+    {
+        this(tbReader, annotationFile, new BufferedReader(new InputStreamReader(new FileInputStream(annotationFile), StandardCharsets.UTF_8)), tokenizer);
+    }
+    
+    /**
+     * Reads the annotation of 'annotationFile' from 'reader' instead of the file itself.
+     */
+    public PBFileReader(TBReader tbReader, String annotationFile, Reader reader, PBTokenizer tokenizer)
     {
         this.tbReader       = tbReader;
         this.annotationFile = annotationFile;
-        scanner             = new Scanner(new BufferedReader(new InputStreamReader(new FileInputStream(annotationFile), StandardCharsets.UTF_8)));
+        scanner             = new Scanner(reader);
         this.tokenizer      = tokenizer;
         lastInstance        = null;
         closed              = false;
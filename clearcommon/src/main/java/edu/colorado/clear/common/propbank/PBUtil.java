@@ -4,21 +4,26 @@ import edu.colorado.clear.common.treebank.ParseException;
 import edu.colorado.clear.common.treebank.TBNode;
 import edu.colorado.clear.common.treebank.TBReader;
 import edu.colorado.clear.common.treebank.TBTree;
+import edu.colorado.clear.common.util.ComputePool;
 import edu.colorado.clear.common.util.FileUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -48,51 +53,52 @@ public final class PBUtil {
     }
     
     public static Map<String, SortedMap<Integer, List<PBInstance>>> readPBDir(List<String> files, TBReader tbReader, PBTokenizer tokenizer)
+    {
+        return readPBDir(files, null, tbReader, tokenizer);
+    }
+    
+    /**
+     * @param lineMap annotation lines to read instead of the content of the 
+     * annotation files they're mapped to, can be null
+     */
+    public static Map<String, SortedMap<Integer, List<PBInstance>>> readPBDir(List<String> files, final Map<String, List<String>> lineMap, final TBReader tbReader, final PBTokenizer tokenizer)
     {   
-        int exceptionCnt=0;
+        long startTime = System.nanoTime();
+        final AtomicInteger exceptionCnt = new AtomicInteger();
+        
+        // files are read in parallel when the trees come from a (thread safe) cached reader
+        List<Future<List<PBInstance>>> tasks = new ArrayList<Future<List<PBInstance>>>(files.size());
+        for (final String annotationFile: files) {
+            Callable<List<PBInstance>> task = new Callable<List<PBInstance>>() {
+                @Override
+                public List<PBInstance> call() {
+                    return readPBFile(annotationFile, lineMap==null?null:lineMap.get(annotationFile), tbReader, tokenizer, exceptionCnt);
+                }
+            };
+            if (tbReader.isCached())
+                tasks.add(ComputePool.submit(task));
+            else {
+                FutureTask<List<PBInstance>> future = new FutureTask<List<PBInstance>>(task);
+                future.run();
+                tasks.add(future);
+            }
+        }
         
         Map<String, SortedMap<Integer, List<PBInstance>>> pbMap = new TreeMap<String, SortedMap<Integer, List<PBInstance>>>();
         SortedMap<Integer, List<PBInstance>> instances;
         
-        Set<String> predicates = new HashSet<String>();
-        
-        for (String annotationFile: files)
-        {
-            PBFileReader pbreader=null;
+        for (Future<List<PBInstance>> task:tasks) {
+            List<PBInstance> fileInstances;
             try {
-                pbreader = new PBFileReader(tbReader, annotationFile, tokenizer);
-            } catch (IOException e1) {
-                e1.printStackTrace();
+                fileInstances = task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
                 continue;
             }
-            logger.info("Reading "+annotationFile);
-            PBInstance instance=null;
-            //System.out.println(annotationFile);
-            for (;;)
-            {
-                try {
-                    instance = pbreader.nextProp();
-                } catch (PBFormatException e) {
-                    if (!e.getMessage().startsWith("parse tree invalid")) {
-                        ++exceptionCnt;
-                        e.printStackTrace();
-                    }
-                    continue;
-                } catch (ParseException e) {
-                    e.printStackTrace();
-                    pbreader.close();
-                    break;
-                } catch (Exception e) {
-                    logger.severe(annotationFile+": "+e.getMessage());
-                    e.printStackTrace();
-                    continue;
-                }
-                
-                if (instance==null) break;
-                
-                predicates.add(instance.rolesetId);
-                
-                //System.out.println(instance.treeFile+" "+instance.treeIndex+" "+instance.predicateIndex);
+            for (PBInstance instance:fileInstances) {
                 instances = pbMap.get(instance.tree.getFilename());
                 if (instances == null)
                 {
@@ -107,12 +113,6 @@ public final class PBUtil {
                     instances.put(instance.tree.getIndex(), instanceList);
                 }
                 instanceList.add(instance);
-                
-                //instance.tree.moveToRoot();
-                //String[] sent = instance.tree.getSubTokens();             
-                //for (String word:sent)
-                //  System.out.print(word+" ");
-                //System.out.print("\n");   
             }
         }
         
@@ -142,11 +142,55 @@ public final class PBUtil {
 		    	count+=e2.getValue().size();
         	}
         
-        logger.info(String.format("%d props read, %d props skipped due to format exceptions, %d duplicated props removed\n", count, exceptionCnt, dupCnt));
+        if (files.size()>1) {
+            double seconds = (System.nanoTime()-startTime)/1e9;
+            logger.info(String.format("Read %d props from %d files in %.1fs (%.0f props/s)", count, files.size(), seconds, count/Math.max(seconds, 1e-3)));
+        }
+        logger.info(String.format("%d props read, %d props skipped due to format exceptions, %d duplicated props removed\n", count, exceptionCnt.get(), dupCnt));
         
         return pbMap;       
     }
     
+    static List<PBInstance> readPBFile(String annotationFile, List<String> lines, TBReader tbReader, PBTokenizer tokenizer, AtomicInteger exceptionCnt)
+    {
+        List<PBInstance> instances = new ArrayList<PBInstance>();
+        
+        PBFileReader pbreader=null;
+        try {
+            pbreader = lines==null?new PBFileReader(tbReader, annotationFile, tokenizer)
+                    :new PBFileReader(tbReader, annotationFile, new StringReader(String.join("\n", lines)), tokenizer);
+        } catch (IOException e1) {
+            e1.printStackTrace();
+            return instances;
+        }
+        logger.info("Reading "+annotationFile);
+        PBInstance instance=null;
+        for (;;)
+        {
+            try {
+                instance = pbreader.nextProp();
+            } catch (PBFormatException e) {
+                if (!e.getMessage().startsWith("parse tree invalid")) {
+                    exceptionCnt.incrementAndGet();
+                    e.printStackTrace();
+                }
+                continue;
+            } catch (ParseException e) {
+                e.printStackTrace();
+                pbreader.close();
+                break;
+            } catch (Exception e) {
+                logger.severe(annotationFile+": "+e.getMessage());
+                e.printStackTrace();
+                continue;
+            }
+            
+            if (instance==null) break;
+            instances.add(instance);
+        }
+        return instances;
+    }
+    
     static final Pattern ARG_PATTERN = Pattern.compile("(([RC]-)?(A[A-Z]*\\d))(\\-[A-Za-z]+)?");
     static String removeArgModifier(String argType) {
         Matcher matcher = ARG_PATTERN.matcher(argType);
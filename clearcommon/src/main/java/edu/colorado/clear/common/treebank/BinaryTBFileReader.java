@@ -0,0 +1,204 @@
+package edu.colorado.clear.common.treebank;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads trees from the compact binary encoding written by {@link #write(File, TBTree[])}.
+ * Any tree of the file can be read directly, the file offsets of the trees
+ * are kept in an index.
+ *
+ * <pre>
+ * file:   magic, version, head rules signature, header length, header, trees
+ * header: symbol table, tree count, encoded length of each tree
+ * </pre>
+ * The trees are encoded by {@link TBBinaryCodec}. Trees are cached after
+ * their heads are linked, the signature of the head rules used (0 for trees
+ * without heads) is part of what makes a cache file current.
+ */
+public class BinaryTBFileReader extends TBFileReader {
+
+    public static final String SUFFIX = ".tbc";
+
+    static final int MAGIC = 0x54424331; // TBC1
+    static final int VERSION = 2;
+
+    RandomAccessFile file;
+    TBBinaryCodec    codec;
+    long[]           offsets; // start of each tree, the last is the end of file
+    int              treeCount;
+    long             headSignature;
+
+    public BinaryTBFileReader(File file, String fileName) throws IOException {
+        super(fileName);
+        this.file = new RandomAccessFile(file, "r");
+        try {
+            if (this.file.readInt()!=MAGIC)
+                throw new IOException(file.getPath()+" is not a binary tree file");
+            int version = this.file.readInt();
+            if (version!=VERSION)
+                throw new IOException(file.getPath()+": unsupported binary tree file version "+version);
+            headSignature = this.file.readLong();
+            byte[] header = new byte[this.file.readInt()];
+            this.file.readFully(header);
+
+            ByteBuffer in = ByteBuffer.wrap(header);
+            codec = new TBBinaryCodec(TBBinaryCodec.readSymbols(in));
+            offsets = new long[TBBinaryCodec.readInt(in)+1];
+            offsets[0] = this.file.getFilePointer();
+            for (int i=1; i<offsets.length; ++i)
+                offsets[i] = offsets[i-1]+TBBinaryCodec.readInt(in);
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+        treeCount = 0;
+    }
+
+    /**
+     * @return the binary encoding of 'treeFile' under 'cacheDir'
+     */
+    public static File getCacheFile(String cacheDir, String treeFile) {
+        return new File(cacheDir, treeFile+SUFFIX);
+    }
+
+    /**
+     * @return whether cacheFile exists, is not older than textFile and holds
+     * trees without heads
+     */
+    public static boolean isCurrent(File cacheFile, File textFile) {
+        return isCurrent(cacheFile, textFile, null);
+    }
+
+    /**
+     * @return whether cacheFile exists, is not older than textFile and has
+     * the current version and the heads of headrules (none if null)
+     */
+    public static boolean isCurrent(File cacheFile, File textFile, TBHeadRules headrules) {
+        if (!cacheFile.isFile() || cacheFile.lastModified()<textFile.lastModified())
+            return false;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(cacheFile))) {
+            return in.readInt()==MAGIC && in.readInt()==VERSION && in.readLong()==getSignature(headrules);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static long getSignature(TBHeadRules headrules) {
+        return headrules==null?0:headrules.getSignature();
+    }
+
+    public int size() {
+        return offsets.length-1;
+    }
+
+    @Override
+    public TBTree nextTree() throws ParseException {
+        return getTree(treeCount);
+    }
+
+    /**
+     * Reads a tree by seeking to it, trees can be read in any order.
+     */
+    @Override
+    public TBTree getTree(int index) throws ParseException {
+        if (closed || index<0 || index>=size())
+            return null;
+        try {
+            byte[] data = new byte[(int)(offsets[index+1]-offsets[index])];
+            file.seek(offsets[index]);
+            file.readFully(data);
+            treeCount = index+1;
+            return codec.readTree(ByteBuffer.wrap(data), fileName);
+        } catch (IOException e) {
+            throw new ParseException(fileName+":"+index+" "+e.getMessage());
+        }
+    }
+
+    /**
+     * @return all the trees of the file
+     */
+    public TBTree[] readTrees() throws ParseException {
+        if (closed)
+            return null;
+        TBTree[] trees = new TBTree[size()];
+        try {
+            byte[] data = new byte[(int)(offsets[trees.length]-offsets[0])];
+            file.seek(offsets[0]);
+            file.readFully(data);
+            ByteBuffer in = ByteBuffer.wrap(data);
+            for (treeCount=0; treeCount<trees.length; ++treeCount)
+                trees[treeCount] = codec.readTree(in, fileName);
+        } catch (IOException e) {
+            throw new ParseException(fileName+":"+treeCount+" "+e.getMessage());
+        }
+        return trees;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static void write(File file, TBTree[] trees) throws IOException {
+        write(file, trees, null);
+    }
+
+    /**
+     * Writes the binary encoding of the trees to file. The file is written
+     * under a temporary name first, so readers never see a partial file.
+     * @param headrules the rules the heads of trees were linked with, null
+     * if they weren't
+     */
+    public static void write(File file, TBTree[] trees, TBHeadRules headrules) throws IOException {
+        TBBinaryCodec codec = new TBBinaryCodec();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int[] lengths = new int[trees.length];
+        for (int i=0; i<trees.length; ++i) {
+            int start = data.size();
+            codec.writeTree(trees[i], data);
+            lengths[i] = data.size()-start;
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        codec.writeSymbols(header);
+        TBBinaryCodec.writeInt(header, lengths.length);
+        for (int length:lengths)
+            TBBinaryCodec.writeInt(header, length);
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", parent);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmpFile))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(getSignature(headrules));
+            out.writeInt(header.size());
+            header.writeTo(out);
+            data.writeTo(out);
+        } catch (IOException e) {
+            tmpFile.delete();
+            throw e;
+        }
+        if (!tmpFile.renameTo(file)) {
+            file.delete();
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                throw new IOException("failed to write "+file.getPath());
+            }
+        }
+    }
+}
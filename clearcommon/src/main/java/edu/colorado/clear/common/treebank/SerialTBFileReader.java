@@ -1,20 +1,13 @@
 package edu.colorado.clear.common.treebank;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-//import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
 import java.util.List;
-//import java.util.Scanner;
-import java.util.Stack;
-import java.util.StringTokenizer;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 
@@ -24,14 +17,21 @@ public class SerialTBFileReader extends TBFileReader
 {
     private static Logger logger = Logger.getLogger(PBFileReader.class.getPackage().getName());
 
-    //private static String WHITESPACE = " \t\n\r\f";
+    static final int EOF  = -1;
+    static final int ATOM = 0;
+    
+    Reader        reader;
+    char[]        buffer;
+    int           bufferPos;
+    int           bufferEnd;
+    String        atom;        // text of the last ATOM token
+    StringBuilder atomBuilder; // for atoms crossing the end of the buffer
+    
+    List<List<TBNode>> childLists; // children of the open nodes, reused between trees
+    int           depth;
     
-    BufferedReader reader;
-    Deque<String>  tokenQueue;
-    //Scanner       scanner;
     int           treeCount;
     TBTree        lastTree;
-    StringBuilder inputStr;
     
     /**
      * Initializes the Treebank reader.
@@ -53,15 +53,16 @@ public class SerialTBFileReader extends TBFileReader
     public SerialTBFileReader(Reader reader, String fileName) {
         super(fileName);
         
-        this.reader = new BufferedReader(reader);
-        tokenQueue = new ArrayDeque<String>();
-        //scanner      = new Scanner(reader);
-        //scanner.useDelimiter(String.format("((?<=[\\(\\)%s])|(?=[\\(\\)%s]))",WHITESPACE, WHITESPACE));
+        this.reader   = reader;
+        buffer        = new char[1<<14];
+        bufferPos     = 0;
+        bufferEnd     = 0;
+        atomBuilder   = new StringBuilder();
+        childLists    = new ArrayList<List<TBNode>>();
         
         treeCount     = 0;
         lastTree      = null;
         closed        = false;
-        inputStr      = new StringBuilder();
     }
     
     /**
@@ -72,21 +73,17 @@ public class SerialTBFileReader extends TBFileReader
     @Override
     public TBTree nextTree() throws ParseException
     {    
-        String str;
-        
-        do {
-            str = nextToken();
-            if (str == null)
+        int tok;
+        while ((tok = nextToken()) != '(')
+            if (tok == EOF)
             {
-                inputStr = new StringBuilder();
                 logger.fine("Read "+treeCount+" trees, done.");
                 return lastTree=null;
             }
-            logger.fine("Reading tree "+treeCount);
-        } while (!str.equals(TBLib.LRB));
+        logger.fine("Reading tree "+treeCount);
         
-        Stack<List<TBNode>> childNodeStack = new Stack<List<TBNode>>();
-        childNodeStack.push(new ArrayList<TBNode>());
+        depth = 0;
+        pushChildren();
         
         int terminalIndex = 0;
         int tokenIndex    = 0;
@@ -94,27 +91,29 @@ public class SerialTBFileReader extends TBFileReader
         TBNode curr       = head;                       // pointer to the current node
         
         do {
-            if ((str = nextToken()) == null)
+            if ((tok = nextToken()) == EOF)
                 throw new ParseException(fileName+", "+treeCount+": more tokens needed");
-            //System.out.println(str);
             
-            if (str.equals(TBLib.LRB)) {
-                if ((str = nextToken()) == null)        // str = pos-tag
-                    throw new ParseException(fileName+", "+treeCount+": POS-tag is missing, Read \""+inputStr.toString()+"\"");
-                if (!TBNode.POS_PATTERN.matcher(str).matches())
-                    logger.warning(fileName+", "+treeCount+": Malformed POS tag: "+str);
+            if (tok == '(') {
+                if ((tok = nextToken()) == EOF)         // pos-tag
+                    throw new ParseException(fileName+", "+treeCount+": POS-tag is missing");
+                String pos = tok==ATOM?atom:tok=='('?TBLib.LRB:TBLib.RRB;
+                if (TBLabel.posLength(pos)<0)
+                    logger.warning(fileName+", "+treeCount+": Malformed POS tag: "+pos);
                 
-                TBNode childNode = new TBNode(curr, str, (short)(childNodeStack.peek().size()));
-                childNodeStack.peek().add(childNode);
+                List<TBNode> siblings = peekChildren();
+                TBNode childNode = new TBNode(curr, pos, (short)(siblings.size()));
+                siblings.add(childNode);
                 
                 curr = childNode;                           // move to child
-                childNodeStack.push(new ArrayList<TBNode>());
-            } else if (str.equals(TBLib.RRB)) {
-            	curr.children= childNodeStack.pop().toArray(TBNode.NO_CHILDREN);
+                pushChildren();
+            } else if (tok == ')') {
+            	curr.children = popChildren();
             	
                	if (curr.children.length==0 && curr.getWord()==null) {
             		curr.getParent().word = "("+curr.getPOS()+")";
-            		childNodeStack.peek().remove(childNodeStack.peek().size()-1);
+            		List<TBNode> siblings = peekChildren();
+            		siblings.remove(siblings.size()-1);
             		curr = curr.getParent();  
             		curr.terminalIndex = terminalIndex++;
                     if (curr.isEC())
@@ -133,24 +132,24 @@ public class SerialTBFileReader extends TBFileReader
 	                curr = curr.getParent();                // move to parent
             	}
             } else if (curr.pos.isEmpty()) {
-                curr.pos = str;
+                curr.pos = atom;
             } else {
                 if (curr.terminalIndex >= 0)
                 {
                     // code to fix Berkeley parser anomaly 
                     TBNode pNode = curr;
-                    curr.children= childNodeStack.pop().toArray(TBNode.NO_CHILDREN);
+                    curr.children = popChildren();
                     curr = curr.getParent();
                     
-                    TBNode childNode = new TBNode(curr, str, (short)(childNodeStack.peek().size()));
-                    childNodeStack.peek().add(childNode);
+                    List<TBNode> siblings = peekChildren();
+                    TBNode childNode = new TBNode(curr, pNode.pos, (short)(siblings.size()));
+                    siblings.add(childNode);
                     
                     curr = childNode;                           // move to child
-                    childNodeStack.push(new ArrayList<TBNode>());
-                    curr.pos = pNode.pos;
-                    logger.fine(fileName+", "+treeCount+": multi-word token: "+pNode.word+" "+str+"("+pNode.pos+")");
+                    pushChildren();
+                    logger.fine(fileName+", "+treeCount+": multi-word token: "+pNode.word+" "+atom+"("+pNode.pos+")");
                 }
-                curr.word = str;                        // str = word
+                curr.word = atom;                       // atom = word
                 curr.terminalIndex = terminalIndex++;
                 if (curr.isEC())
                 	curr.tokenIndex = -tokenIndex-1;
@@ -158,7 +157,7 @@ public class SerialTBFileReader extends TBFileReader
                 	curr.tokenIndex = tokenIndex++;
             }
         }
-        while (!childNodeStack.isEmpty());
+        while (depth > 0);
         
         // omit the dummy head
         TBNode tmp = head.children.length==1?head.children[0]:head;
@@ -167,10 +166,29 @@ public class SerialTBFileReader extends TBFileReader
         	tmp.pos = "FRAG";
         
         tmp.parent=null;
-        inputStr = new StringBuilder();
         return lastTree=new TBTree(fileName, treeCount++, tmp, terminalIndex, tokenIndex);
     }
     
+    void pushChildren()
+    {
+        if (depth == childLists.size())
+            childLists.add(new ArrayList<TBNode>());
+        childLists.get(depth++).clear();
+    }
+    
+    List<TBNode> peekChildren()
+    {
+        return childLists.get(depth-1);
+    }
+    
+    TBNode[] popChildren()
+    {
+        List<TBNode> children = childLists.get(--depth);
+        TBNode[] childArray = children.toArray(TBNode.NO_CHILDREN);
+        children.clear();
+        return childArray;
+    }
+    
     @Override
     public TBTree getTree(int index) throws ParseException
     {
@@ -213,36 +231,80 @@ public class SerialTBFileReader extends TBFileReader
         return !closed;
     }
     
-    private String nextToken()
+    /**
+     * Scans the next token directly from the character buffer, tokens are 
+     * delimited by parentheses and white spaces.
+     * @return '(', ')', ATOM (with its text in atom) or EOF
+     */
+    int nextToken()
     {
-    	if (tokenQueue.isEmpty() && isOpen()) {
-    		String line = null;
-    		try {
-    			line = reader.readLine();
-            } catch (IOException e) {
-            	e.printStackTrace();
+        for (;;) {
+            if (bufferPos == bufferEnd && !fillBuffer())
+                return EOF;
+            
+            char c = buffer[bufferPos];
+            if (c == '(' || c == ')') {
+                ++bufferPos;
+                return c;
             }
-
-            if (line == null) {
-            	close();
-                return null;
+            if (isSpace(c)) {
+                ++bufferPos;
+                continue;
             }
             
-            line = line.trim();
-            if (line.isEmpty())
-            	return nextToken();
-            
-            StringTokenizer tok = new StringTokenizer(line, "() \t\n\r\f", true);
-            String str;
+            int start = bufferPos;
+            atomBuilder.setLength(0);
+            for (;;) {
+                while (bufferPos < bufferEnd && !isDelimiter(buffer[bufferPos]))
+                    ++bufferPos;
+                if (bufferPos < bufferEnd)
+                    break;
+                atomBuilder.append(buffer, start, bufferPos-start);
+                boolean filled = fillBuffer();
+                start = bufferPos;
+                if (!filled)
+                    break;
+            }
+            String str = atomBuilder.length()==0?new String(buffer, start, bufferPos-start)
+                    :atomBuilder.append(buffer, start, bufferPos-start).toString();
             
-            while (tok.hasMoreTokens()) {
-            	str = tok.nextToken().trim();
-            	if (!str.isEmpty()) 
-            		tokenQueue.add(str);
+            // other control characters are trimmed from the atoms
+            if (str.charAt(0) <= ' ' || str.charAt(str.length()-1) <= ' ')
+                str = str.trim();
+            if (!str.isEmpty()) {
+                atom = str;
+                return ATOM;
+            }
+        }
+    }
+    
+    boolean fillBuffer()
+    {
+        if (closed)
+            return false;
+        try {
+            int cnt;
+            while ((cnt = reader.read(buffer, 0, buffer.length)) == 0);
+            if (cnt > 0) {
+                bufferPos = 0;
+                bufferEnd = cnt;
+                return true;
             }
-    	}
-    	
-        return tokenQueue.pop();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        close();
+        return false;
+    }
+    
+    static boolean isSpace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+    
+    static boolean isDelimiter(char c)
+    {
+        return c == '(' || c == ')' || isSpace(c);
     }
 
 }
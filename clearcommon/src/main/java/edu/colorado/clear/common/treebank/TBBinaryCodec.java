@@ -0,0 +1,362 @@
+package edu.colorado.clear.common.treebank;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Compact binary encoding of trees. Strings are written as ids of a symbol
+ * table, which is shared by all the trees written with the same codec and
+ * is stored separately by the caller (other strings can be interned into it
+ * as well).
+ *
+ * <pre>
+ * tree:   index, terminal count, token count, nodes
+ * nodes:  node count, root child index, nodes in preorder
+ * node:   pos, child count and flags, [word], [function tags], [terminal index,
+ *         token index], [indexing node], [head], [head constituent], [dependency label]
+ * </pre>
+ * Node references are preorder indices relative to the node, all numbers are
+ * varints. The flags mark the optional fields present, terminal and token
+ * indices are only written when they differ from the ones
+ * {@link SerialTBFileReader} assigns.
+ *
+ * An encoding codec is not thread safe, decoding is.
+ */
+public final class TBBinaryCodec {
+
+    // fields present in a node record, the child count takes the remaining bits
+    static final int WORD             = 1;
+    static final int FUNCTION_TAGS    = 1<<1;
+    static final int INDICES          = 1<<2;
+    static final int INDEXING_NODE    = 1<<3;
+    static final int HEAD             = 1<<4;
+    static final int HEAD_CONSTITUENT = 1<<5;
+    static final int DEP_LABEL        = 1<<6;
+    static final int FLAG_BITS        = 7;
+
+    List<String>          symbols;
+    TObjectIntMap<String> symbolMap;
+    String[]              symbolArray;
+
+    // encoding state
+    Map<TBNode, Integer>  nodeIds;
+    List<TBNode>          nodes;
+    int[]                 indices; // derived terminal and token index of each node
+    int                   terminalCount;
+    int                   tokenCount;
+
+    /**
+     * Initializes a codec for encoding, starting with an empty symbol table
+     */
+    public TBBinaryCodec() {
+        symbols = new ArrayList<String>();
+        symbolMap = new TObjectIntHashMap<String>(1000, 0.5f, -1);
+        nodeIds = new IdentityHashMap<TBNode, Integer>();
+        nodes = new ArrayList<TBNode>();
+        indices = new int[64];
+    }
+
+    /**
+     * Initializes a codec for decoding
+     * @param symbols the symbol table of the encoding codec, interned
+     */
+    public TBBinaryCodec(String[] symbols) {
+        symbolArray = symbols;
+    }
+
+    /**
+     * @return id of str, added to the symbol table if needed
+     */
+    public int symbol(String str) {
+        int id = symbolMap.get(str);
+        if (id<0) {
+            symbolMap.put(str, id=symbols.size());
+            symbols.add(str);
+        }
+        return id;
+    }
+
+    public String getSymbol(int id) throws IOException {
+        if (id<0 || id>=symbolArray.length)
+            throw new IOException("bad symbol id "+id);
+        return symbolArray[id];
+    }
+
+    /**
+     * @return the symbol table of an encoding codec
+     */
+    public String[] getSymbols() {
+        return symbols.toArray(new String[symbols.size()]);
+    }
+
+    /**
+     * @return the nodes under root in preorder, the order nodes are encoded in
+     */
+    public static List<TBNode> preorder(TBNode root) {
+        List<TBNode> nodes = new ArrayList<TBNode>();
+        addNodes(root, nodes);
+        return nodes;
+    }
+
+    static void addNodes(TBNode node, List<TBNode> nodes) {
+        nodes.add(node);
+        for (TBNode child:node.children)
+            addNodes(child, nodes);
+    }
+
+    public void writeTree(TBTree tree, ByteArrayOutputStream out) {
+        writeInt(out, tree.index);
+        writeInt(out, tree.terminalCount);
+        writeInt(out, tree.tokenCount);
+        writeNodes(tree.rootNode, out);
+    }
+
+    public TBTree readTree(ByteBuffer in, String fileName) throws IOException, ParseException {
+        int index = readInt(in);
+        int terminalCount = readInt(in);
+        int tokenCount = readInt(in);
+        TBNode[] nodes = readNodes(in);
+
+        TBTree tree = new TBTree(fileName, index, null, terminalCount, tokenCount);
+        tree.rootNode = nodes.length==0?null:nodes[0];
+        return tree;
+    }
+
+    void number(TBNode node) {
+        int id = nodes.size();
+        nodeIds.put(node, id);
+        nodes.add(node);
+        if (indices.length<nodes.size()*2)
+            indices = Arrays.copyOf(indices, indices.length*2);
+        for (TBNode child:node.children)
+            number(child);
+        if (node.children.length==0) {
+            indices[id*2] = terminalCount++;
+            indices[id*2+1] = node.isEC()?-(tokenCount+1):tokenCount++;
+        } else {
+            indices[id*2] = -(terminalCount+1);
+            indices[id*2+1] = -(tokenCount+1);
+        }
+    }
+
+    /** @return preorder index of node relative to id, null for null or nodes outside the tree */
+    Integer nodeRef(TBNode node, int id) {
+        Integer ref = node==null?null:nodeIds.get(node);
+        return ref==null?null:ref-id;
+    }
+
+    /**
+     * Writes the nodes under root (may be null)
+     */
+    public void writeNodes(TBNode root, ByteArrayOutputStream out) {
+        nodes.clear();
+        nodeIds.clear();
+        terminalCount = tokenCount = 0;
+        if (root!=null)
+            number(root);
+
+        writeInt(out, nodes.size());
+        writeInt(out, root==null?0:root.childIndex+1);
+        for (int id=0; id<nodes.size(); ++id) {
+            TBNode node = nodes.get(id);
+            Integer indexingNode = nodeRef(node.indexingNode, id);
+            Integer head = nodeRef(node.head, id);
+            Integer headConstituent = nodeRef(node.headConstituent, id);
+            boolean derived = node.terminalIndex==indices[id*2] && node.tokenIndex==indices[id*2+1];
+
+            int flags = (node.word==null?0:WORD) | (node.functionTags==null?0:FUNCTION_TAGS)
+                    | (derived?0:INDICES) | (indexingNode==null?0:INDEXING_NODE)
+                    | (head==null?0:HEAD) | (headConstituent==null?0:HEAD_CONSTITUENT)
+                    | (node.depLabel==null?0:DEP_LABEL);
+
+            writeInt(out, symbol(node.pos));
+            writeInt(out, node.children.length<<FLAG_BITS | flags);
+            if (node.word!=null)
+                writeInt(out, symbol(node.word));
+            if (node.functionTags!=null) {
+                writeInt(out, node.functionTags.size());
+                for (String tag:node.functionTags)
+                    writeInt(out, symbol(tag));
+            }
+            if (!derived) {
+                writeSignedInt(out, node.terminalIndex);
+                writeSignedInt(out, node.tokenIndex);
+            }
+            if (indexingNode!=null)
+                writeSignedInt(out, indexingNode);
+            if (head!=null)
+                writeSignedInt(out, head);
+            if (headConstituent!=null)
+                writeSignedInt(out, headConstituent);
+            if (node.depLabel!=null)
+                writeInt(out, symbol(node.depLabel));
+        }
+        nodes.clear();
+        nodeIds.clear();
+    }
+
+    int readNodeRef(ByteBuffer in, int id, int nodeCount) throws IOException {
+        int ref = id+readSignedInt(in);
+        if (ref<0 || ref>=nodeCount)
+            throw new IOException("bad node reference "+ref);
+        return ref;
+    }
+
+    /**
+     * @return the nodes in preorder (the first is the root)
+     */
+    public TBNode[] readNodes(ByteBuffer in) throws IOException {
+        TBNode[] nodes = new TBNode[readInt(in)];
+        short rootChildIndex = (short)(readInt(in)-1);
+
+        // node references are resolved once all the nodes are read
+        int[] refs = new int[nodes.length*3];
+        Arrays.fill(refs, -1);
+        boolean[] derived = new boolean[nodes.length];
+
+        // open nodes and their number of children left to read
+        int[] openNodes = new int[nodes.length];
+        int[] remaining = new int[nodes.length];
+        int depth = -1;
+        int terminalIdx = 0;
+        int tokenIdx = 0;
+        for (int id=0; id<nodes.length; ++id) {
+            TBNode parent = depth<0?null:nodes[openNodes[depth]];
+            TBNode node = nodes[id] = new TBNode(parent,
+                    (short)(parent==null?rootChildIndex:parent.children.length-remaining[depth]--));
+            node.pos = getSymbol(readInt(in));
+            if (parent!=null)
+                parent.children[node.childIndex] = node;
+
+            int header = readInt(in);
+            int childCount = header>>>FLAG_BITS;
+            if (childCount>0)
+                node.children = new TBNode[childCount];
+            if ((header&WORD)!=0)
+                node.word = getSymbol(readInt(in));
+            if ((header&FUNCTION_TAGS)!=0) {
+                node.functionTags = new TreeSet<String>();
+                for (int t=readInt(in); t>0; --t)
+                    node.functionTags.add(getSymbol(readInt(in)));
+            }
+            derived[id] = (header&INDICES)==0;
+            if (!derived[id]) {
+                node.terminalIndex = readSignedInt(in);
+                node.tokenIndex = readSignedInt(in);
+            }
+            if ((header&INDEXING_NODE)!=0)
+                refs[id*3] = readNodeRef(in, id, nodes.length);
+            if ((header&HEAD)!=0)
+                refs[id*3+1] = readNodeRef(in, id, nodes.length);
+            if ((header&HEAD_CONSTITUENT)!=0)
+                refs[id*3+2] = readNodeRef(in, id, nodes.length);
+            if ((header&DEP_LABEL)!=0)
+                node.depLabel = getSymbol(readInt(in));
+
+            if (childCount>0) {
+                openNodes[++depth] = id;
+                remaining[depth] = childCount;
+                continue;
+            }
+            int terminal = terminalIdx++;
+            int token = node.isEC()?-(tokenIdx+1):tokenIdx++;
+            if (derived[id]) {
+                node.terminalIndex = terminal;
+                node.tokenIndex = token;
+            }
+            // close the constituents completed by this terminal
+            for (; depth>=0 && remaining[depth]==0; --depth)
+                if (derived[openNodes[depth]]) {
+                    nodes[openNodes[depth]].terminalIndex = -(terminalIdx+1);
+                    nodes[openNodes[depth]].tokenIndex = -(tokenIdx+1);
+                }
+        }
+        if (depth>=0)
+            throw new IOException("truncated tree");
+
+        for (int id=0; id<nodes.length; ++id) {
+            if (refs[id*3]>=0)
+                nodes[id].indexingNode = nodes[refs[id*3]];
+            if (refs[id*3+1]>=0)
+                nodes[id].head = nodes[refs[id*3+1]];
+            if (refs[id*3+2]>=0)
+                nodes[id].headConstituent = nodes[refs[id*3+2]];
+        }
+        return nodes;
+    }
+
+    public static void writeSignedInt(ByteArrayOutputStream out, int val) {
+        writeInt(out, (val << 1) ^ (val >> 31));
+    }
+
+    public static void writeInt(ByteArrayOutputStream out, int val) {
+        while ((val & ~0x7F) != 0) {
+            out.write((val & 0x7F) | 0x80);
+            val >>>= 7;
+        }
+        out.write(val);
+    }
+
+    public static void writeString(ByteArrayOutputStream out, String str) {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        writeInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    public static int readInt(ByteBuffer in) throws IOException {
+        int val = 0;
+        for (int shift=0; shift<32; shift+=7) {
+            if (!in.hasRemaining())
+                throw new IOException("truncated record");
+            byte b = in.get();
+            val |= (b & 0x7F) << shift;
+            if (b>=0)
+                return val;
+        }
+        throw new IOException("malformed varint");
+    }
+
+    public static int readSignedInt(ByteBuffer in) throws IOException {
+        int val = readInt(in);
+        return (val >>> 1) ^ -(val & 1);
+    }
+
+    public static String readString(ByteBuffer in) throws IOException {
+        int length = readInt(in);
+        if (length>in.remaining())
+            throw new IOException("truncated record");
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the symbol table (as read by {@link #readSymbols(ByteBuffer)})
+     */
+    public void writeSymbols(ByteArrayOutputStream out) {
+        writeInt(out, symbols.size());
+        for (String symbol:symbols)
+            writeString(out, symbol);
+    }
+
+    /**
+     * @return the interned symbol table
+     */
+    public static String[] readSymbols(ByteBuffer in) throws IOException {
+        String[] symbols = new String[readInt(in)];
+        for (int i=0; i<symbols.length; ++i)
+            symbols[i] = readString(in).intern();
+        return symbols;
+    }
+}
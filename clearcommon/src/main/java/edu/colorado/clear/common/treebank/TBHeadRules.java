@@ -39,6 +39,7 @@ public class TBHeadRules {
     static public final String HEAD_DELIM  = ";";
     
     private HashMap<String, TBHeadRule> m_headrules;
+    private long m_signature;
     
     public TBHeadRules(String inputFile) throws FileNotFoundException {
         Scanner scan = new Scanner(new BufferedReader(new FileReader(inputFile)));
@@ -46,6 +47,7 @@ public class TBHeadRules {
         
         while (scan.hasNextLine()) {
             String line = scan.nextLine();
+            m_signature = m_signature*31+line.hashCode();
             if (line.charAt(0) == '#')  continue;
             TBHeadRule rule = new TBHeadRule(line);
             m_headrules.put(rule.ruleName, rule);
@@ -56,4 +58,12 @@ public class TBHeadRules {
     public TBHeadRule getHeadRule(String pos) {
         return m_headrules.get(pos);
     }
+    
+    /**
+     * @return hash of the rule file, identifies the rules trees were head 
+     * linked with
+     */
+    public long getSignature() {
+        return m_signature;
+    }
 }
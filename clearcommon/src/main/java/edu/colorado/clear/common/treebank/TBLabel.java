@@ -0,0 +1,124 @@
+package edu.colorado.clear.common.treebank;
+
+import java.util.Arrays;
+
+/**
+ * Single pass scanner of constituent labels (NP-SBJ-1, NP=2, -NONE-) and
+ * empty category words (*T*-1). Accepts the same labels as
+ * {@link TBNode#POS_PATTERN} and {@link TBNode#WORD_PATTERN} without running
+ * the regular expressions.
+ */
+final class TBLabel {
+
+    static final int[] NO_INDICES = new int[0];
+
+    static final String[] DASH_POS = {TBLib.POS_EC, "-LRB-", "-RRB-", "-LSB-", "-RSB-"};
+
+    private TBLabel() {
+    }
+
+    /**
+     * @return length of the POS part of the label (NP of NP-SBJ-1), -1 if the
+     * label is malformed
+     */
+    static int posLength(String label) {
+        int len = label.length();
+        int i = 0;
+        if (len>0 && label.charAt(0)=='-') {
+            for (String pos:DASH_POS)
+                if (label.startsWith(pos)) {
+                    i = pos.length();
+                    break;
+                }
+        } else
+            while (i<len && label.charAt(i)!='-' && label.charAt(i)!='=' && label.charAt(i)!=')')
+                ++i;
+        if (i==0)
+            return -1;
+
+        // followed by (-TAG|-1)* (=1)? (-TAG|-1)*
+        int posLength = i;
+        boolean hasGap = false;
+        while (i<len) {
+            char c = label.charAt(i++);
+            if (c=='-' && i<len && isLetter(label.charAt(i))) {
+                while (++i<len && isWordChar(label.charAt(i)));
+                continue;
+            }
+            if (c=='=') {
+                if (hasGap)
+                    return -1;
+                hasGap = true;
+            } else if (c!='-')
+                return -1;
+            int start = i;
+            if ((i=digitsEnd(label, start))==start)
+                return -1;
+        }
+        return posLength;
+    }
+
+    /**
+     * @return start of the gap index (the digits after '=') of a well formed
+     * label, -1 if there is none
+     */
+    static int gapStart(String label, int posLength) {
+        int idx = label.indexOf('=', posLength);
+        return idx<0?-1:idx+1;
+    }
+
+    /**
+     * @return the numeric parts (1 and 5 of NP-SBJ-1=2-5) of a well formed label
+     */
+    static int[] getIndices(String label, int posLength) {
+        int[] indices = NO_INDICES;
+        for (int i=label.indexOf('-', posLength); i>=0; i=label.indexOf('-', i+1)) {
+            if (!isDigit(label.charAt(i+1)))
+                continue;
+            indices = Arrays.copyOf(indices, indices.length+1);
+            indices[indices.length-1] = Integer.parseInt(label.substring(i+1, digitsEnd(label, i+1)));
+        }
+        return indices;
+    }
+
+    /**
+     * @return length of the empty category type (*T* of *T*-1), -1 if the word
+     * is malformed
+     */
+    static int wordTypeLength(String word) {
+        int idx = word.indexOf('-');
+        if (idx<0)
+            return word.isEmpty()?-1:word.length();
+        return idx>0 && idx+1<word.length() && digitsEnd(word, idx+1)==word.length()?idx:-1;
+    }
+
+    /**
+     * @return start of the index (1 of *T*-1) of an empty category word, -1 if
+     * there is none
+     */
+    static int wordIndexStart(String word) {
+        int typeLength = wordTypeLength(word);
+        return typeLength<0 || typeLength==word.length()?-1:typeLength+1;
+    }
+
+    /**
+     * @return end of the digits starting at 'start'
+     */
+    static int digitsEnd(String str, int start) {
+        while (start<str.length() && isDigit(str.charAt(start)))
+            ++start;
+        return start;
+    }
+
+    static boolean isDigit(char c) {
+        return c>='0' && c<='9';
+    }
+
+    static boolean isLetter(char c) {
+        return c>='a' && c<='z' || c>='A' && c<='Z';
+    }
+
+    static boolean isWordChar(char c) {
+        return isLetter(c) || isDigit(c) || c=='_';
+    }
+}
@@ -30,7 +30,6 @@ import java.util.BitSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -72,6 +71,9 @@ public class TBNode implements Serializable {
     String depLabel;        // only for terminals
     TBNode headConstituent; // highest level constituent headed by this terminal
     
+    transient volatile TBTreeLayout layout; // array layout of the tree, built on demand
+    transient int layoutIndex;              // preorder index of this node in layout
+    
 
     /**
      * Initializes the node and sets its parent and pos-tag.
@@ -94,64 +96,83 @@ public class TBNode implements Serializable {
         children = NO_CHILDREN;
     }
 
+    /**
+     * Initializes a node whose pos-tag is set by the caller (already interned)
+     */
+    TBNode(TBNode parent, short childIndex) {
+        this.parent = parent;
+        this.childIndex = childIndex;
+        terminalIndex = -1;
+        tokenIndex = -1;
+        children = NO_CHILDREN;
+    }
+
     // this should only be called once when tree is read in
     void cleanUpPOS() {
-        Matcher matcher = POS_PATTERN.matcher(pos);
-        if (!matcher.matches()) return;
-        pos = matcher.group(1);
-        String[] fTags = matcher.group(2).split("\\-");
-        if (fTags.length > 1) {
+        int posLength = TBLabel.posLength(pos);
+        if (posLength<0) return;
+        // function tags are the '-' separated parts starting with a letter, the gap index excluded
+        int dash = pos.indexOf('-', posLength);
+        if (dash>=0) {
             functionTags = new TreeSet<String>();
-            for (int i = 1; i < fTags.length; ++i)
-            	if (fTags[i].charAt(0)>='A')
-            		functionTags.add(fTags[i].intern());
+            for (int next; dash>=0; dash=next) {
+                next = pos.indexOf('-', dash+1);
+                if (pos.charAt(dash+1)>='A') {
+                    int end = next<0?pos.length():next;
+                    int gap = pos.indexOf('=', dash+1);
+                    functionTags.add(pos.substring(dash+1, gap<0||gap>end?end:gap).intern());
+                }
+            }
         }
+        pos = pos.substring(0, posLength);
         if (children == null)
             return;
         for (TBNode child : children)
             child.cleanUpPOS();
     }
 
+    /**
+     * @return the array layout of the tree, null if the node indices don't 
+     * agree with the tree structure (the queries then traverse the tree)
+     */
+    TBTreeLayout getLayout() {
+        TBTreeLayout treeLayout = layout;
+        if (treeLayout==null)
+            treeLayout = TBTreeLayout.of(this);
+        return treeLayout.consistent?treeLayout:null;
+    }
+
     TBNode findBoundaryNode(boolean onTerminal, boolean start) {
+        TBTreeLayout treeLayout = getLayout();
+        if (treeLayout!=null) {
+            int begin = onTerminal?treeLayout.terminalStart[layoutIndex]:treeLayout.tokenStart[layoutIndex];
+            int end = onTerminal?treeLayout.terminalEnd[layoutIndex]:treeLayout.tokenEnd[layoutIndex];
+            if (begin==end)
+                return null;
+            TBNode[] boundaryNodes = onTerminal?treeLayout.terminals:treeLayout.tokens;
+            return boundaryNodes[start?begin:end-1];
+        }
+        return findBoundaryNodeAux(onTerminal, start);
+    }
+    
+    TBNode findBoundaryNodeAux(boolean onTerminal, boolean start) {
         if (isTerminal())
             return onTerminal || isToken() ? this : null;
 
         TBNode node;
         if (start) {
             for (TBNode child : children)
-                if ((node = child.findBoundaryNode(onTerminal, start)) != null)
+                if ((node = child.findBoundaryNodeAux(onTerminal, start)) != null)
                     return node;
         } else {
             for (int i = children.length - 1; i >= 0; --i)
-                if ((node = children[i].findBoundaryNode(onTerminal, start)) != null)
+                if ((node = children[i].findBoundaryNodeAux(onTerminal, start)) != null)
                     return node;
         }
         return null;
     }
 
     // this should only be called once when tree is read in
-    TBNode findIndexedNode(int idx) {
-        Matcher matcher = POS_PATTERN.matcher(pos);
-        matcher.matches();
-        String idxStr = matcher.group(2);
-        if (idxStr != null) {
-            String[] indices = idxStr.split("(?=[-\\=])");
-            for (String index : indices)
-                if (!index.isEmpty() && index.charAt(0) == '-' 
-                		&& index.charAt(1)>='0' && index.charAt(1)<='9'
-                        && Integer.parseInt(index.substring(1)) == idx)
-                    return this;
-        }
-        if (children == null)
-            return null;
-
-        for (TBNode aNode : children)
-            if ((aNode = aNode.findIndexedNode(idx)) != null)
-                return aNode;
-
-        return null;
-    }
-    
     public TBNode getAncestor(int level) {
         if (level == 0)
             return this;
@@ -209,9 +230,8 @@ public class TBNode implements Serializable {
         if (!isEC())
             return word;
 
-        Matcher m = WORD_PATTERN.matcher(word);
-        m.matches();
-        return m.group(1);
+        int typeLength = TBLabel.wordTypeLength(word);
+        return typeLength<0?word:word.substring(0, typeLength);
     }
 
     /**
@@ -282,6 +302,9 @@ public class TBNode implements Serializable {
     }
 
     public int getLevelToRoot() {
+        TBTreeLayout treeLayout = getLayout();
+        if (treeLayout!=null)
+            return treeLayout.depth[layoutIndex];
         int level = 0;
         TBNode ancestor = this;
         while ((ancestor=ancestor.parent)!=null)
@@ -300,6 +323,12 @@ public class TBNode implements Serializable {
     }
     
     public TBNode getLowestCommonAncestor(TBNode node) {
+        TBTreeLayout treeLayout = getLayout();
+        if (treeLayout!=null && treeLayout==node.getLayout())
+            return treeLayout.nodes[treeLayout.getLowestCommonAncestor(layoutIndex, node.layoutIndex)];
+        if (treeLayout!=null && node.getLayout()!=null)
+            return null;
+        
         List<TBNode> lhs = getPathToRoot();
         List<TBNode> rhs = node.getPathToRoot();
 
@@ -357,6 +386,10 @@ public class TBNode implements Serializable {
     public TBNode getNodeByTerminalIndex(int terminalIndex) {
         if (terminalIndex < 0)
             return null;
+        TBTreeLayout treeLayout = getLayout();
+        if (treeLayout!=null)
+            return terminalIndex>=treeLayout.terminalStart[layoutIndex] && terminalIndex<treeLayout.terminalEnd[layoutIndex]?
+                    treeLayout.terminals[terminalIndex]:null;
         if (this.terminalIndex == terminalIndex)
             return this;
         if (isTerminal())
@@ -374,6 +407,10 @@ public class TBNode implements Serializable {
     public TBNode getNodeByTokenIndex(int tokenIndex) {
         if (tokenIndex < 0)
             return null;
+        TBTreeLayout treeLayout = getLayout();
+        if (treeLayout!=null)
+            return tokenIndex>=treeLayout.tokenStart[layoutIndex] && tokenIndex<treeLayout.tokenEnd[layoutIndex]?
+                    treeLayout.tokens[tokenIndex]:null;
         if (this.tokenIndex == tokenIndex)
             return this;
         if (isTerminal())
@@ -449,7 +486,7 @@ public class TBNode implements Serializable {
     
     ArrayList<TBNode> getPathToRoot(boolean dependency) {
         TBNode node = this;
-        ArrayList<TBNode> nodeList = new ArrayList<TBNode>();
+        ArrayList<TBNode> nodeList = dependency?new ArrayList<TBNode>():new ArrayList<TBNode>(getLevelToRoot()+1);
         do {
             nodeList.add(node);
         } while ((node = (dependency?node.getHeadOfHead():node.getParent())) != null);
@@ -464,7 +501,13 @@ public class TBNode implements Serializable {
     public TBNode getRoot() {
         if (parent == null)
             return this;
-        return parent.getRoot();
+        TBTreeLayout treeLayout = getLayout();
+        if (treeLayout!=null)
+            return treeLayout.nodes[0];
+        TBNode root = parent;
+        while (root.parent != null)
+            root = root.parent;
+        return root;
     }
 
     /**
@@ -490,12 +533,21 @@ public class TBNode implements Serializable {
     }
 
     public List<TBNode> getTerminalNodes() {
+        TBTreeLayout treeLayout = getLayout();
+        if (treeLayout!=null)
+            return new ArrayList<TBNode>(Arrays.asList(treeLayout.terminals).subList(treeLayout.terminalStart[layoutIndex], treeLayout.terminalEnd[layoutIndex]));
         List<TBNode> tnodes = new ArrayList<TBNode>();
         getNestedNodes(true, tnodes);
         return tnodes;
     }
 
     public BitSet getTerminalSet() {
+        TBTreeLayout treeLayout = getLayout();
+        if (treeLayout!=null) {
+            BitSet terminalSet = new BitSet(treeLayout.terminalEnd[layoutIndex]);
+            terminalSet.set(treeLayout.terminalStart[layoutIndex], treeLayout.terminalEnd[layoutIndex]);
+            return terminalSet;
+        }
         BitSet terminalSet = new BitSet(Math.abs(terminalIndex));
         getIndexSet(true, terminalSet);
         return terminalSet;
@@ -506,12 +558,21 @@ public class TBNode implements Serializable {
     }
 
     public List<TBNode> getTokenNodes() {
+        TBTreeLayout treeLayout = getLayout();
+        if (treeLayout!=null)
+            return new ArrayList<TBNode>(Arrays.asList(treeLayout.tokens).subList(treeLayout.tokenStart[layoutIndex], treeLayout.tokenEnd[layoutIndex]));
         List<TBNode> tnodes = new ArrayList<TBNode>();
         getNestedNodes(false, tnodes);
         return tnodes;
     }
 
     public BitSet getTokenSet() {
+        TBTreeLayout treeLayout = getLayout();
+        if (treeLayout!=null) {
+            BitSet tokenSet = new BitSet(treeLayout.tokenEnd[layoutIndex]);
+            tokenSet.set(treeLayout.tokenStart[layoutIndex], treeLayout.tokenEnd[layoutIndex]);
+            return tokenSet;
+        }
         BitSet tokenSet = new BitSet(Math.abs(tokenIndex));
         getIndexSet(false, tokenSet);
         return tokenSet;
@@ -538,8 +599,11 @@ public class TBNode implements Serializable {
     }
 
     public boolean isDecendentOf(TBNode ancestor) {
-        if (parent == null)
+        if (parent == null || ancestor == null)
             return false;
+        TBTreeLayout treeLayout = getLayout();
+        if (treeLayout!=null && treeLayout==ancestor.getLayout())
+            return ancestor!=this && treeLayout.isAncestor(ancestor.layoutIndex, layoutIndex);
         if (parent == ancestor)
             return true;
         return parent.isDecendentOf(ancestor);
@@ -551,6 +615,9 @@ public class TBNode implements Serializable {
     }
 
     public boolean hasTokens() {
+        TBTreeLayout treeLayout = getLayout();
+        if (treeLayout!=null)
+            return treeLayout.tokenStart[layoutIndex]<treeLayout.tokenEnd[layoutIndex];
     	if (isTerminal())
     		return isToken();
     	for (TBNode child:children)
@@ -2,7 +2,6 @@ package edu.colorado.clear.common.treebank;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Logger;
@@ -14,8 +13,9 @@ public class TBReader {
     private static Logger logger = Logger.getLogger(PBFileReader.class.getPackage().getName());
     
     String               dir;
+    String               cacheDir;
     boolean              cached;
-    ThreadedTBFileReader reader;
+    TBFileReader         reader;
     Map<String, TBTree[]> treeMap;
     
     public TBReader(Map<String, TBTree[]> treeMap)
@@ -27,6 +27,16 @@ public class TBReader {
     }
     
     public TBReader(String dir, boolean cached)
+    {
+        this(dir, cached, null);
+    }
+    
+    /**
+     * @param cacheDir directory of the binary encodings of the tree files (see 
+     * {@link TBUtil#readTBFile(String, String, TBHeadRules, String)}), when 
+     * not cached, trees are then read individually from the encoding 
+     */
+    public TBReader(String dir, boolean cached, String cacheDir)
     {
         File dirFile = new File(dir);
         if (dirFile.isFile())
@@ -34,6 +44,7 @@ public class TBReader {
         else
             this.dir = dir;
         
+        this.cacheDir = cacheDir;
         this.cached = cached;
         reader = null;
         if (cached) treeMap = new TreeMap<String, TBTree[]>();
@@ -60,19 +71,24 @@ public class TBReader {
         if (cached)
         {
             TBTree[] trees      = null;
-            if ((trees = treeMap.get(fileName))==null)
+            synchronized (treeMap) {
+                trees = treeMap.get(fileName);
+            }
+            if (trees==null)
             {
                 if (dir==null) return null;
                 logger.info("Reading "+dir+File.separatorChar+fileName);
                 try {
-                    TBFileReader tbreader = new SerialTBFileReader(dir, fileName);
-                    ArrayList<TBTree> a_tree = new ArrayList<TBTree>();
-                    TBTree tree;
-                    while ((tree = tbreader.nextTree()) != null)
-                        a_tree.add(tree);
-                    trees = a_tree.toArray(new TBTree[a_tree.size()]);
+                    trees = TBUtil.readTrees(dir, fileName, cacheDir);
                     
-                    treeMap.put(fileName, trees);
+                    // keep the trees of whichever thread read the file first
+                    synchronized (treeMap) {
+                        TBTree[] cachedTrees = treeMap.get(fileName);
+                        if (cachedTrees==null)
+                            treeMap.put(fileName, trees);
+                        else
+                            trees = cachedTrees;
+                    }
                 } catch (IOException e) {
                     e.printStackTrace();
                     return null;
@@ -91,7 +107,7 @@ public class TBReader {
             if (reader==null)
             {
                 try {
-                    reader = new ThreadedTBFileReader(dir, fileName, 1000);
+                    reader = cacheDir==null?new ThreadedTBFileReader(dir, fileName, 1000):openCache(fileName);
                 } catch (IOException e) {
                     e.printStackTrace();
                     return null;
@@ -102,6 +118,30 @@ public class TBReader {
         }
     }
     
+    /**
+     * Opens the binary encoding of the file, encoding it first if it's missing
+     * or out of date
+     */
+    BinaryTBFileReader openCache(String fileName) throws IOException, ParseException
+    {
+        File cacheFile = BinaryTBFileReader.getCacheFile(cacheDir, fileName);
+        if (!BinaryTBFileReader.isCurrent(cacheFile, new File(dir, fileName)))
+        {
+            logger.info("Reading "+dir+File.separatorChar+fileName);
+            TBUtil.readTrees(dir, fileName, cacheDir);
+        }
+        return new BinaryTBFileReader(cacheFile, fileName);
+    }
+    
+    /**
+     * @return whether trees are read from (and kept in) a map, which makes 
+     * getTree safe to call from multiple threads
+     */
+    public boolean isCached()
+    {
+        return cached;
+    }
+    
     public Map<String, TBTree[]> getTreeMap()
     {
         return treeMap;
@@ -25,9 +25,10 @@ package edu.colorado.clear.common.treebank;
 
 import java.io.Serializable;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 
 import edu.colorado.clear.common.propbank.PBFileReader;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
 
 /**
  * Penn Treebank tree
@@ -83,12 +84,18 @@ public class TBTree implements Serializable {
     }
     
     public TBNode[] getTerminalNodes() {
+        TBTreeLayout layout = rootNode.getLayout();
+        if (layout!=null && layout.terminals.length==terminalCount)
+            return layout.terminals.clone();
         TBNode[] tnodes = new TBNode[terminalCount];
         rootNode.fillNodeArray(true, tnodes);
         return tnodes;
     }
     
     public TBNode[] getTokenNodes() {
+        TBTreeLayout layout = rootNode.getLayout();
+        if (layout!=null && layout.tokens.length==tokenCount)
+            return layout.tokens.clone();
         TBNode[] tnodes = new TBNode[tokenCount];
         rootNode.fillNodeArray(false, tnodes);
         return tnodes;
@@ -110,38 +117,48 @@ public class TBTree implements Serializable {
         return tokenCount;
     }
 
-    void linkIndices(TBNode node) throws ParseException {
-        Matcher matcher = TBNode.POS_PATTERN.matcher(node.pos);
-        if (!matcher.matches()) return;
-        String idxStr = matcher.group(6);
+    void linkIndices(TBNode root) throws ParseException {
+        // the antecedent of an index is the first node (in preorder) carrying it
+        TIntObjectMap<TBNode> antecedents = new TIntObjectHashMap<TBNode>();
+        findIndexedNodes(root, antecedents);
+        linkIndices(root, antecedents);
+    }
+
+    static void findIndexedNodes(TBNode node, TIntObjectMap<TBNode> antecedents) {
+        int posLength = TBLabel.posLength(node.pos);
+        if (posLength>=0)
+            for (int idx:TBLabel.getIndices(node.pos, posLength))
+                if (!antecedents.containsKey(idx))
+                    antecedents.put(idx, node);
+        for (TBNode child:node.children)
+            findIndexedNodes(child, antecedents);
+    }
+
+    void linkIndices(TBNode node, TIntObjectMap<TBNode> antecedents) {
+        int posLength = TBLabel.posLength(node.pos);
+        if (posLength<0) return;
+        
+        // gap index (=1) of the label or index (-1) of an empty category word
+        String idxStr = null;
+        int start = TBLabel.gapStart(node.pos, posLength);
+        if (start>=0)
+            idxStr = node.pos.substring(start-1, TBLabel.digitsEnd(node.pos, start));
+        else if (node.isEC() && node.word!=null && (start=TBLabel.wordIndexStart(node.word))>=0)
+            idxStr = node.word.substring(start-1);
+        
         if (idxStr != null) {
-            node.indexingNode = rootNode.findIndexedNode(Integer
-                    .parseInt(idxStr.substring(1)));
+            int idx = Integer.parseInt(idxStr.substring(1));
+            node.indexingNode = antecedents.get(idx);
             if (node.indexingNode == null) {
                 node.pos = node.pos + "-" + idxStr.substring(1);
+                antecedents.put(idx, node);
                 logger.warning(filename + ", " + index
                         + ": Missing antecedent: " + idxStr);
             }
-        } else if (node.isEC()) {
-            matcher = TBNode.WORD_PATTERN.matcher(node.word);
-            matcher.matches();
-
-            idxStr = matcher.group(2);
-            if (idxStr != null) {
-                node.indexingNode = rootNode.findIndexedNode(Integer
-                        .parseInt(idxStr.substring(1)));
-                if (node.indexingNode == null) {
-                    node.pos = node.pos + "-" + idxStr.substring(1);
-                    logger.warning(filename + ", " + index
-                            + ": Missing antecedent: " + idxStr);
-                }
-            }
         }
 
-        if (node.children == null)
-            return;
         for (TBNode aNode : node.children)
-            linkIndices(aNode);
+            linkIndices(aNode, antecedents);
     }
 
     @Override
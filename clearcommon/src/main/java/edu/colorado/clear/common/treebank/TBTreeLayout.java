@@ -0,0 +1,142 @@
+package edu.colorado.clear.common.treebank;
+
+/**
+ * Preorder array layout of a finished tree. Answers the span, index,
+ * ancestor and lowest common ancestor (sparse table over the Euler tour)
+ * queries of {@link TBNode} without traversing the tree.
+ *
+ * A layout is built on demand for the whole tree the first time one of its
+ * nodes is queried, the tree structure must not be modified afterwards.
+ */
+final class TBTreeLayout {
+    /** nodes in preorder */
+    final TBNode[]  nodes;
+    /** preorder index past the last descendant */
+    final int[]     subtreeEnd;
+    final int[]     depth;
+    /** token span of each node [tokenStart, tokenEnd) */
+    final int[]     tokenStart;
+    final int[]     tokenEnd;
+    /** terminal span of each node [terminalStart, terminalEnd) */
+    final int[]     terminalStart;
+    final int[]     terminalEnd;
+    final TBNode[]  tokens;
+    final TBNode[]  terminals;
+    /** first occurrence of each node in the Euler tour */
+    final int[]     eulerStart;
+    /** sparseTable[k][i]: lowest preorder index in the Euler tour range [i, i+2^k) */
+    final int[][]   sparseTable;
+    /** whether the node indices agree with the tree structure */
+    final boolean   consistent;
+
+    private int nodeCnt;
+    private int tokenCnt;
+    private int terminalCnt;
+    private int eulerCnt;
+
+    TBTreeLayout(TBNode root) {
+        int[] counts = new int[3];
+        count(root, counts);
+
+        nodes = new TBNode[counts[0]];
+        subtreeEnd = new int[nodes.length];
+        depth = new int[nodes.length];
+        tokenStart = new int[nodes.length];
+        tokenEnd = new int[nodes.length];
+        terminalStart = new int[nodes.length];
+        terminalEnd = new int[nodes.length];
+        terminals = new TBNode[counts[1]];
+        tokens = new TBNode[counts[2]];
+        eulerStart = new int[nodes.length];
+
+        int[] euler = new int[nodes.length*2-1];
+        consistent = visit(root, 0, euler);
+
+        int levels = 32-Integer.numberOfLeadingZeros(euler.length);
+        sparseTable = new int[levels][];
+        sparseTable[0] = euler;
+        for (int k=1; k<levels; ++k) {
+            int[] prev = sparseTable[k-1];
+            int[] curr = sparseTable[k] = new int[euler.length-(1<<k)+1];
+            for (int i=0; i<curr.length; ++i)
+                curr[i] = Math.min(prev[i], prev[i+(1<<(k-1))]);
+        }
+    }
+
+    /**
+     * @return the layout of the tree of node, built if it doesn't exist yet
+     */
+    static TBTreeLayout of(TBNode node) {
+        TBNode root = node;
+        while (root.parent!=null)
+            root = root.parent;
+        synchronized (root) {
+            TBTreeLayout layout = root.layout;
+            if (layout==null) {
+                layout = new TBTreeLayout(root);
+                for (int i=0; i<layout.nodes.length; ++i) {
+                    layout.nodes[i].layoutIndex = i;
+                    layout.nodes[i].layout = layout;
+                }
+            }
+            return layout;
+        }
+    }
+
+    static void count(TBNode node, int[] counts) {
+        counts[0]++;
+        if (node.isTerminal()) {
+            counts[1]++;
+            if (node.isToken())
+                counts[2]++;
+        }
+        for (TBNode child:node.children)
+            count(child, counts);
+    }
+
+    boolean visit(TBNode node, int level, int[] euler) {
+        int idx = nodeCnt++;
+        boolean valid = true;
+
+        nodes[idx] = node;
+        depth[idx] = level;
+        tokenStart[idx] = tokenCnt;
+        terminalStart[idx] = terminalCnt;
+        eulerStart[idx] = eulerCnt;
+        euler[eulerCnt++] = idx;
+
+        if (node.isTerminal()) {
+            valid = node.terminalIndex==terminalCnt;
+            terminals[terminalCnt++] = node;
+            if (node.isToken()) {
+                valid = valid && node.tokenIndex==tokenCnt;
+                tokens[tokenCnt++] = node;
+            }
+        } else
+            valid = node.terminalIndex<0 && node.tokenIndex<0;
+
+        for (TBNode child:node.children) {
+            valid = visit(child, level+1, euler) && child.parent==node && valid;
+            euler[eulerCnt++] = idx;
+        }
+
+        subtreeEnd[idx] = nodeCnt;
+        tokenEnd[idx] = tokenCnt;
+        terminalEnd[idx] = terminalCnt;
+        return valid;
+    }
+
+    /**
+     * @return preorder index of the lowest common ancestor of the 2 nodes
+     */
+    int getLowestCommonAncestor(int lhs, int rhs) {
+        int start = Math.min(eulerStart[lhs], eulerStart[rhs]);
+        int end = Math.max(eulerStart[lhs], eulerStart[rhs])+1;
+        int k = 31-Integer.numberOfLeadingZeros(end-start);
+        return Math.min(sparseTable[k][start], sparseTable[k][end-(1<<k)]);
+    }
+
+    boolean isAncestor(int ancestor, int idx) {
+        return ancestor<=idx && idx<subtreeEnd[ancestor];
+    }
+}
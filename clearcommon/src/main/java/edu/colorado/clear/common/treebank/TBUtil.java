@@ -1,6 +1,8 @@
 package edu.colorado.clear.common.treebank;
 
+import edu.berkeley.nlp.syntax.Tree;
 import edu.colorado.clear.common.propbank.PBFileReader;
+import edu.colorado.clear.common.util.ComputePool;
 import edu.colorado.clear.common.util.FileUtil;
 
 import java.io.BufferedReader;
@@ -17,6 +19,8 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
@@ -157,25 +161,142 @@ public final class TBUtil {
         return null;
     }
 
+    /**
+     * Converts a Berkeley parser tree directly into a TBTree, without going
+     * through the bracketed string form. The label of the parse root is
+     * ignored the same way the dummy head of a treebank file is.
+     * @param parseTree Berkeley parser output
+     * @param fileName name recorded in the resulting tree
+     * @param treeIndex index recorded in the resulting tree
+     * @return the converted tree
+     * @throws ParseException
+     */
+    public static TBTree convertTree(Tree<String> parseTree, String fileName, int treeIndex) throws ParseException {
+        int[] counts = new int[2]; // terminal count, token count
+
+        TBNode head = new TBNode(null, "");
+        head.children = convertChildren(head, parseTree.getChildren(), counts, fileName, treeIndex);
+        head.terminalIndex = -(counts[0]+1);
+        head.tokenIndex = -(counts[1]+1);
+
+        // omit the dummy head
+        TBNode root = head.children.length==1?head.children[0]:head;
+        if (root.pos.isEmpty())
+            root.pos = "FRAG";
+        root.parent = null;
+
+        return new TBTree(fileName, treeIndex, root, counts[0], counts[1]);
+    }
+
+    static TBNode[] convertChildren(TBNode parent, List<Tree<String>> trees, int[] counts, String fileName, int treeIndex) {
+        List<TBNode> children = new ArrayList<TBNode>(trees.size());
+        for (Tree<String> tree:trees) {
+            if (tree.isLeaf()) {
+                // bare word under a phrase, give it a place holder POS
+                children.add(convertTerminal(parent, "X", tree.getLabel(), (short)children.size(), counts));
+                continue;
+            }
+            if (TBLabel.posLength(tree.getLabel())<0)
+                logger.warning(fileName+", "+treeIndex+": Malformed POS tag: "+tree.getLabel());
+
+            if (isPreTerminal(tree)) {
+                // multi-word tokens get one terminal per word, same as SerialTBFileReader
+                for (Tree<String> leaf:tree.getChildren())
+                    children.add(convertTerminal(parent, tree.getLabel(), leaf.getLabel(), (short)children.size(), counts));
+                continue;
+            }
+            TBNode node = new TBNode(parent, tree.getLabel(), (short)children.size());
+            node.children = convertChildren(node, tree.getChildren(), counts, fileName, treeIndex);
+            node.terminalIndex = -(counts[0]+1);
+            node.tokenIndex = -(counts[1]+1);
+            children.add(node);
+        }
+        return children.toArray(TBNode.NO_CHILDREN);
+    }
+
+    static boolean isPreTerminal(Tree<String> tree) {
+        for (Tree<String> child:tree.getChildren())
+            if (!child.isLeaf())
+                return false;
+        return true;
+    }
+
+    static TBNode convertTerminal(TBNode parent, String pos, String word, short childIndex, int[] counts) {
+        TBNode node = new TBNode(parent, pos, childIndex);
+        node.word = word;
+        node.terminalIndex = counts[0]++;
+        if (node.isEC())
+            node.tokenIndex = -(counts[1]+1);
+        else
+            node.tokenIndex = counts[1]++;
+        return node;
+    }
+
     public static TBTree[] readTBFile(String dirName, String treeFile, TBHeadRules headrules) {
+        return readTBFile(dirName, treeFile, headrules, null);
+    }
+    
+    /**
+     * Reads a tree file, using its binary encoding under cacheDir when it's 
+     * current. Otherwise the text is parsed, head linked and the encoding 
+     * (re)written.
+     * @param cacheDir directory of the binary encodings, null to always parse
+     */
+    public static TBTree[] readTBFile(String dirName, String treeFile, TBHeadRules headrules, String cacheDir) {
+        try {
+            return readTrees(dirName, treeFile, headrules, cacheDir);
+        } catch(Exception e) {
+            logger.severe(e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
+    
+    static TBTree[] readTrees(String dirName, String treeFile, String cacheDir) throws IOException, ParseException {
+        return readTrees(dirName, treeFile, null, cacheDir);
+    }
+    
+    /**
+     * @param headrules rules to link the heads of the parsed trees with, the 
+     * cache holds the linked trees
+     */
+    static TBTree[] readTrees(String dirName, String treeFile, TBHeadRules headrules, String cacheDir) throws IOException, ParseException {
+        File cacheFile = cacheDir==null?null:BinaryTBFileReader.getCacheFile(cacheDir, treeFile);
+        if (cacheFile!=null && BinaryTBFileReader.isCurrent(cacheFile, new File(dirName, treeFile), headrules)) {
+            BinaryTBFileReader reader = new BinaryTBFileReader(cacheFile, treeFile);
+            try {
+                return reader.readTrees();
+            } catch (ParseException e) {
+                logger.warning("Rereading corrupted "+cacheFile.getPath()+": "+e.getMessage());
+            } finally {
+                reader.close();
+            }
+        }
+        
         ArrayList<TBTree>  a_tree = new ArrayList<TBTree>();
+        TBFileReader tbreader     = new SerialTBFileReader(dirName, treeFile);
+        TBTree       tree         = null;
         try {
-            TBFileReader tbreader     = new SerialTBFileReader(dirName, treeFile);
-            TBTree       tree         = null;
-            
             while ((tree = tbreader.nextTree()) != null) {
-            	if (headrules!=null)
-            		linkHeads(tree, headrules);
                 a_tree.add(tree);
                 if (tree.index!=0 && tree.index%10000==0)
                     logger.info("reading tree "+tree.index);
             }
-            return a_tree.toArray(new TBTree[a_tree.size()]);
-        } catch(Exception e) {
-            logger.severe(e.getMessage());
-            e.printStackTrace();
-            return null;
+        } finally {
+            tbreader.close();
         }
+        TBTree[] trees = a_tree.toArray(new TBTree[a_tree.size()]);
+        if (headrules!=null)
+            for (TBTree aTree:trees)
+                linkHeads(aTree, headrules);
+        
+        if (cacheFile!=null)
+            try {
+                BinaryTBFileReader.write(cacheFile, trees, headrules);
+            } catch (IOException e) {
+                logger.warning("Failed to cache "+treeFile+": "+e.getMessage());
+            }
+        return trees;
     }
     
     public static TBTree[] readTBFile(String dirName, String treeFile) {
@@ -197,15 +318,15 @@ public final class TBUtil {
     }
 
     public static Map<String, TBTree[]> readTBDir(String dirName, List<String> files, TBHeadRules headrules) {
-        Map<String, TBTree[]> tbMap = new TreeMap<String, TBTree[]>();
-        for (String treeFile: files) {
-            logger.info("Reading "+dirName+File.separatorChar+treeFile);
-            
-            TBTree[] trees = readTBFile(dirName, treeFile, headrules);
-            
-            if (trees!=null) tbMap.put(treeFile, trees);
-        }
-        return tbMap;
+        return readTBDir(dirName, files, headrules, null);
+    }
+    
+    /**
+     * @param cacheDir directory of the binary encodings of the tree files, 
+     * see {@link #readTBFile(String, String, TBHeadRules, String)}
+     */
+    public static Map<String, TBTree[]> readTBDir(String dirName, List<String> files, TBHeadRules headrules, String cacheDir) {
+        return readTBDir(dirName, files, headrules, cacheDir, null, 0, 0);
     }
     
     public static Map<String, TBTree[]> readTBDir(String dirName, List<String> files) {
@@ -224,22 +345,52 @@ public final class TBUtil {
     }
     
     public static Map<String, TBTree[]> readTBDir(String dirName, List<String> files, String depDir, int idxCol, int labelCol) {
+        return readTBDir(dirName, files, null, null, depDir, idxCol, labelCol);
+    }
+    
+    /**
+     * Reads the tree files in parallel on the {@link ComputePool}, each file
+     * is parsed and head linked (or has dependencies added from depDir) by a 
+     * separate task.
+     * @return trees by file name, files that failed to read are left out
+     */
+    static Map<String, TBTree[]> readTBDir(final String dirName, List<String> files, final TBHeadRules headrules, final String cacheDir, final String depDir, final int idxCol, final int labelCol) {
+        long startTime = System.nanoTime();
+        
+        List<ForkJoinTask<TBTree[]>> tasks = new ArrayList<ForkJoinTask<TBTree[]>>(files.size());
+        for (final String treeFile: files)
+            tasks.add(ComputePool.submit(new Callable<TBTree[]>() {
+                @Override
+                public TBTree[] call() {
+                    logger.info("Reading "+dirName+File.separatorChar+treeFile);
+                    
+                    TBTree[] trees = readTBFile(dirName, treeFile, headrules, cacheDir);
+                    if (trees==null || depDir==null)
+                        return trees;
+                    
+                    File depFile = new File(depDir, treeFile.replaceAll("\\.\\w+\\z", ".dep"));
+                    try {
+                        addDependency(trees, depFile, idxCol, labelCol);
+                        return trees;
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        return null;
+                    }
+                }
+            }));
+        
         Map<String, TBTree[]> tbMap = new TreeMap<String, TBTree[]>();
-        for (String treeFile: files) {
-            logger.info("Reading "+dirName+File.separatorChar+treeFile);
-            
-            TBTree[] trees = readTBFile(dirName, treeFile, null);
-            
-            File depFile = new File(depDir, treeFile.replaceAll("\\.\\w+\\z", ".dep"));
-            try {
-            	if (trees!=null) { 
-            		addDependency(trees, depFile, idxCol, labelCol);
-            		tbMap.put(treeFile, trees);
-            	}
-            } catch (IOException e) {
-	            // TODO Auto-generated catch block
-	            e.printStackTrace();
-            }
+        int treeCnt = 0;
+        for (int i=0; i<tasks.size(); ++i) {
+            TBTree[] trees = tasks.get(i).join();
+            if (trees==null) continue;
+            tbMap.put(files.get(i), trees);
+            treeCnt += trees.length;
+        }
+        
+        if (files.size()>1) {
+            double seconds = (System.nanoTime()-startTime)/1e9;
+            logger.info(String.format("Read %d trees from %d files in %.1fs (%.0f trees/s)", treeCnt, tbMap.size(), seconds, treeCnt/Math.max(seconds, 1e-3)));
         }
         return tbMap;
     }
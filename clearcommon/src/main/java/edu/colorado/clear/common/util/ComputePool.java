@@ -0,0 +1,209 @@
+package edu.colorado.clear.common.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Work stealing pool shared by the parallel parts of training and decoding
+ * (cross validation, pairwise classifiers, per label trainers, sentence
+ * pipelines). The pool size is the global thread budget. Parallel regions
+ * only cap how many of their jobs run at once, so nested regions (pairwise
+ * classifiers inside cross validation folds) never run more threads than
+ * the pool has: a worker waiting for a nested region runs its jobs instead.
+ */
+public final class ComputePool {
+
+    static ForkJoinPool      pool;
+    static int               parallelism = Runtime.getRuntime().availableProcessors();
+    static long              startTime = System.nanoTime();
+
+    static final AtomicLong  jobCount = new AtomicLong();
+    static final AtomicLong  busyNanos = new AtomicLong();
+    // nesting level of the jobs on a thread, only the outermost is timed
+    static final ThreadLocal<int[]> depth = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    private ComputePool() {
+    }
+
+    /**
+     * Sets the global thread budget, later jobs go to a new pool of that
+     * size. The old pool isn't shut down: jobs in flight and stages chained
+     * with {@link #submitAfter} still run on it, and its idle threads exit
+     * once it drains.
+     */
+    public static synchronized void setParallelism(int threads) {
+        threads = Math.max(1, threads);
+        if (threads==parallelism)
+            return;
+        parallelism = threads;
+        pool = null;
+    }
+
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    public static synchronized ForkJoinPool getPool() {
+        if (pool==null || pool.isShutdown()) {
+            pool = new ForkJoinPool(parallelism);
+            startTime = System.nanoTime();
+            jobCount.set(0);
+            busyNanos.set(0);
+        }
+        return pool;
+    }
+
+    /**
+     * Submits a job to the pool, for pipelines that consume the results
+     * in order
+     */
+    public static <V> ForkJoinTask<V> submit(final Callable<V> job) {
+        return getPool().submit(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                long start = startJob();
+                try {
+                    return job.call();
+                } finally {
+                    endJob(start);
+                }
+            }
+        });
+    }
+
+    /**
+     * Submits a job to the pool on the result of future once it completes,
+     * so a pipeline stage never holds a pool thread waiting for the stage
+     * before it (which may be running outside the pool)
+     */
+    public static <T, V> CompletableFuture<V> submitAfter(CompletableFuture<T> future, final Function<? super T, ? extends V> job) {
+        return future.thenApplyAsync(new Function<T, V>() {
+            @Override
+            public V apply(T input) {
+                long start = startJob();
+                try {
+                    return job.apply(input);
+                } finally {
+                    endJob(start);
+                }
+            }
+        }, getPool());
+    }
+
+    /**
+     * Runs the jobs in the pool with at most maxConcurrency of them at a
+     * time and waits for them to complete. Runs on the calling thread when
+     * maxConcurrency is 1. The jobs not started yet are skipped once a job
+     * fails.
+     * @return results of the jobs in order
+     * @throws CompletionException with the exception of the first failed 
+     * job as the cause, after the running jobs complete
+     */
+    public static <V> List<V> invokeAll(final List<? extends Callable<V>> jobs, int maxConcurrency) {
+        @SuppressWarnings("unchecked")
+        final V[] results = (V[])new Object[jobs.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        int lanes = Math.min(Math.max(1, maxConcurrency), jobs.size());
+
+        if (lanes<=1)
+            runLane(jobs, results, next, error);
+        else {
+            final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(lanes);
+            for (int i=0; i<lanes; ++i)
+                tasks.add(new RecursiveAction() {
+                    private static final long serialVersionUID = 1L;
+                    @Override
+                    protected void compute() {
+                        runLane(jobs, results, next, error);
+                    }
+                });
+            ForkJoinPool current = getPool();
+            if (ForkJoinTask.getPool()==current)
+                ForkJoinTask.invokeAll(tasks);
+            else
+                current.invoke(new RecursiveAction() {
+                    private static final long serialVersionUID = 1L;
+                    @Override
+                    protected void compute() {
+                        ForkJoinTask.invokeAll(tasks);
+                    }
+                });
+        }
+        if (error.get()!=null)
+            throw new CompletionException(error.get());
+        return Arrays.asList(results);
+    }
+
+    /**
+     * {@link #invokeAll(List, int)} for jobs without results
+     */
+    public static void runAll(List<? extends Runnable> jobs, int maxConcurrency) {
+        List<Callable<Object>> callables = new ArrayList<Callable<Object>>(jobs.size());
+        for (final Runnable job:jobs)
+            callables.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    job.run();
+                    return null;
+                }
+            });
+        invokeAll(callables, maxConcurrency);
+    }
+
+    static <V> void runLane(List<? extends Callable<V>> jobs, V[] results, AtomicInteger next, AtomicReference<Exception> error) {
+        for (int i=next.getAndIncrement(); i<jobs.size(); i=next.getAndIncrement()) {
+            long start = startJob();
+            try {
+                results[i] = jobs.get(i).call();
+            } catch (Exception e) {
+                error.compareAndSet(null, e);
+                next.set(jobs.size());
+            } finally {
+                endJob(start);
+            }
+        }
+    }
+
+    static long startJob() {
+        ++depth.get()[0];
+        return System.nanoTime();
+    }
+
+    static void endJob(long start) {
+        if (--depth.get()[0]==0)
+            busyNanos.addAndGet(System.nanoTime()-start);
+        jobCount.incrementAndGet();
+    }
+
+    /**
+     * @return utilization (busy time of the jobs over the thread budget
+     * since the pool started) and queue depth of the pool
+     */
+    public static synchronized String getStatistics() {
+        double seconds = (System.nanoTime()-startTime)/1e9;
+        double busy = busyNanos.get()/1e9;
+        String stats = String.format("compute pool: %d threads, %d jobs, %.1fs busy in %.1fs (%.0f%% utilization)",
+                parallelism, jobCount.get(), busy, seconds, 100*busy/Math.max(parallelism*seconds, 1e-9));
+        if (pool!=null)
+            stats += String.format(", %d active, %d queued tasks, %d queued submissions, %d steals",
+                    pool.getActiveThreadCount(), pool.getQueuedTaskCount(), pool.getQueuedSubmissionCount(), pool.getStealCount());
+        return stats;
+    }
+}
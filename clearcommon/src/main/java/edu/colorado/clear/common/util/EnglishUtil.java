@@ -41,6 +41,14 @@ public class EnglishUtil extends LanguageUtil {
 
     public Dictionary dict;
     public WordnetStemmer stemmer;
+    
+    /** 
+     * WordnetStemmer isn't thread-safe, give each thread its own. They share
+     * dict: JWI synchronizes the file lookups on the file buffer, but its item
+     * cache is a plain access ordered LinkedHashMap, so it is disabled (the
+     * stem cache sits in front of the stemmers anyway).
+     */
+    ThreadLocal<WordnetStemmer> threadStemmer;
 
     TBHeadRules headRules;
     
@@ -65,12 +73,7 @@ public class EnglishUtil extends LanguageUtil {
     @Override
     public boolean init(Properties props) {
         try {
-            URL url = new URL("file", null, props.getProperty("wordnet_dic"));
-            // construct the dictionary object and open it
-            dict = new Dictionary(url);
-            dict.getCache().setMaximumCapacity(5000);
-            dict.open();
-            stemmer = new WordnetStemmer(dict);
+            openDictionary(props.getProperty("wordnet_dic"));
             headRules = new TBHeadRules(props.getProperty("headrules"));
         } catch (MalformedURLException e) {
             e.printStackTrace();
@@ -83,6 +86,8 @@ public class EnglishUtil extends LanguageUtil {
 			e.printStackTrace();
 		}
         
+        initStemCache(props);
+        
         if (frameMap==null) {
 	        frameMap = new HashMap<String, PBFrame>();
 	        String frameDir = props.getProperty("frame_dir");
@@ -93,6 +98,16 @@ public class EnglishUtil extends LanguageUtil {
         return true;
     }
     
+    void openDictionary(String dictDir) throws IOException {
+        URL url = new URL("file", null, dictDir);
+        // construct the dictionary object and open it
+        dict = new Dictionary(url);
+        dict.getCache().setEnabled(false);
+        dict.open();
+        stemmer = new WordnetStemmer(dict);
+        threadStemmer = ThreadLocal.withInitial(()->new WordnetStemmer(dict));
+    }
+    
     @Override
     protected void finalize() throws Throwable {
         dict.close();
@@ -100,7 +115,7 @@ public class EnglishUtil extends LanguageUtil {
     
     @Override
     public List<String> findStems(String word, POS pos) {
-        return findStems(word, edu.mit.jwi.item.POS.valueOf(pos.toString()));
+        return findStems(word, edu.mit.jwi.item.POS.valueOf(pos.name()));
     }
     
     @Override
@@ -119,17 +134,18 @@ public class EnglishUtil extends LanguageUtil {
         return null;
     }
 
-    List<String> findStems(String word, edu.mit.jwi.item.POS pos) {    	
-        List<String> stems = null;
+    List<String> findStems(String word, edu.mit.jwi.item.POS pos) {
+    	POS key = pos==null?null:POS.valueOf(pos.name());
+    	List<String> stems = getCachedStems(word, key);
+    	if (stems!=null)
+    		return stems;
         try {
-        	synchronized (stemmer) {
-        		stems = stemmer.findStems(word, pos);
-        	}
+        	stems = threadStemmer.get().findStems(word, pos);
     	} catch (Exception e) {
     	    System.err.println("Exception caught trying to find stem of "+word+"/"+pos);
     	    e.printStackTrace();
     	}
-        return (stems==null||stems.isEmpty()||stems.get(0).isEmpty())?Arrays.asList(word):stems;
+        return cacheStems(word, key, (stems==null||stems.isEmpty()||stems.get(0).isEmpty())?Arrays.asList(word):stems);
     }
     
     class FrameParseHandler extends DefaultHandler {
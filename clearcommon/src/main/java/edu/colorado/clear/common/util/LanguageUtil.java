@@ -6,6 +6,7 @@ import edu.colorado.clear.common.treebank.TBNode;
 import edu.colorado.clear.common.util.PBFrame.Roleset;
 import gnu.trove.map.TObjectIntMap;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -16,9 +17,14 @@ import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -37,6 +43,30 @@ public abstract class LanguageUtil {
 	protected static Logger logger = Logger.getLogger(PBFileReader.class.getPackage().getName());
     
     Map<String, PBFrame> frameMap;
+    
+    static final int DEFAULT_STEM_CACHE_SIZE = 200000;
+    
+    /** precomputed (word, POS)->stems table, read only after initialization */
+    Map<String, List<String>> lemmaTable;
+    /** bounded (word, POS)->stems cache shared by all threads */
+    ConcurrentMap<String, CachedStems> stemCache;
+    int stemCacheSize;
+    /** held by the thread sweeping the stem cache */
+    final AtomicBoolean stemCacheSweep = new AtomicBoolean();
+    
+    /**
+     * Stem cache entry, used is set by lookups and cleared by the eviction
+     * sweep (second chance), so lookups never lock
+     */
+    static final class CachedStems {
+        final List<String> stems;
+        volatile boolean used;
+        
+        CachedStems(List<String> stems) {
+            this.stems = stems;
+            used = true;
+        }
+    }
 	
     public enum POS {
         NOUN,
@@ -55,6 +85,92 @@ public abstract class LanguageUtil {
     public List<String> findStems(String word, POS pos) {
         return Arrays.asList(word);
     }
+    
+    /**
+     * Sets up the stem cache. The cache size is set by "stem_cache.size"
+     * (0 disables caching) and "lemma_table" optionally points to a
+     * precomputed table with lines of the form "word POS stem1 stem2 ...", 
+     * whitespace separated, where POS is one of {@link POS}.
+     * @param props language properties
+     */
+    protected void initStemCache(Properties props) {
+        stemCacheSize = Integer.parseInt(props.getProperty("stem_cache.size", Integer.toString(DEFAULT_STEM_CACHE_SIZE)));
+        stemCache = stemCacheSize>0?new ConcurrentHashMap<String, CachedStems>():null;
+        
+        String tableName = props.getProperty("lemma_table");
+        if (tableName==null) return;
+        
+        Map<String, List<String>> table = new HashMap<String, List<String>>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(tableName), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line=reader.readLine())!=null) {
+                String[] tokens = line.trim().split("\\s+");
+                if (tokens.length<3) continue;
+                try {
+                    table.put(makeStemKey(tokens[0], POS.valueOf(tokens[1])), 
+                            Collections.unmodifiableList(Arrays.asList(Arrays.copyOfRange(tokens, 2, tokens.length))));
+                } catch (IllegalArgumentException e) {
+                    logger.warning("Unknown POS in lemma table: "+line);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error reading lemma table "+tableName, e);
+        }
+        logger.info(table.size()+" lemma table entries read");
+        lemmaTable = table;
+    }
+    
+    static String makeStemKey(String word, POS pos) {
+        return (pos==null?'-':(char)('0'+pos.ordinal()))+word;
+    }
+    
+    /**
+     * Looks up previously found stems, safe to call from multiple threads
+     * @return the stems, or null if not in the lemma table or cache
+     */
+    protected List<String> getCachedStems(String word, POS pos) {
+        if (lemmaTable==null && stemCache==null) return null;
+        String key = makeStemKey(word, pos);
+        List<String> stems = lemmaTable==null?null:lemmaTable.get(key);
+        if (stems==null && stemCache!=null) {
+            CachedStems entry = stemCache.get(key);
+            if (entry==null) return null;
+            if (!entry.used) entry.used = true;
+            stems = entry.stems;
+        }
+        return stems;
+    }
+    
+    /**
+     * Caches the stems found for (word, pos). Once the cache grows beyond 
+     * its capacity, one thread sweeps it, evicting the entries not added or 
+     * looked up since the last sweep (and more if that leaves it above 7/8 
+     * of the capacity).
+     * @return the (unmodifiable) cached stems
+     */
+    protected List<String> cacheStems(String word, POS pos, List<String> stems) {
+        stems = Collections.unmodifiableList(stems);
+        if (stemCache==null) return stems;
+        stemCache.put(makeStemKey(word, pos), new CachedStems(stems));
+        if (stemCache.size()>stemCacheSize && stemCacheSweep.compareAndSet(false, true))
+            try {
+                for (Iterator<CachedStems> iter=stemCache.values().iterator(); iter.hasNext();) {
+                    CachedStems entry = iter.next();
+                    if (entry.used)
+                        entry.used = false;
+                    else
+                        iter.remove();
+                }
+                int target = stemCacheSize-stemCacheSize/8;
+                for (Iterator<CachedStems> iter=stemCache.values().iterator(); iter.hasNext() && stemCache.size()>target;) {
+                    iter.next();
+                    iter.remove();
+                }
+            } finally {
+                stemCacheSweep.set(false);
+            }
+        return stems;
+    }
 
     public List<String> findStems(TBNode node) {
         return Arrays.asList(node.getWord());
@@ -0,0 +1,330 @@
+package edu.colorado.clear.common.util;
+
+import edu.colorado.clear.common.alg.FrozenStringIntMap;
+import edu.colorado.clear.liblinearbinary.CompactModel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Versioned binary container for trained models. The large, flat parts of a
+ * model (classifier weights, their row indices and frozen feature
+ * dictionaries) are written as raw little endian blocks and memory mapped
+ * when read back, so loading a model does not have to deserialize (and
+ * allocate) them. Everything else
+ * is stored as a regular serialized object stream (the skeleton) that
+ * refers to the blocks by offset.
+ *
+ * File layout:
+ * <pre>
+ * byte[8] magic "CLEARMDL"
+ * int     version
+ * int     (reserved)
+ * long    skeleton offset
+ * long    skeleton length
+ * ...     8 byte aligned data blocks
+ * ...     skeleton: the written objects, in order
+ * </pre>
+ *
+ * Use {@link CompactModel}s and {@link FrozenStringIntMap}s in the object
+ * graph to take advantage of the mapped blocks (see
+ * {@link edu.colorado.clear.common.alg.Classifier#compact()} and
+ * {@link edu.colorado.clear.common.alg.FeatureSet#freeze()}).
+ */
+public final class MappedObjectFile {
+
+    static final byte[] MAGIC = "CLEARMDL".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 4;
+    static final int HEADER_SIZE = 32;
+
+    /** blocks smaller than this are read onto the heap instead of mapped */
+    static final int MIN_MAPPED_SIZE = 1<<16;
+
+    /** weights are copied to and from the file through buffers of this size */
+    static final int CHUNK_SIZE = 1<<20;
+
+    private MappedObjectFile() {}
+
+    /**
+     * Stand in for a block of data in the skeleton
+     */
+    static final class BlockRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /** header of the model that owns the block, null for dictionaries */
+        CompactModel header;
+        long offset;
+        long length;
+
+        /** the row index block of a model */
+        long indexOffset;
+        long indexLength;
+
+        BlockRef(CompactModel header, long offset, long length) {
+            this.header = header;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    static class BlockWriter extends ObjectOutputStream {
+        RandomAccessFile file;
+
+        BlockWriter(ByteArrayOutputStream out, RandomAccessFile file) throws IOException {
+            super(out);
+            this.file = file;
+            enableReplaceObject(true);
+        }
+
+        long nextOffset() throws IOException {
+            long offset = file.length();
+            return offset+(8-offset%8)%8;
+        }
+
+        long write(ByteBuffer block, long position) throws IOException {
+            // a positional write may write only part of the buffer
+            FileChannel channel = file.getChannel();
+            while (block.hasRemaining())
+                position += channel.write(block, position);
+            return position;
+        }
+
+        long writeBlock(ByteBuffer block) throws IOException {
+            long offset = nextOffset();
+            write(block, offset);
+            return offset;
+        }
+
+        /**
+         * writes the values of an {@link IntBuffer} or a {@link FloatBuffer}
+         * through a fixed size buffer rather than a copy of the whole block
+         */
+        long writeBlock(Buffer values) throws IOException {
+            long offset = nextOffset();
+            ByteBuffer chunk = ByteBuffer.allocate(Math.min(values.remaining(), CHUNK_SIZE/4)*4).order(ByteOrder.LITTLE_ENDIAN);
+            for (long position=offset; values.hasRemaining();) {
+                int n = Math.min(values.remaining(), chunk.capacity()/4);
+                chunk.clear();
+                if (values instanceof IntBuffer) {
+                    IntBuffer slice = ((IntBuffer)values).duplicate();
+                    slice.limit(values.position()+n);
+                    chunk.asIntBuffer().put(slice);
+                } else {
+                    FloatBuffer slice = ((FloatBuffer)values).duplicate();
+                    slice.limit(values.position()+n);
+                    chunk.asFloatBuffer().put(slice);
+                }
+                chunk.limit(n*4);
+                values.position(values.position()+n);
+                position = write(chunk, position);
+            }
+            return offset;
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof CompactModel && ((CompactModel)obj).hasWeights()) {
+                CompactModel model = (CompactModel)obj;
+                IntBuffer rowIndex = model.getRowIndex();
+                FloatBuffer weights = model.getWeights();
+                long indexLength = rowIndex.remaining()*4L;
+                long length = weights.remaining()*4L;
+                BlockRef ref = new BlockRef(model.withWeights(null, null), 0, length);
+                ref.indexLength = indexLength;
+                ref.indexOffset = writeBlock(rowIndex);
+                ref.offset = writeBlock(weights);
+                return ref;
+            } else if (obj instanceof FrozenStringIntMap) {
+                ByteBuffer block = ((FrozenStringIntMap)obj).getBuffer();
+                block.clear();
+                int length = block.remaining();
+                return new BlockRef(null, writeBlock(block), length);
+            }
+            return obj;
+        }
+    }
+
+    static class BlockReader extends ObjectInputStream {
+        FileChannel channel;
+
+        BlockReader(InputStream in, FileChannel channel) throws IOException {
+            super(in);
+            this.channel = channel;
+            enableResolveObject(true);
+        }
+
+        void read(ByteBuffer block, long position) throws IOException {
+            while (block.hasRemaining()) {
+                int n = channel.read(block, position);
+                if (n<0)
+                    throw new IOException("unexpected end of file reading block at "+position);
+                position += n;
+            }
+        }
+
+        ByteBuffer readBlock(long offset, long length) throws IOException {
+            if (length>Integer.MAX_VALUE)
+                throw new IOException("block of "+length+" bytes at "+offset+" exceeds the 2GB buffer limit");
+            ByteBuffer block;
+            if (length>=MIN_MAPPED_SIZE)
+                block = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            else {
+                block = ByteBuffer.allocate((int)length);
+                read(block, offset);
+                block.flip();
+            }
+            return block.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * reads a block too large for a single mapping onto the heap, into
+         * an {@link IntBuffer} or a {@link FloatBuffer}
+         */
+        void readValues(long offset, Buffer values) throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (long position=offset; values.hasRemaining(); position+=chunk.capacity()) {
+                chunk.clear();
+                chunk.limit(Math.min(chunk.capacity()/4, values.remaining())*4);
+                read(chunk, position);
+                chunk.flip();
+                if (values instanceof IntBuffer)
+                    ((IntBuffer)values).put(chunk.asIntBuffer());
+                else
+                    ((FloatBuffer)values).put(chunk.asFloatBuffer());
+            }
+            values.flip();
+        }
+
+        static int valueCount(long offset, long length) throws IOException {
+            if (length/4>Integer.MAX_VALUE)
+                throw new IOException("block of "+length+" bytes at "+offset+" is too large");
+            return (int)(length/4);
+        }
+
+        IntBuffer readIndex(BlockRef ref) throws IOException {
+            if (ref.indexLength<=Integer.MAX_VALUE)
+                return readBlock(ref.indexOffset, ref.indexLength).asIntBuffer();
+            IntBuffer rowIndex = IntBuffer.allocate(valueCount(ref.indexOffset, ref.indexLength));
+            readValues(ref.indexOffset, rowIndex);
+            return rowIndex;
+        }
+
+        FloatBuffer readWeights(BlockRef ref) throws IOException {
+            if (ref.length<=Integer.MAX_VALUE)
+                return readBlock(ref.offset, ref.length).asFloatBuffer();
+            FloatBuffer weights = FloatBuffer.allocate(valueCount(ref.offset, ref.length));
+            readValues(ref.offset, weights);
+            return weights;
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof BlockRef) {
+                BlockRef ref = (BlockRef)obj;
+                if (ref.header!=null)
+                    return ref.header.withWeights(readIndex(ref), readWeights(ref));
+                return FrozenStringIntMap.wrap(readBlock(ref.offset, ref.length));
+            }
+            return obj;
+        }
+    }
+
+    /**
+     * @param file
+     * @return whether file starts with the magic of this format
+     */
+    public static boolean isMappedObjectFile(File file) {
+        byte[] magic = new byte[MAGIC.length];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(magic);
+        } catch (IOException e) {
+            return false;
+        }
+        return Arrays.equals(magic, MAGIC);
+    }
+
+    /**
+     * Writes objects to file, they are read back in the same order by
+     * {@link #read(File)}
+     * @param file
+     * @param objects
+     * @throws IOException
+     */
+    public static void write(File file, Object... objects) throws IOException {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(0);
+            out.write(new byte[HEADER_SIZE]);
+
+            ByteArrayOutputStream skeleton = new ByteArrayOutputStream();
+            try (BlockWriter writer = new BlockWriter(skeleton, out)) {
+                writer.writeInt(objects.length);
+                for (Object obj:objects)
+                    writer.writeObject(obj);
+            }
+            long skeletonOffset = out.length();
+            out.seek(skeletonOffset);
+            out.write(skeleton.toByteArray());
+
+            out.seek(0);
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(0);
+            out.writeLong(skeletonOffset);
+            out.writeLong(skeleton.size());
+        }
+    }
+
+    /**
+     * Reads the objects written by {@link #write(File, Object...)}. Mapped
+     * blocks remain valid after the method returns.
+     * @param file
+     * @return
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static List<Object> read(File file) throws IOException, ClassNotFoundException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new IOException(file.getPath()+" is not a model file");
+            int version = in.readInt();
+            if (version!=VERSION)
+                throw new IOException(file.getPath()+": unsupported model file version "+version);
+            in.readInt();
+            long skeletonOffset = in.readLong();
+            long skeletonLength = in.readLong();
+
+            byte[] skeleton = new byte[(int)skeletonLength];
+            in.seek(skeletonOffset);
+            in.readFully(skeleton);
+
+            try (BlockReader reader = new BlockReader(new ByteArrayInputStream(skeleton), in.getChannel())) {
+                int count = reader.readInt();
+                List<Object> objects = new ArrayList<Object>(count);
+                for (int i=0; i<count; ++i)
+                    objects.add(reader.readObject());
+                return objects;
+            }
+        }
+    }
+}
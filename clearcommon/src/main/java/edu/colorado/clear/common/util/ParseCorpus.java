@@ -35,11 +35,16 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 import org.kohsuke.args4j.CmdLineException;
@@ -160,16 +165,16 @@ public class ParseCorpus {
             this.poses = poses;
         }
         
-        @Override
-        public String call() {
-        	if (words==null) return null;
+        /**
+         * @return the parse with binarization nodes removed, or null if parsing failed/skipped
+         */
+        Tree<String> parseTree() {
             if (words.isEmpty())
-                return makeDefaultParse(words);
+                return null;
             if (words.size()>=250) { 
                 logger.warning("Skipping sentence with "+words.size()+" words since it is too long.");
-                return makeDefaultParse(words);
+                return null;
             }
-            String parse = null;
             Tree<String> parsedTree = null;
             try {
             	//System.out.println(words);
@@ -178,23 +183,55 @@ public class ParseCorpus {
             } catch (Exception e) {
                 logger.severe(e.toString());
                 e.printStackTrace();
-            } finally {
-                if (parsedTree!=null&&!parsedTree.getChildren().isEmpty()) {
-                	removeUselessNodes(parsedTree);
-                	/*removeUselessNodes(parsedTree.getChildren().get(0));
-                	parse = "( "+parsedTree.getChildren().get(0)+" )\n";*/
-                	// Can't just use the first child as multiple "S" in a tree is allowed in Treebank
-                	StringBuilder builder = new StringBuilder("( ");
-                	for (Tree<String> child:parsedTree.getChildren())
-                		builder.append(child+" ");
-                	builder.append(")\n");
-                	parse = builder.toString();
-                	
-                }
-                else
-                	parse = makeDefaultParse(words);
             }
-            return parse;
+            if (parsedTree==null||parsedTree.getChildren().isEmpty())
+            	return null;
+            removeUselessNodes(parsedTree);
+            return parsedTree;
+        }
+        
+        @Override
+        public String call() {
+        	if (words==null) return null;
+        	Tree<String> parsedTree = parseTree();
+        	if (parsedTree==null)
+        		return makeDefaultParse(words);
+        	
+        	/*removeUselessNodes(parsedTree.getChildren().get(0));
+        	parse = "( "+parsedTree.getChildren().get(0)+" )\n";*/
+        	// Can't just use the first child as multiple "S" in a tree is allowed in Treebank
+        	StringBuilder builder = new StringBuilder("( ");
+        	for (Tree<String> child:parsedTree.getChildren())
+        		builder.append(child+" ");
+        	builder.append(")\n");
+        	return builder.toString();
+        }
+    }
+    
+    /**
+     * Parses a sentence straight into a TBTree, skipping the string form
+     */
+    class TreeSentence implements Supplier<TBTree> {
+        Sentence sentence;
+        String fileName;
+        int index;
+        
+        public TreeSentence(Sentence sentence, String fileName, int index) {
+        	this.sentence = sentence;
+        	this.fileName = fileName;
+        	this.index = index;
+        }
+        
+        @Override
+        public TBTree get() {
+        	Tree<String> parsedTree = sentence.parseTree();
+        	if (parsedTree==null)
+        		parsedTree = makeDefaultTree(sentence.words);
+        	try {
+        		return TBUtil.convertTree(parsedTree, fileName, index);
+        	} catch (ParseException e) {
+        		throw new CompletionException(e);
+        	}
         }
     }
     
@@ -322,11 +359,19 @@ public class ParseCorpus {
         return buffer.toString();
     }
     
-    public SentenceWriter parse(Reader reader, Writer writer, boolean closeWriter) throws IOException {
+    public static Tree<String> makeDefaultTree(List<String> sentence) {
+        List<Tree<String>> terminals = new ArrayList<Tree<String>>(sentence.size());
+        for (String word:sentence)
+            terminals.add(new Tree<String>("X", Arrays.asList(new Tree<String>(word))));
+        return new Tree<String>("ROOT", Arrays.asList(new Tree<String>("FRAG", terminals)));
+    }
+    
+    /**
+     * Reads the input one sentence at a time (tokenizing or reading CoNLL 
+     * columns as configured) and hands the words/POS to the consumer
+     */
+    void readSentences(Reader reader, BiConsumer<List<String>, List<String>> consumer) throws IOException {
         BufferedReader inputData = new BufferedReader(reader);
-
-        SentenceWriter sentWriter = new SentenceWriter(writer, closeWriter);
-        sentWriter.start();
         
         String line;
         
@@ -335,14 +380,7 @@ public class ParseCorpus {
 	        	if (toLowerCase)
 	        		line = line.toLowerCase();
 	            List<String> words = tokenizer==null?Arrays.asList(line.trim().split(" +")):tokenizer.tokenizeLine(line);
-	            Future<String> future = executor.submit(new Sentence(words));
-	            while(true)
-	    	        try {
-	    	        	parseQueue.put(future);
-	    	        	break;
-	    	        } catch (InterruptedException e) {
-	    	        }
-	            //System.out.println(lineCount);
+	            consumer.accept(words, null);
 	        }
         else {
         	ArrayList<String> words=new ArrayList<String>();
@@ -353,13 +391,7 @@ public class ParseCorpus {
         			if (words.isEmpty()) continue;
         			words.trimToSize();
         			poses.trimToSize();
-        			Future<String> future = executor.submit(new Sentence(words, poses));
-    	            while(true)
-    	    	        try {
-    	    	        	parseQueue.put(future);
-    	    	        	break;
-    	    	        } catch (InterruptedException e) {
-    	    	        }
+        			consumer.accept(words, poses);
     	            words = new ArrayList<String>();
     	            poses = new ArrayList<String>();
     	            continue;
@@ -369,21 +401,44 @@ public class ParseCorpus {
         		poses.add(tokens[1]);
 	        }
         }
-        
-        
-        
-        // add a dummy termination sentence
-        Future<String> future = executor.submit(new Sentence(null));
+    }
+    
+    void queueParse(Future<String> future) {
         while(true)
 	        try {
 	        	parseQueue.put(future);
 		        break;
 	        } catch (InterruptedException e) {
 	        }
+    }
+    
+    public SentenceWriter parse(Reader reader, Writer writer, boolean closeWriter) throws IOException {
+        SentenceWriter sentWriter = new SentenceWriter(writer, closeWriter);
+        sentWriter.start();
+        
+        readSentences(reader, (words, poses)->queueParse(executor.submit(new Sentence(words, poses))));
+        
+        // add a dummy termination sentence
+        queueParse(executor.submit(new Sentence(null)));
 	  
         return sentWriter;
     }
     
+    /**
+     * Parses the input directly into trees. Each sentence is submitted to 
+     * the parser threads and its future is handed to the consumer in input 
+     * order, so the caller can chain further processing onto it without an 
+     * intermediate text representation.
+     * @param reader input text
+     * @param fileName name to record in the resulting trees
+     * @param consumer receives the future of each parsed tree
+     * @throws IOException
+     */
+    public void parse(Reader reader, String fileName, Consumer<CompletableFuture<TBTree>> consumer) throws IOException {
+        int[] treeCount = new int[1];
+        readSentences(reader, (words, poses)->consumer.accept(CompletableFuture.supplyAsync(new TreeSentence(new Sentence(words, poses), fileName, treeCount[0]++), executor)));
+    }
+    
     public static void main(String[] args) throws Exception {
         ParseCorpus parser = new ParseCorpus(false);
         CmdLineParser cmdParser = new CmdLineParser(parser);
@@ -0,0 +1,151 @@
+package edu.colorado.clear.common.alg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import gnu.trove.iterator.TObjectIntIterator;
+import gnu.trove.map.TObjectIntMap;
+
+public class TestFeatureSet {
+
+    enum Feature {
+        WORD,
+        POS,
+        PATH,
+        LABEL
+    }
+
+    static final String[] featureStrs = {"WORD", "POS", "WORD-POS", "POS-PATH", "WORD-POS-PATH", "LABEL"};
+
+    static List<EnumMap<Feature,Collection<String>>> makeSamples(int count) {
+        Random rand = new Random(0);
+        String[] words = {"the", "café", "中文", "run", "null", ""};
+        List<EnumMap<Feature,Collection<String>>> samples = new ArrayList<EnumMap<Feature,Collection<String>>>();
+        for (int i=0; i<count; ++i) {
+            EnumMap<Feature,Collection<String>> sample = new EnumMap<Feature,Collection<String>>(Feature.class);
+            sample.put(Feature.WORD, Arrays.asList(words[rand.nextInt(words.length)], words[rand.nextInt(words.length)]));
+            sample.put(Feature.POS, Arrays.asList("NN"+rand.nextInt(3)));
+            if (rand.nextBoolean())
+                sample.put(Feature.PATH, Arrays.asList("NP^S", "VPvNP", null));
+            samples.add(sample);
+        }
+        return samples;
+    }
+
+    static FeatureSet<Feature> train(FeatureSet.Hashing hashing, List<EnumMap<Feature,Collection<String>>> samples) {
+        Set<EnumSet<Feature>> features = new HashSet<EnumSet<Feature>>();
+        for (String featureStr:featureStrs)
+            features.add(FeatureSet.toEnumSet(Feature.class, featureStr));
+        FeatureSet<Feature> featureSet = new FeatureSet<Feature>(features);
+        featureSet.setHashing(hashing, 1000);
+        featureSet.initialize();
+        for (EnumMap<Feature,Collection<String>> sample:samples)
+            featureSet.addToDictionary(sample, 1f);
+        featureSet.rebuildMap(2);
+        return featureSet;
+    }
+
+    @Test
+    public void testVerified() {
+        List<EnumMap<Feature,Collection<String>>> samples = makeSamples(200);
+        FeatureSet<Feature> stringSet = train(FeatureSet.Hashing.NONE, samples);
+        FeatureSet<Feature> verifiedSet = train(FeatureSet.Hashing.VERIFIED, samples);
+
+        // indices of equally frequent features may be assigned in a different order
+        assertEquals(stringSet.getDimension(), verifiedSet.getDimension());
+        for (EnumSet<Feature> feature:stringSet.getFeatures())
+            assertEquals(stringSet.getFeatureStrMap().get(feature).keySet(), verifiedSet.getFeatureStrMap().get(feature).keySet());
+        for (EnumMap<Feature,Collection<String>> sample:makeSamples(400))
+            assertEquals(toKeys(stringSet, stringSet.getFeatureVector(sample)), toKeys(verifiedSet, verifiedSet.getFeatureVector(sample)));
+    }
+
+    static Set<String> toKeys(FeatureSet<Feature> featureSet, int[] vec) {
+        Set<String> keys = new HashSet<String>();
+        for (int idx:vec)
+            for (Map.Entry<EnumSet<Feature>, TObjectIntMap<String>> entry:featureSet.getFeatureStrMap().entrySet())
+                for (TObjectIntIterator<String> iter=entry.getValue().iterator(); iter.hasNext();) {
+                    iter.advance();
+                    if (iter.value()==idx)
+                        keys.add(FeatureSet.toString(entry.getKey())+":"+iter.key());
+                }
+        assertEquals(vec.length, keys.size());
+        return keys;
+    }
+
+    @Test
+    public void testHashed() {
+        List<EnumMap<Feature,Collection<String>>> samples = makeSamples(50);
+        FeatureSet<Feature> hashedSet = train(FeatureSet.Hashing.HASHED, samples);
+        assertEquals(1000, hashedSet.getDimension());
+
+        for (EnumMap<Feature,Collection<String>> sample:samples) {
+            int[] vec = hashedSet.getFeatureVector(sample);
+            assertTrue(vec.length>0);
+            for (int idx:vec)
+                assertTrue(idx>0 && idx<=1000);
+            assertArrayEquals(hashedSet.getFeatureVector(hashedSet.convertFlatSample(sample)), vec);
+        }
+    }
+
+    @Test
+    public void testHashedKeptDictionary() {
+        List<EnumMap<Feature,Collection<String>>> samples = makeSamples(50);
+        FeatureSet<Feature> stringSet = train(FeatureSet.Hashing.NONE, samples);
+
+        Set<EnumSet<Feature>> features = new HashSet<EnumSet<Feature>>();
+        for (String featureStr:featureStrs)
+            features.add(FeatureSet.toEnumSet(Feature.class, featureStr));
+        FeatureSet<Feature> hashedSet = new FeatureSet<Feature>(features);
+        hashedSet.setHashing(FeatureSet.Hashing.HASHED, 1000);
+        hashedSet.keepDictionary(EnumSet.of(Feature.WORD));
+        hashedSet.keepDictionary(EnumSet.of(Feature.WORD, Feature.POS));
+        hashedSet.initialize();
+        for (EnumMap<Feature,Collection<String>> sample:samples)
+            hashedSet.addToDictionary(sample, 1f);
+        hashedSet.rebuildMap(2);
+
+        assertEquals(1000, hashedSet.getDimension());
+        for (EnumSet<Feature> feature:features) {
+            TObjectIntMap<String> dictionary = hashedSet.getFeatureStrMap().get(feature);
+            if (feature.equals(EnumSet.of(Feature.WORD)) || feature.equals(EnumSet.of(Feature.WORD, Feature.POS)))
+                assertEquals(stringSet.getFeatureStrMap().get(feature).keySet(), dictionary.keySet());
+            else
+                assertTrue(dictionary.isEmpty());
+        }
+    }
+
+    @Test
+    public void testSelectedTemplates() {
+        List<EnumMap<Feature,Collection<String>>> samples = makeSamples(200);
+        EnumSet<Feature> selector = EnumSet.of(Feature.PATH);
+        for (FeatureSet.Hashing hashing:FeatureSet.Hashing.values()) {
+            FeatureSet<Feature> featureSet = train(hashing, samples);
+            assertTrue(featureSet.hasMixedTemplate(selector));
+            assertEquals(EnumSet.of(Feature.WORD, Feature.POS), featureSet.getMixedFeatures(selector));
+            assertTrue(featureSet.getMixedFeatures(EnumSet.of(Feature.LABEL)).isEmpty());
+            for (EnumMap<Feature,Collection<String>> sample:samples) {
+                int[] vec = featureSet.getFeatureVector(sample);
+                int[] without = featureSet.getFeatureVector(sample, selector, false);
+                int[] with = featureSet.getFeatureVector(sample, selector, true);
+                assertArrayEquals(vec, FeatureSet.union(without, with));
+                if (!sample.containsKey(Feature.PATH))
+                    assertEquals(0, with.length);
+            }
+        }
+        assertArrayEquals(new int[]{1, 2, 3, 5, 8}, FeatureSet.union(new int[]{1, 3, 5}, new int[]{2, 3, 8}));
+    }
+}
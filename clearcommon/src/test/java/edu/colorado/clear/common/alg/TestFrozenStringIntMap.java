@@ -0,0 +1,41 @@
+package edu.colorado.clear.common.alg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+public class TestFrozenStringIntMap {
+
+    @Test
+    public void testLookup() {
+        String[] keys = {"", "NP", "NP VP", "café", "中文 词", "😀 smile", "bad\ud800"};
+        TObjectIntMap<String> map = new TObjectIntHashMap<String>();
+        for (int i=0; i<keys.length; ++i)
+            map.put(keys[i], i+1);
+        for (int i=0; i<1000; ++i)
+            map.put("key"+i, keys.length+i+1);
+
+        FrozenStringIntMap frozenMap = FrozenStringIntMap.build(map);
+        assertEquals(map.size(), frozenMap.size());
+        assertEquals(map, frozenMap);
+        for (String key:map.keySet())
+            assertEquals(map.get(key), frozenMap.get(key));
+
+        assertEquals(0, frozenMap.get("NP "));
+        assertEquals(0, frozenMap.get("caf"));
+        assertEquals(0, frozenMap.get("key1000"));
+        assertFalse(frozenMap.containsKey("中文"));
+        assertTrue(frozenMap.containsKey(new StringBuilder("NP VP")));
+    }
+
+    @Test
+    public void testFingerprint() {
+        assertEquals(FrozenStringIntMap.fingerprint("NP VP"),
+                FrozenStringIntMap.fingerprint("NP ")*FrozenStringIntMap.fingerprintShift(2)+FrozenStringIntMap.fingerprint("VP"));
+    }
+}
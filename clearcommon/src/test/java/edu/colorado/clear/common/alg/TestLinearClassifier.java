@@ -0,0 +1,204 @@
+package edu.colorado.clear.common.alg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Properties;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import edu.colorado.clear.common.util.ComputePool;
+import edu.colorado.clear.liblinearbinary.Linear;
+import edu.colorado.clear.liblinearbinary.Problem;
+
+public class TestLinearClassifier {
+
+    static final int DIMENSION = 40;
+
+    // dual coordinate descent reports its count, TRON one line per iteration
+    static final Pattern ITERATIONS = Pattern.compile("#iter = (\\d+)|(?m)^iter ");
+
+    static int[][] makeSamples(int[] y, int classes, Random rand) {
+        int[][] X = new int[y.length][];
+        for (int i=0; i<y.length; ++i) {
+            y[i] = rand.nextInt(classes)+1;
+            // a class feature and some noise features
+            X[i] = new int[]{y[i], 6+rand.nextInt(DIMENSION-6)};
+            if (rand.nextInt(4)==0)
+                X[i][0] = rand.nextInt(classes)+1;
+            if (X[i][0]>=X[i][1])
+                X[i] = new int[]{X[i][0]};
+        }
+        return X;
+    }
+
+    static LinearClassifier makeClassifier(String solverType, int threads, boolean warmStart) {
+        TObjectIntMap<String> labelMap = new TObjectIntHashMap<String>();
+        for (int i=1; i<=5; ++i)
+            labelMap.put("L"+i, i);
+        Properties prop = new Properties();
+        prop.setProperty("liblinear.solverType", solverType);
+        prop.setProperty("liblinear.warmStart", Boolean.toString(warmStart));
+        LinearClassifier classifier = new LinearClassifier();
+        classifier.dimension = DIMENSION;
+        classifier.initialize(labelMap, prop);
+        classifier.setThreads(threads);
+        return classifier;
+    }
+
+    /**
+     * @return solver iterations (TRON or dual coordinate descent) reported
+     * in the debug output
+     */
+    static int countIterations(ByteArrayOutputStream output) {
+        int iterations = 0;
+        Matcher matcher = ITERATIONS.matcher(output.toString());
+        while (matcher.find())
+            iterations += matcher.group(1)==null?1:Integer.parseInt(matcher.group(1));
+        output.reset();
+        return iterations;
+    }
+
+    static LinearClassifier train(String solverType, int threads, int[][] X, int[] y) {
+        LinearClassifier classifier = makeClassifier(solverType, threads, false);
+        classifier.trainNative(X, y);
+        return classifier;
+    }
+
+    @Test
+    public void testParallelClasses() {
+        Linear.disableDebugOutput();
+        ComputePool.setParallelism(3);
+        int[] y = new int[300];
+        int[][] X = makeSamples(y, 5, new Random(1));
+
+        // the dual and L1 solvers draw from a PRNG seeded per class
+        for (String solverType:new String[]{"L2R_LR", "L2R_L1LOSS_SVC_DUAL", "L1R_L2LOSS_SVC"}) {
+            double[] serial = train(solverType, 1, X, y).model.getFeatureWeights();
+            double[] parallel = train(solverType, 3, X, y).model.getFeatureWeights();
+            assertArrayEquals(serial, parallel, 0);
+            assertArrayEquals(serial, train(solverType, 2, X, y).model.getFeatureWeights(), 0);
+        }
+    }
+
+    @Test
+    public void testParallelKernels() {
+        Linear.disableDebugOutput();
+        ComputePool.setParallelism(3);
+        int[] y = new int[10000];
+        int[][] X = makeSamples(y, 2, new Random(2));
+
+        // a binary problem large enough for the TRON kernels to split the rows
+        for (String solverType:new String[]{"L2R_LR", "L2R_L2LOSS_SVC"}) {
+            double[] serial = train(solverType, 1, X, y).model.getFeatureWeights();
+            assertArrayEquals(serial, train(solverType, 3, X, y).model.getFeatureWeights(), 0);
+        }
+    }
+
+    @Test
+    public void testWarmStart() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Linear.setDebugOutput(new PrintStream(output));
+        int[] y = new int[2000];
+        int[][] X = makeSamples(y, 5, new Random(3));
+        int[] rows = new int[1500];
+        for (int i=0; i<rows.length; ++i)
+            rows[i] = i;
+
+        for (String solverType:new String[]{"L2R_LR", "L2R_L1LOSS_SVC_DUAL"}) {
+            output.reset();
+            LinearClassifier coldClassifier = train(solverType, 1, X, y);
+            double[] cold = coldClassifier.model.getFeatureWeights();
+            int coldIterations = countIterations(output);
+            assertTrue(coldIterations>0);
+
+            // from a model of a subset of the rows, then from its own model
+            LinearClassifier previous = makeClassifier(solverType, 1, true);
+            previous.trainNativeRows(X, y, rows);
+            LinearClassifier classifier = makeClassifier(solverType, 1, true);
+            classifier.warmStart(previous);
+            output.reset();
+            int lastIterations = coldIterations;
+            for (int r=0; r<2; ++r) {
+                classifier.trainNative(X, y);
+                // each start is closer to the optimum than the one before
+                int warmIterations = countIterations(output);
+                assertTrue(warmIterations<lastIterations);
+                lastIterations = warmIterations;
+                double[] warm = classifier.model.getFeatureWeights();
+                double diff = 0;
+                for (int i=0; i<cold.length; ++i)
+                    diff = Math.max(diff, Math.abs(cold[i]-warm[i]));
+                assertTrue(diff<0.05);
+                for (int i=0; i<X.length; ++i)
+                    assertEquals(coldClassifier.predictNative(X[i]), classifier.predictNative(X[i]));
+            }
+        }
+        Linear.disableDebugOutput();
+    }
+
+    @Test
+    public void testSeed() {
+        Linear.disableDebugOutput();
+        ComputePool.setParallelism(2);
+        int[] y = new int[400];
+        int[][] X = makeSamples(y, 5, new Random(5));
+
+        LinearClassifier first = makeClassifier("L2R_L1LOSS_SVC_DUAL", 1, false);
+        first.setSeed(7);
+        first.trainNative(X, y);
+        LinearClassifier second = makeClassifier("L2R_L1LOSS_SVC_DUAL", 1, false);
+        second.prop.setProperty("liblinear.seed", "7");
+        second.initialize(second.labelMap, second.prop);
+        assertEquals(7, second.getSeed());
+        second.trainNative(X, y);
+        assertArrayEquals(first.model.getFeatureWeights(), second.model.getFeatureWeights(), 0);
+
+        // each fold trains with its own seed derived from the classifier's
+        CrossValidator validator = new CrossValidator(first, 2);
+        int[] yValidate = validator.validate(3, X, y, null, false);
+        Classifier[] folds = validator.getFoldClassifiers();
+        for (int f=0; f<folds.length; ++f)
+            assertEquals(Classifier.deriveSeed(7, f), folds[f].getSeed());
+        assertTrue(folds[0].getSeed()!=folds[1].getSeed());
+        assertArrayEquals(yValidate, new CrossValidator(second, 2).validate(3, X, y, null, false));
+    }
+
+    @Test
+    public void testCompress() {
+        Linear.disableDebugOutput();
+        int[] y = new int[3000];
+        int[][] X = makeSamples(y, 5, new Random(4));
+
+        Problem problem = LinearClassifier.convertToProblem(X, y, null, -1, DIMENSION).compress();
+        assertTrue(problem.l<X.length);
+        double total = 0;
+        for (int i=0; i<problem.l; ++i)
+            total += problem.getWeight(i);
+        assertEquals(X.length, total, 0);
+
+        // the weighted duplicates have the same optimum
+        for (String solverType:new String[]{"L2R_LR", "L2R_L2LOSS_SVC", "L2R_L1LOSS_SVC_DUAL"}) {
+            LinearClassifier expanded = makeClassifier(solverType, 1, false);
+            expanded.compress = false;
+            expanded.trainNative(X, y);
+            LinearClassifier compressed = train(solverType, 1, X, y);
+
+            double[] w0 = expanded.model.getFeatureWeights();
+            double[] w1 = compressed.model.getFeatureWeights();
+            for (int i=0; i<w0.length; ++i)
+                assertEquals(w0[i], w1[i], 0.05);
+            for (int i=0; i<X.length; ++i)
+                assertEquals(expanded.predictNative(X[i]), compressed.predictNative(X[i]));
+        }
+    }
+}
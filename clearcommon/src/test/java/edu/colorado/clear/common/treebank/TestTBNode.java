@@ -2,8 +2,12 @@ package edu.colorado.clear.common.treebank;
 
 import static org.junit.Assert.*;
 
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 
@@ -71,4 +75,56 @@ public class TestTBNode {
         assertTrue(!nodeSet.contains(new TBNode(null,"")));
         
     }
+    
+    static void collect(TBNode node, List<TBNode> nodes) {
+        nodes.add(node);
+        for (TBNode child:node.getChildren())
+            collect(child, nodes);
+    }
+    
+    @Test
+    public void testLayout() throws ParseException {
+        String treeString = "( (S (NP-SBJ-1 (DT The) (NN man)) (VP (VBD was) (VP (VBN seen) (NP (-NONE- *-1)) (PP (IN with) (NP (DT a) (NN telescope))))) (. .)) )";
+        TBTree tree = new SerialTBFileReader(new StringReader(treeString)).nextTree();
+        
+        List<TBNode> nodes = new ArrayList<TBNode>();
+        collect(tree.getRootNode(), nodes);
+        
+        assertNotNull(tree.getRootNode().getLayout());
+        TBNode[] tokens = tree.getTokenNodes();
+        assertEquals(8, tokens.length);
+        assertEquals(9, tree.getTerminalNodes().length);
+        for (int i=0; i<tokens.length; ++i)
+            assertEquals(i, tokens[i].getTokenIndex());
+        
+        for (TBNode node:nodes) {
+            List<TBNode> descendants = new ArrayList<TBNode>();
+            collect(node, descendants);
+            List<TBNode> tokenNodes = new ArrayList<TBNode>();
+            BitSet tokenSet = new BitSet();
+            for (TBNode descendant:descendants)
+                if (descendant.isToken()) {
+                    tokenNodes.add(descendant);
+                    tokenSet.set(descendant.getTokenIndex());
+                }
+            assertEquals(tokenNodes, node.getTokenNodes());
+            assertEquals(tokenSet, node.getTokenSet());
+            assertEquals(!tokenNodes.isEmpty(), node.hasTokens());
+            assertEquals(tokenNodes.isEmpty()?null:tokenNodes.get(0), node.getStartToken());
+            assertEquals(tokenNodes.isEmpty()?null:tokenNodes.get(tokenNodes.size()-1), node.getEndToken());
+            assertEquals(node.getPathToRoot().size()-1, node.getLevelToRoot());
+            assertEquals(tree.getRootNode(), node.getRoot());
+            for (int i=-1; i<=tokens.length; ++i)
+                assertEquals(tokenNodes.contains(tree.getNodeByTokenIndex(i))?tree.getNodeByTokenIndex(i):null, node.getNodeByTokenIndex(i));
+            
+            for (TBNode other:nodes) {
+                assertEquals(node!=other && descendants.contains(other), other.isDecendentOf(node));
+                List<TBNode> path = other.getPathToRoot();
+                TBNode ancestor = node;
+                while (!path.contains(ancestor))
+                    ancestor = ancestor.getParent();
+                assertEquals(ancestor, node.getLowestCommonAncestor(other));
+            }
+        }
+    }
 }
@@ -3,13 +3,19 @@ package edu.colorado.clear.common.treebank;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.io.StringReader;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import edu.berkeley.nlp.syntax.Tree;
+import edu.berkeley.nlp.syntax.Trees;
 import edu.colorado.clear.common.treebank.ParseException;
 import edu.colorado.clear.common.treebank.SerialTBFileReader;
 import edu.colorado.clear.common.treebank.TBFileReader;
@@ -33,6 +39,148 @@ public class TestTBReader {
     public void setUp() throws Exception {
     }
     
+    @Test
+    public void testTokens() throws ParseException {
+        StringBuilder longWord = new StringBuilder();
+        while (longWord.length()<40000)
+            longWord.append("long");
+        
+        // words spanning the character buffer, multi-word tokens and missing antecedents
+        TBFileReader reader = new SerialTBFileReader(new StringReader(
+                "( (S (NP-SBJ-TMP-1 (NN "+longWord+")) (VP (VBD ran\t\n) (NP-2=3 (NN New York)) (S (-NONE- *T*-1)) (NP (-NONE- *T*-4)))) )\n\n"+
+                "((FRAG (NN end)))"));
+        
+        TBTree tree = reader.nextTree();
+        TBNode[] tokens = tree.getTokenNodes();
+        assertEquals(4, tokens.length);
+        assertEquals(longWord.toString(), tokens[0].getWord());
+        assertEquals("ran", tokens[1].getWord());
+        assertEquals("New", tokens[2].getWord());
+        assertEquals("York", tokens[3].getWord());
+        assertEquals("NN", tokens[3].getPOS());
+        
+        TBNode subject = tokens[0].getParent();
+        assertEquals("NP", subject.getPOS());
+        assertTrue(subject.hasFunctionTag("SBJ") && subject.hasFunctionTag("TMP"));
+        
+        TBNode[] terminals = tree.getTerminalNodes();
+        assertEquals(6, terminals.length);
+        assertSame(subject, terminals[4].indexingNode);
+        assertEquals("*T*", terminals[4].getECType());
+        assertNull(terminals[5].indexingNode);
+        assertEquals("-NONE-", terminals[5].getPOS());
+        
+        assertEquals("NP", tokens[2].getParent().getPOS());
+        assertEquals(0, tokens[2].getParent().getFunctionTags().size());
+        
+        tree = reader.nextTree();
+        assertEquals("FRAG", tree.getRootNode().getPOS());
+        assertNull(reader.nextTree());
+        assertNull(reader.nextTree());
+    }
+    
+    static void addNodes(TBNode node, List<TBNode> nodes) {
+        nodes.add(node);
+        for (TBNode child:node.getChildren())
+            addNodes(child, nodes);
+    }
+    
+    @Test
+    public void testBinary() throws Exception {
+        TBFileReader reader = new SerialTBFileReader(new StringReader(treeString+"\n((FRAG (NN end)))\n( (S (NP-SBJ-1 (NN it)) (VP (VBD ran) (S (-NONE- *T*-1)))) )"), "test.parse");
+        List<TBTree> trees = new ArrayList<TBTree>();
+        TBTree tree;
+        while ((tree = reader.nextTree())!=null)
+            trees.add(tree);
+        TBNode[] terminals = trees.get(2).getTerminalNodes();
+        terminals[1].head = terminals[1];
+        terminals[1].depLabel = "root";
+        
+        File file = File.createTempFile("test", BinaryTBFileReader.SUFFIX);
+        file.deleteOnExit();
+        BinaryTBFileReader.write(file, trees.toArray(new TBTree[trees.size()]));
+        
+        BinaryTBFileReader binReader = new BinaryTBFileReader(file, "test.parse");
+        assertEquals(3, binReader.size());
+        for (int i:new int[]{2, 0, 1}) {
+            TBTree bTree = binReader.getTree(i);
+            assertEquals("test.parse", bTree.getFilename());
+            assertEquals(i, bTree.getIndex());
+            assertEquals(trees.get(i).getTerminalCount(), bTree.getTerminalCount());
+            assertEquals(trees.get(i).getTokenCount(), bTree.getTokenCount());
+            assertEquals(trees.get(i).getRootNode().toParse(), bTree.getRootNode().toParse());
+            
+            List<TBNode> nodes = new ArrayList<TBNode>();
+            List<TBNode> bNodes = new ArrayList<TBNode>();
+            addNodes(trees.get(i).getRootNode(), nodes);
+            addNodes(bTree.getRootNode(), bNodes);
+            assertEquals(nodes.size(), bNodes.size());
+            for (int n=0; n<nodes.size(); ++n) {
+                TBNode node = nodes.get(n);
+                TBNode bNode = bNodes.get(n);
+                assertEquals(node.getPOS(), bNode.getPOS());
+                assertEquals(node.getWord(), bNode.getWord());
+                assertEquals(node.getFunctionTags(), bNode.getFunctionTags());
+                assertEquals(node.getChildIndex(), bNode.getChildIndex());
+                assertEquals(node.terminalIndex, bNode.terminalIndex);
+                assertEquals(node.tokenIndex, bNode.tokenIndex);
+                assertEquals(node.getDepLabel(), bNode.getDepLabel());
+                assertEquals(nodes.indexOf(node.indexingNode), bNodes.indexOf(bNode.indexingNode));
+                assertEquals(nodes.indexOf(node.head), bNodes.indexOf(bNode.head));
+                assertEquals(nodes.indexOf(node.headConstituent), bNodes.indexOf(bNode.headConstituent));
+                if (bNode.getParent()!=null)
+                    assertSame(bNode, bNode.getParent().getChildren()[bNode.getChildIndex()]);
+            }
+        }
+        assertNull(binReader.getTree(3));
+        binReader.close();
+    }
+    
+    @Test
+    public void testCachedHeads() throws Exception {
+        File dir = Files.createTempDirectory("tb").toFile();
+        File cacheDir = new File(dir, "cache");
+        try (PrintWriter writer = new PrintWriter(new File(dir, "test.parse"), "UTF-8")) {
+            writer.println(treeString);
+        }
+        File rulesFile = new File(dir, "test.headrules");
+        try (PrintWriter writer = new PrintWriter(rulesFile, "UTF-8")) {
+            writer.println("S\tl\tVP;NP");
+            writer.println("NP\tr\tNN.*;NP");
+        }
+        TBHeadRules headrules = new TBHeadRules(rulesFile.getPath());
+        
+        TBTree tree = TBUtil.readTBFile(dir.getPath(), "test.parse", headrules, cacheDir.getPath())[0];
+        File cacheFile = BinaryTBFileReader.getCacheFile(cacheDir.getPath(), "test.parse");
+        assertTrue(BinaryTBFileReader.isCurrent(cacheFile, new File(dir, "test.parse"), headrules));
+        assertFalse(BinaryTBFileReader.isCurrent(cacheFile, new File(dir, "test.parse")));
+        
+        // read back from the cache with the heads linked
+        TBTree cachedTree = TBUtil.readTBFile(dir.getPath(), "test.parse", headrules, cacheDir.getPath())[0];
+        List<TBNode> nodes = new ArrayList<TBNode>();
+        List<TBNode> cachedNodes = new ArrayList<TBNode>();
+        addNodes(tree.getRootNode(), nodes);
+        addNodes(cachedTree.getRootNode(), cachedNodes);
+        assertEquals(nodes.size(), cachedNodes.size());
+        for (int n=0; n<nodes.size(); ++n) {
+            assertNotNull(cachedNodes.get(n).head);
+            assertEquals(nodes.indexOf(nodes.get(n).head), cachedNodes.indexOf(cachedNodes.get(n).head));
+            assertEquals(nodes.indexOf(nodes.get(n).headConstituent), cachedNodes.indexOf(cachedNodes.get(n).headConstituent));
+        }
+        
+        // a cache without heads is rewritten
+        TBTree plainTree = TBUtil.readTBFile(dir.getPath(), "test.parse", null, cacheDir.getPath())[0];
+        assertNull(plainTree.getRootNode().head);
+        assertTrue(BinaryTBFileReader.isCurrent(cacheFile, new File(dir, "test.parse")));
+        
+        // as is one of another version
+        try (RandomAccessFile file = new RandomAccessFile(cacheFile, "rw")) {
+            file.seek(4);
+            file.writeInt(BinaryTBFileReader.VERSION-1);
+        }
+        assertFalse(BinaryTBFileReader.isCurrent(cacheFile, new File(dir, "test.parse")));
+    }
+    
     @Test
     public void testTree() {
         TBFileReader reader = new SerialTBFileReader(new StringReader(treeString));
@@ -91,6 +239,32 @@ public class TestTBReader {
     
     }
 
+    @Test
+    public void testConvertTree() throws ParseException {
+        Tree<String> parseTree = new Trees.PennTreeReader(new StringReader(treeString)).next();
+        TBTree tree = TBUtil.convertTree(parseTree, null, 0);
+
+        // the TOP label is dropped the same way as an unlabeled outer bracket
+        String parseString = "( "+treeString.substring("(TOP ".length(), treeString.length()-1)+" )";
+        TBTree refTree = new SerialTBFileReader(new StringReader(parseString)).nextTree();
+
+        assertEquals(refTree.toString(), tree.toString());
+        assertEquals(refTree.getTerminalCount(), tree.getTerminalCount());
+        assertEquals(refTree.getTokenCount(), tree.getTokenCount());
+
+        List<TBNode> nodes = new ArrayList<TBNode>();
+        List<TBNode> refNodes = new ArrayList<TBNode>();
+        getNodes(tree.rootNode, nodes);
+        getNodes(refTree.rootNode, refNodes);
+        assertEquals(refNodes.size(), nodes.size());
+        for (int i=0; i<nodes.size(); ++i) {
+            assertEquals(refNodes.get(i).terminalIndex, nodes.get(i).terminalIndex);
+            assertEquals(refNodes.get(i).tokenIndex, nodes.get(i).tokenIndex);
+            assertEquals(refNodes.get(i).childIndex, nodes.get(i).childIndex);
+            assertEquals(refNodes.get(i).indexingNode==null, nodes.get(i).indexingNode==null);
+        }
+    }
+
     void getNodes(TBNode node, List<TBNode> nodes)
     {
         nodes.add(node);
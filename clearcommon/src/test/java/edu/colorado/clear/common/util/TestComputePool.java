@@ -0,0 +1,108 @@
+package edu.colorado.clear.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestComputePool {
+
+    @Test
+    public void testNested() {
+        ComputePool.setParallelism(2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        List<Callable<Integer>> outer = new ArrayList<Callable<Integer>>();
+        for (int i=0; i<6; ++i) {
+            final int base = i*10;
+            outer.add(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    // nested regions run on the same two threads without deadlocking
+                    List<Callable<Integer>> inner = new ArrayList<Callable<Integer>>();
+                    for (int j=0; j<5; ++j) {
+                        final int value = base+j;
+                        inner.add(new Callable<Integer>() {
+                            @Override
+                            public Integer call() throws InterruptedException {
+                                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                                Thread.sleep(2);
+                                running.decrementAndGet();
+                                return value;
+                            }
+                        });
+                    }
+                    int sum = 0;
+                    for (int value:ComputePool.invokeAll(inner, 3))
+                        sum += value;
+                    return sum;
+                }
+            });
+        }
+
+        List<Integer> results = ComputePool.invokeAll(outer, 4);
+        assertEquals(6, results.size());
+        for (int i=0; i<6; ++i)
+            assertEquals(i*50+10, results.get(i).intValue());
+        assertTrue(maxRunning.get()<=2);
+        assertTrue(ComputePool.getStatistics().startsWith("compute pool: 2 threads"));
+    }
+
+    @Test
+    public void testFailedJob() {
+        ComputePool.setParallelism(2);
+        for (int lanes=1; lanes<=3; ++lanes) {
+            List<Callable<Integer>> jobs = new ArrayList<Callable<Integer>>();
+            for (int i=0; i<5; ++i) {
+                final int value = i;
+                jobs.add(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        if (value==2)
+                            throw new IllegalStateException("failed job");
+                        return value;
+                    }
+                });
+            }
+            try {
+                ComputePool.invokeAll(jobs, lanes);
+                fail("expected the job failure");
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+                assertEquals("failed job", e.getCause().getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testSubmitAfter() throws Exception {
+        ComputePool.setParallelism(2);
+        CompletableFuture<Integer> input = new CompletableFuture<Integer>();
+        CompletableFuture<String> output = ComputePool.submitAfter(input, value -> "value "+value);
+        assertFalse(output.isDone());
+        input.complete(3);
+        assertEquals("value 3", output.get());
+    }
+
+    @Test
+    public void testResizeWhileChained() throws Exception {
+        ComputePool.setParallelism(2);
+        CompletableFuture<Integer> input = new CompletableFuture<Integer>();
+        CompletableFuture<String> output = ComputePool.submitAfter(input, value -> "value "+value);
+        // the stage chained on the old pool still runs after a resize
+        ComputePool.setParallelism(3);
+        input.complete(4);
+        assertEquals("value 4", output.get());
+        assertTrue(ComputePool.getStatistics().startsWith("compute pool: 3 threads"));
+    }
+}
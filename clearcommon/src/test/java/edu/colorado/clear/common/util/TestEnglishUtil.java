@@ -1,9 +1,22 @@
 package edu.colorado.clear.common.util;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 
+import org.junit.Test;
+
 public class TestEnglishUtil {
 	public static void main(String[] args) throws Exception {   
 		String home = System.getenv("HOME");
@@ -22,4 +35,77 @@ public class TestEnglishUtil {
 		System.out.println(util.frameMap.size()+" "+frameIdSet.size());
 		
     }
+
+	static void writeFile(File dir, String name, String line) throws IOException {
+		File file = new File(dir, name);
+		file.deleteOnExit();
+		try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+			writer.print(line+"\n");
+		}
+	}
+
+	/**
+	 * writes a WordNet dictionary with one word per POS
+	 */
+	static File makeDictionary() throws IOException {
+		File dir = Files.createTempDirectory("dict").toFile();
+		dir.deleteOnExit();
+		String[][] entries = {{"noun", "n", "dog", "05", "noun.exc", "geese goose"},
+				{"verb", "v", "run", "29", "verb.exc", "ran run"},
+				{"adj", "a", "tall", "00", "adj.exc", "worse bad"},
+				{"adv", "r", "well", "02", "adv.exc", "better well"}};
+		for (String[] entry:entries) {
+			writeFile(dir, "index."+entry[0], entry[2]+" "+entry[1]+" 1 0 1 0 00000000  ");
+			writeFile(dir, "data."+entry[0], "00000000 "+entry[3]+" "+entry[1]+" 01 "+entry[2]+" 0 000 "+(entry[1].equals("v")?"00 ":"")+"| "+entry[2]+"  ");
+			writeFile(dir, entry[4], entry[5]);
+		}
+		return dir;
+	}
+
+	@Test
+	public void testFindStems() throws IOException {
+		EnglishUtil util = new EnglishUtil();
+		util.openDictionary(makeDictionary().getPath());
+		util.initStemCache(new Properties());
+
+		for (int r=0; r<2; ++r) {
+			assertEquals(Arrays.asList("dog"), util.findStems("dogs", LanguageUtil.POS.NOUN));
+			assertEquals(Arrays.asList("run"), util.findStems("ran", LanguageUtil.POS.VERB));
+			assertEquals(Arrays.asList("tall"), util.findStems("taller", LanguageUtil.POS.ADJECTIVE));
+			assertEquals(Arrays.asList("well"), util.findStems("better", LanguageUtil.POS.ADVERB));
+		}
+		assertEquals(Arrays.asList("run"), util.getCachedStems("ran", LanguageUtil.POS.VERB));
+		util.dict.close();
+	}
+
+	@Test
+	public void testStemCacheEviction() {
+		EnglishUtil util = new EnglishUtil();
+		Properties props = new Properties();
+		props.setProperty("stem_cache.size", "8");
+		util.initStemCache(props);
+
+		util.cacheStems("a", LanguageUtil.POS.NOUN, Arrays.asList("a"));
+		for (int i=0; i<8; ++i)
+			util.cacheStems("w"+i, LanguageUtil.POS.NOUN, Arrays.asList("w"+i));
+		// the first sweep only clears the flags of the new entries, then trims
+		assertEquals(7, util.stemCache.size());
+
+		util.cacheStems("b", LanguageUtil.POS.NOUN, Arrays.asList("b"));
+		List<String> c = util.cacheStems("c", LanguageUtil.POS.NOUN, Arrays.asList("c"));
+		assertSame(c, util.getCachedStems("c", LanguageUtil.POS.NOUN));
+		util.cacheStems("d", LanguageUtil.POS.NOUN, Arrays.asList("d"));
+
+		// the entries from before the last sweep that weren't looked up are evicted
+		assertEquals(3, util.stemCache.size());
+		assertEquals(Arrays.asList("b"), util.getCachedStems("b", LanguageUtil.POS.NOUN));
+		assertSame(c, util.getCachedStems("c", LanguageUtil.POS.NOUN));
+		assertEquals(Arrays.asList("d"), util.getCachedStems("d", LanguageUtil.POS.NOUN));
+		assertNull(util.getCachedStems("w0", LanguageUtil.POS.NOUN));
+
+		for (int i=0; i<20; ++i)
+			util.cacheStems("x"+i, LanguageUtil.POS.NOUN, Arrays.asList("x"+i));
+		assertTrue(util.stemCache.size()<=8);
+		assertNull(util.getCachedStems("b", LanguageUtil.POS.NOUN));
+	}
 }
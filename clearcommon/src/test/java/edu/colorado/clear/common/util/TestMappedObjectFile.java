@@ -0,0 +1,140 @@
+package edu.colorado.clear.common.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import edu.colorado.clear.common.alg.FrozenStringIntMap;
+import edu.colorado.clear.liblinearbinary.CompactModel;
+import edu.colorado.clear.liblinearbinary.Linear;
+import edu.colorado.clear.liblinearbinary.Model;
+import edu.colorado.clear.liblinearbinary.Parameter;
+import edu.colorado.clear.liblinearbinary.Problem;
+import edu.colorado.clear.liblinearbinary.SolverType;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+public class TestMappedObjectFile {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Random rand = new Random(0);
+        Problem prob = new Problem();
+        prob.l = 300;
+        prob.n = 30000;
+        prob.bias = -1;
+        prob.y = new int[prob.l];
+        prob.x = new int[prob.l][];
+        for (int i=0; i<prob.l; ++i) {
+            prob.y[i] = rand.nextInt(3)+1;
+            Set<Integer> features = new TreeSet<Integer>();
+            while (features.size()<200)
+                features.add(rand.nextInt(prob.n)+1);
+            prob.x[i] = new int[features.size()];
+            int j=0;
+            for (int f:features)
+                prob.x[i][j++] = f;
+        }
+        Linear.disableDebugOutput();
+        CompactModel model = CompactModel.build(Linear.train(prob, new Parameter(SolverType.L2R_LR, 1, 0.01)));
+
+        TObjectIntMap<String> map = new TObjectIntHashMap<String>();
+        map.put("NP", 1);
+        map.put("VP", 2);
+        map.put("中文", 3);
+        FrozenStringIntMap frozenMap = FrozenStringIntMap.build(map);
+        assertEquals(map, frozenMap);
+
+        File file = File.createTempFile("model", ".bin");
+        file.deleteOnExit();
+        MappedObjectFile.write(file, "header", model, frozenMap);
+        assertTrue(MappedObjectFile.isMappedObjectFile(file));
+
+        List<Object> objects = MappedObjectFile.read(file);
+        assertEquals("header", objects.get(0));
+        CompactModel readModel = (CompactModel)objects.get(1);
+        assertEquals(model.getWeights(), readModel.getWeights());
+        assertEquals(model.getRowIndex(), readModel.getRowIndex());
+        assertEquals(model.getFeatureMask(), readModel.getFeatureMask());
+
+        double[] values = new double[3];
+        double[] readValues = new double[3];
+        for (int[] x:prob.x) {
+            assertEquals(model.predictLabelValues(x, values), readModel.predictLabelValues(x, readValues));
+            assertArrayEquals(values, readValues, 0);
+        }
+
+        FrozenStringIntMap readMap = (FrozenStringIntMap)objects.get(2);
+        assertEquals(map, readMap);
+        assertEquals(3, readMap.get("中文"));
+        assertEquals(0, readMap.get("PP"));
+        file.delete();
+    }
+
+    @Test
+    public void testChunkedWeights() throws Exception {
+        Problem prob = new Problem();
+        prob.l = 2;
+        prob.n = 2;
+        prob.bias = -1;
+        prob.y = new int[]{1, 2};
+        prob.x = new int[][]{{1}, {2}};
+        Linear.disableDebugOutput();
+        CompactModel model = CompactModel.build(Linear.train(prob, new Parameter(SolverType.L2R_LR, 1, 0.01)));
+
+        // spans several write buffers, with a partial one at the end
+        float[] weights = new float[MappedObjectFile.CHUNK_SIZE/4*2+3];
+        for (int i=0; i<weights.length; ++i)
+            weights[i] = i;
+        model = model.withWeights(model.getRowIndex(), FloatBuffer.wrap(weights));
+
+        File file = File.createTempFile("model", ".bin");
+        file.deleteOnExit();
+        MappedObjectFile.write(file, model);
+        CompactModel readModel = (CompactModel)MappedObjectFile.read(file).get(0);
+        assertEquals(model.getWeights(), readModel.getWeights());
+        file.delete();
+    }
+
+    @Test
+    public void testSingleClass() {
+        Problem prob = new Problem();
+        prob.l = 20;
+        prob.n = 10;
+        prob.bias = -1;
+        prob.y = new int[prob.l];
+        prob.x = new int[prob.l][];
+        for (int i=0; i<prob.l; ++i) {
+            prob.y[i] = 2;
+            prob.x[i] = new int[]{i%prob.n+1};
+        }
+        Linear.disableDebugOutput();
+        for (SolverType solverType:new SolverType[]{SolverType.L2R_LR, SolverType.L2R_L2LOSS_SVC}) {
+            Model linearModel = Linear.train(prob, new Parameter(solverType, 1, 0.01));
+            CompactModel model = CompactModel.build(linearModel);
+            assertEquals(1, model.getNrClass());
+
+            double[] values = new double[2];
+            double[] linearValues = new double[2];
+            for (int[] x:new int[][]{prob.x[0], {}}) {
+                assertEquals(2, model.predict(x));
+                assertEquals(2, model.predictLabelValues(x, values));
+                assertEquals(Linear.predictLabelValues(linearModel, x, linearValues), model.predictLabelValues(x, values));
+                assertArrayEquals(linearValues, values, 1e-6);
+                if (solverType==SolverType.L2R_LR) {
+                    assertEquals(2, model.predictLabelProbability(x, values));
+                    assertEquals(1, values[1], 1e-9);
+                }
+            }
+        }
+    }
+}
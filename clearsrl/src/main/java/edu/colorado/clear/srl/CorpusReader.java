@@ -0,0 +1,498 @@
+package edu.colorado.clear.srl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import edu.colorado.clear.common.propbank.PBInstance;
+import edu.colorado.clear.common.propbank.PBTokenizer;
+import edu.colorado.clear.common.propbank.PBUtil;
+import edu.colorado.clear.common.treebank.TBReader;
+import edu.colorado.clear.common.treebank.TBTree;
+import edu.colorado.clear.common.treebank.TBUtil;
+import edu.colorado.clear.common.util.ComputePool;
+import edu.colorado.clear.common.util.LanguageUtil;
+import edu.colorado.clear.srl.Sentence.Source;
+import edu.colorado.clear.srl.ec.ECCommon;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Reads a corpus one document at a time. The trees and annotations of a
+ * document are read from each source when the document is reached, so only
+ * the sentences of the current document (and the trees of the documents read
+ * ahead) are held by the reader.
+ *
+ * Annotation files (PROPBANK, AUTOPROP, SRL) are indexed by document up front.
+ * For prop files that cover multiple documents the index keeps the byte
+ * ranges of each document's lines, which are read back when the document is
+ * reached. Multi-document SRL files are compressed object streams that can't
+ * be seeked, so the index keeps the positions of each document's instances
+ * and a stream per file is advanced to them (and reopened if a document comes
+ * before the stream position).
+ *
+ * The trees of the next few documents (the readahead property, the compute
+ * pool size by default) are read ahead on the {@link ComputePool}, so tree
+ * files are read in parallel with each other and with the consumer.
+ */
+final class CorpusReader implements Iterator<Map.Entry<String, Sentence[]>> {
+
+    static Logger logger = Logger.getLogger("clearsrl");
+
+    /**
+     * Locates the annotation of each document in a set of prop files
+     */
+    static final class PropIndex {
+        PBTokenizer                             tokenizer;
+        /** document -> files with annotation of the document */
+        Map<String, List<String>>               fileMap;
+        /** document -> file -> byte ranges ([start, end) pairs) of its lines, for files covering multiple documents */
+        Map<String, Map<String, TLongArrayList>> rangeMap;
+
+        PropIndex(List<String> files, PBTokenizer tokenizer) {
+            this.tokenizer = tokenizer;
+            fileMap = new HashMap<String, List<String>>();
+            rangeMap = new HashMap<String, Map<String, TLongArrayList>>();
+
+            for (String fName:files) {
+                Map<String, TLongArrayList> docRanges = new LinkedHashMap<String, TLongArrayList>();
+                try (InputStream in = new BufferedInputStream(new FileInputStream(fName))) {
+                    ByteArrayOutputStream line = new ByteArrayOutputStream();
+                    long start = 0;
+                    long position = 0;
+                    for (int b=in.read(); ; b=in.read()) {
+                        if (b>=0) ++position;
+                        if (b>=0 && b!='\n') {
+                            line.write(b);
+                            continue;
+                        }
+                        String key = line.size()==0?null:getTreeFile(new String(line.toByteArray(), StandardCharsets.UTF_8));
+                        if (key!=null) {
+                            TLongArrayList ranges = docRanges.get(key);
+                            if (ranges==null)
+                                docRanges.put(key, ranges=new TLongArrayList());
+                            // consecutive lines of a document make up a single range
+                            if (!ranges.isEmpty() && ranges.get(ranges.size()-1)==start)
+                                ranges.set(ranges.size()-1, position);
+                            else {
+                                ranges.add(start);
+                                ranges.add(position);
+                            }
+                        }
+                        if (b<0) break;
+                        line.reset();
+                        start = position;
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    continue;
+                }
+                for (Map.Entry<String, TLongArrayList> entry:docRanges.entrySet()) {
+                    List<String> docFiles = fileMap.get(entry.getKey());
+                    if (docFiles==null)
+                        fileMap.put(entry.getKey(), docFiles=new ArrayList<String>());
+                    docFiles.add(fName);
+                    if (docRanges.size()==1) continue;
+
+                    Map<String, TLongArrayList> fileRanges = rangeMap.get(entry.getKey());
+                    if (fileRanges==null)
+                        rangeMap.put(entry.getKey(), fileRanges=new HashMap<String, TLongArrayList>());
+                    fileRanges.put(fName, entry.getValue());
+                }
+            }
+        }
+
+        String getTreeFile(String line) {
+            try {
+                String[] tokens = tokenizer.tokenize(line.trim());
+                return tokens==null||tokens.length==0?null:tokens[0];
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        static List<String> readLines(String fName, TLongArrayList ranges) throws IOException {
+            List<String> lines = new ArrayList<String>();
+            try (RandomAccessFile file = new RandomAccessFile(fName, "r")) {
+                for (int i=0; i<ranges.size(); i+=2) {
+                    byte[] bytes = new byte[(int)(ranges.get(i+1)-ranges.get(i))];
+                    file.seek(ranges.get(i));
+                    file.readFully(bytes);
+                    for (String line:new String(bytes, StandardCharsets.UTF_8).split("\\r?\\n"))
+                        lines.add(line);
+                }
+            }
+            return lines;
+        }
+
+        /**
+         * Reads the annotation of a document, which is then dropped from the index
+         * @return the instances of the document by tree index, null if none
+         */
+        SortedMap<Integer, List<PBInstance>> read(String key, TBTree[] trees) {
+            List<String> files = fileMap.remove(key);
+            Map<String, TLongArrayList> ranges = rangeMap.remove(key);
+            if (files==null || trees==null) return null;
+
+            Map<String, List<String>> lines = null;
+            if (ranges!=null) {
+                lines = new HashMap<String, List<String>>();
+                for (Map.Entry<String, TLongArrayList> entry:ranges.entrySet())
+                    try {
+                        lines.put(entry.getKey(), readLines(entry.getKey(), entry.getValue()));
+                    } catch (IOException e) {
+                        // the whole file is read instead
+                        e.printStackTrace();
+                    }
+            }
+            return PBUtil.readPBDir(files, lines, new TBReader(Collections.singletonMap(key, trees)), tokenizer).get(key);
+        }
+    }
+
+    /**
+     * Locates the instances of each document in a set of SRL files
+     */
+    static final class SRLIndex {
+        /** document -> files with SRL instances of the document */
+        Map<String, List<String>>               fileMap;
+        /** document -> file -> [first, end) positions of its instances, for files covering multiple documents */
+        Map<String, Map<String, int[]>>         rangeMap;
+        /** file -> documents not yet read, for files covering multiple documents */
+        TObjectIntMap<String>                   docCounts;
+        /** file -> open stream */
+        Map<String, ObjectInputStream>          streams;
+        /** file -> position of the next instance in its stream */
+        TObjectIntMap<String>                   positions;
+
+        SRLIndex(List<String> files) {
+            fileMap = new HashMap<String, List<String>>();
+            rangeMap = new HashMap<String, Map<String, int[]>>();
+            docCounts = new TObjectIntHashMap<String>();
+            streams = new HashMap<String, ObjectInputStream>();
+            positions = new TObjectIntHashMap<String>();
+
+            for (String fName:files) {
+                // only the tree file of each instance is kept
+                Map<String, int[]> docRanges = new LinkedHashMap<String, int[]>();
+                try (ObjectInputStream in = open(fName)) {
+                    for (int position=0; ; ++position) {
+                        String key = ((SRInstance)in.readObject()).tree.getFilename();
+                        int[] range = docRanges.get(key);
+                        if (range==null)
+                            docRanges.put(key, range=new int[]{position, position});
+                        range[1] = position+1;
+                    }
+                } catch (EOFException e) {
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                for (Map.Entry<String, int[]> entry:docRanges.entrySet()) {
+                    List<String> docFiles = fileMap.get(entry.getKey());
+                    if (docFiles==null)
+                        fileMap.put(entry.getKey(), docFiles=new ArrayList<String>());
+                    docFiles.add(fName);
+                    if (docRanges.size()==1) continue;
+
+                    Map<String, int[]> fileRanges = rangeMap.get(entry.getKey());
+                    if (fileRanges==null)
+                        rangeMap.put(entry.getKey(), fileRanges=new HashMap<String, int[]>());
+                    fileRanges.put(fName, entry.getValue());
+                }
+                if (docRanges.size()>1)
+                    docCounts.put(fName, docRanges.size());
+            }
+        }
+
+        static ObjectInputStream open(String fName) throws IOException {
+            return new ObjectInputStream(new GZIPInputStream(new FileInputStream(fName)));
+        }
+
+        /**
+         * Reads the instances of document key in the [range[0], range[1])
+         * positions of fName
+         */
+        SortedMap<Integer, List<SRInstance>> read(String fName, String key, int[] range) throws IOException, ClassNotFoundException {
+            ObjectInputStream in = streams.get(fName);
+            // instances refer back to earlier objects, so the stream can only be read from the start
+            if (in!=null && positions.get(fName)>range[0]) {
+                in.close();
+                in = null;
+            }
+            if (in==null) {
+                streams.put(fName, in=open(fName));
+                positions.put(fName, 0);
+            }
+
+            SortedMap<Integer, List<SRInstance>> instances = new TreeMap<Integer, List<SRInstance>>();
+            for (int position=positions.get(fName); position<range[1]; ++position) {
+                SRInstance instance = (SRInstance)in.readObject();
+                positions.put(fName, position+1);
+                if (position<range[0] || !instance.tree.getFilename().equals(key))
+                    continue;
+                List<SRInstance> instanceList = instances.get(instance.tree.getIndex());
+                if (instanceList==null)
+                    instances.put(instance.tree.getIndex(), instanceList=new ArrayList<SRInstance>());
+                instanceList.add(instance);
+            }
+            return instances;
+        }
+
+        /**
+         * Reads the instances of a document, which is then dropped from the index
+         * @return file -> instances of the document by tree index, null if none
+         */
+        Map<String, SortedMap<Integer, List<SRInstance>>> read(String key) {
+            List<String> files = fileMap.remove(key);
+            Map<String, int[]> ranges = rangeMap.remove(key);
+            if (files==null) return null;
+
+            Map<String, SortedMap<Integer, List<SRInstance>>> fileInstances = new LinkedHashMap<String, SortedMap<Integer, List<SRInstance>>>();
+            for (String fName:files) {
+                int[] range = ranges==null?null:ranges.get(fName);
+                if (range==null) {
+                    SortedMap<Integer, List<SRInstance>> instances = Sentence.readSRLFile(fName).get(key);
+                    if (instances!=null)
+                        fileInstances.put(fName, instances);
+                    continue;
+                }
+                try {
+                    fileInstances.put(fName, read(fName, key, range));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    close(fName);
+                }
+                if (docCounts.adjustOrPutValue(fName, -1, 0)<=0)
+                    close(fName);
+            }
+            return fileInstances;
+        }
+
+        void close(String fName) {
+            ObjectInputStream in = streams.remove(fName);
+            positions.remove(fName);
+            if (in!=null)
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+        }
+
+        void close() {
+            for (String fName:new ArrayList<String>(streams.keySet()))
+                close(fName);
+        }
+    }
+
+    Properties              props;
+    Source                  headSource;
+    EnumSet<Source>         sources;
+    LanguageUtil            langUtil;
+
+    Iterator<String>        fileIter;
+    Map.Entry<String, Sentence[]> nextEntry;
+    /** documents being read ahead, in order */
+    Deque<Map.Entry<String, ForkJoinTask<Map<Source, TBTree[]>>>> pending;
+    int                     readAhead;
+
+    PropIndex               pbIndex;
+    PropIndex               propIndex;
+    SRLIndex                srlIndex;
+    /** document -> named entity file */
+    Map<String, String>     neFileMap;
+    /** document -> predicate file */
+    Map<String, String>     predFileMap;
+
+    CorpusReader(Properties props, Source headSource, EnumSet<Source> sources, LanguageUtil langUtil) {
+        this.props = props;
+        this.headSource = headSource;
+        this.sources = sources;
+        this.langUtil = langUtil;
+
+        fileIter = new TreeSet<String>(Sentence.getFileList(props, headSource.prefix, false)).iterator();
+        pending = new ArrayDeque<Map.Entry<String, ForkJoinTask<Map<Source, TBTree[]>>>>();
+        readAhead = Math.max(1, Integer.parseInt(props.getProperty("readahead", Integer.toString(ComputePool.getParallelism()))));
+
+        boolean hasTree = sources.contains(Source.TREEBANK) || sources.contains(Source.TB_HEAD);
+        boolean hasParse = sources.contains(Source.PARSE) || sources.contains(Source.PARSE_HEAD);
+
+        if (sources.contains(Source.PROPBANK) && hasTree)
+            pbIndex = makePropIndex(Source.PROPBANK.prefix);
+        if (sources.contains(Source.AUTOPROP) && hasParse)
+            propIndex = makePropIndex(Source.AUTOPROP.prefix);
+
+        if (sources.contains(Source.SRL) && hasParse)
+            srlIndex = new SRLIndex(Sentence.getFileList(props, Source.SRL.prefix, true));
+
+        if (sources.contains(Source.NAMED_ENTITY))
+            neFileMap = makeFileMap(Source.NAMED_ENTITY.prefix, ".ner");
+        if (sources.contains(Source.PREDICATE_LIST))
+            predFileMap = makeFileMap(Source.PREDICATE_LIST.prefix, ".pred");
+    }
+
+    PropIndex makePropIndex(String prefix) {
+        PBTokenizer tokenizer = Sentence.getTokenizer(props, prefix);
+        return tokenizer==null?null:new PropIndex(Sentence.getFileList(props, prefix, true), tokenizer);
+    }
+
+    Map<String, String> makeFileMap(String prefix, String suffix) {
+        Map<String, String> fileMap = new HashMap<String, String>();
+        for (String fName:Sentence.getFileList(props, prefix, false))
+            fileMap.put(fName.endsWith(suffix)?fName.substring(0,fName.length()-suffix.length())+".parse":fName, fName);
+        return fileMap;
+    }
+
+    TBTree[] readTrees(Source source, String key) {
+        return TBUtil.readTBDir(props.getProperty(source.prefix+".dir"), Collections.singletonList(key),
+                source.equals(Source.PARSE)||source.equals(Source.TREEBANK)?langUtil.getHeadRules():null,
+                props.getProperty(source.prefix+".cachedir")).get(key);
+    }
+
+    /**
+     * Reads the trees of every tree source of a document
+     * @return trees by source, without the other sources if the head source
+     * has no trees
+     */
+    Map<Source, TBTree[]> readTrees(String key) {
+        Map<Source, TBTree[]> docTrees = new EnumMap<Source, TBTree[]>(Source.class);
+        TBTree[] sourceTrees = readTrees(headSource, key);
+        if (sourceTrees==null)
+            return docTrees;
+        docTrees.put(headSource, sourceTrees);
+
+        Source[] treeSources = {sources.contains(Source.TREEBANK)?Source.TREEBANK:Source.TB_HEAD,
+                sources.contains(Source.PARSE)?Source.PARSE:Source.PARSE_HEAD};
+        for (Source source:treeSources)
+            if (sources.contains(source) && !docTrees.containsKey(source))
+                docTrees.put(source, readTrees(source, key));
+        return docTrees;
+    }
+
+    void readAhead() {
+        while (pending.size()<readAhead && fileIter.hasNext()) {
+            final String key = fileIter.next();
+            pending.add(new AbstractMap.SimpleImmutableEntry<String, ForkJoinTask<Map<Source, TBTree[]>>>(key,
+                    ComputePool.submit(new Callable<Map<Source, TBTree[]>>() {
+                        @Override
+                        public Map<Source, TBTree[]> call() {
+                            return readTrees(key);
+                        }
+                    })));
+        }
+    }
+
+    Sentence[] readDocument(String key, Map<Source, TBTree[]> docTrees) {
+        TBTree[] sourceTrees = docTrees.get(headSource);
+        TBTree[] trees = null;
+        if (sources.contains(Source.TREEBANK))
+            trees = docTrees.get(Source.TREEBANK);
+        else if (sources.contains(Source.TB_HEAD))
+            trees = docTrees.get(Source.TB_HEAD);
+
+        Map<Integer, List<PBInstance>> propPBs = pbIndex==null?null:pbIndex.read(key, trees);
+
+        TBTree[] parses = null;
+        if (sources.contains(Source.PARSE))
+            parses = docTrees.get(Source.PARSE);
+        else if (sources.contains(Source.PARSE_HEAD))
+            parses = docTrees.get(Source.PARSE_HEAD);
+
+        if (sources.contains(Source.PARSE_DEP) && parses!=null)
+            TBUtil.addDependency(Collections.singletonMap(key, parses), new File(props.getProperty(Source.PARSE_DEP.prefix+".dir")),
+                    Integer.parseInt(props.getProperty(Source.PARSE_DEP.prefix+".idxcol", "6")),
+                    Integer.parseInt(props.getProperty(Source.PARSE_DEP.prefix+".labelcol", "7")));
+
+        Map<String, SortedMap<Integer, List<SRInstance>>> srlInstances = srlIndex==null||parses==null?null:srlIndex.read(key);
+        if (srlInstances!=null)
+            for (SortedMap<Integer, List<SRInstance>> instances:srlInstances.values())
+                for (Map.Entry<Integer, List<SRInstance>> entry:instances.entrySet())
+                    parses[entry.getKey()].setRootNode(entry.getValue().get(0).getTree().getRootNode());
+
+        Map<Integer, List<PBInstance>> autoProps = propIndex==null?null:propIndex.read(key, parses);
+
+        Map<Integer, String[][]> ecDeps = null;
+        if (sources.contains(Source.EC_DEP) && parses!=null)
+            ecDeps = ECCommon.readDepEC(new File(props.getProperty(Source.EC_DEP.prefix+".dir")), Collections.singletonMap(key, parses)).get(key);
+
+        // without a parse source, named entities and predicates are read regardless of the trees
+        boolean hasParse = sources.contains(Source.PARSE) || sources.contains(Source.PARSE_HEAD);
+
+        String[][] namedEntities = null;
+        String neFile = neFileMap==null?null:neFileMap.get(key);
+        if (neFile!=null && (parses!=null || !hasParse))
+            namedEntities = Sentence.readNE(new File(props.getProperty(Source.NAMED_ENTITY.prefix+".dir"), neFile), parses);
+
+        List<BitSet> predList = null;
+        String predFile = predFileMap==null?null:predFileMap.get(key);
+        if (predFile!=null && (parses!=null || !hasParse))
+            predList = Sentence.readPredicates(new File(props.getProperty(Source.PREDICATE_LIST.prefix+".dir"), predFile));
+
+        Sentence[] sentences = new Sentence[sourceTrees.length];
+        for (int i=0; i<sentences.length; ++i)
+            sentences[i] = new Sentence(null,
+                    trees==null?null:trees[i],
+                    !sources.contains(Source.PROPBANK)?null:(propPBs==null?new ArrayList<PBInstance>():(propPBs.get(i)==null?new ArrayList<PBInstance>():propPBs.get(i))),
+                    parses==null?null:parses[i],
+                    null,
+                    autoProps==null?null:autoProps.get(i),
+                    predList==null?null:i<predList.size()?predList.get(i):new BitSet(),
+                    ecDeps==null?null:ecDeps.get(i),
+                    namedEntities==null?null:namedEntities[i]);
+        return sentences;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (nextEntry==null) {
+            readAhead();
+            Map.Entry<String, ForkJoinTask<Map<Source, TBTree[]>>> entry = pending.poll();
+            if (entry==null)
+                break;
+            Map<Source, TBTree[]> docTrees = entry.getValue().join();
+            if (docTrees.containsKey(headSource))
+                nextEntry = new AbstractMap.SimpleImmutableEntry<String, Sentence[]>(entry.getKey(), readDocument(entry.getKey(), docTrees));
+        }
+        if (nextEntry==null && srlIndex!=null)
+            srlIndex.close();
+        return nextEntry!=null;
+    }
+
+    @Override
+    public Map.Entry<String, Sentence[]> next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Map.Entry<String, Sentence[]> entry = nextEntry;
+        nextEntry = null;
+        return entry;
+    }
+}
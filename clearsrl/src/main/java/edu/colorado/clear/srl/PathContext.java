@@ -0,0 +1,155 @@
+package edu.colorado.clear.srl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.colorado.clear.common.treebank.TBNode;
+
+/**
+ * Per tree cache of the tree path computations used in feature extraction.
+ * The argument candidates of a predicate all share the predicate's path to
+ * root, the candidates themselves are shared by many predicates, and the
+ * same support predicate path is needed for every candidate, so root paths,
+ * node pair paths (with their lowest common ancestor), argument heads and
+ * generalized paths are computed once per tree.
+ *
+ * Not thread safe, a context is only used by the thread processing the tree.
+ * The tree must not be modified while its context is in use.
+ */
+final class PathContext {
+
+    /**
+     * Path between an argument node and a predicate node, trimmed at their
+     * lowest common ancestor (joinNode)
+     */
+    static final class NodePath {
+        /** argument to (excluding) joinNode */
+        final List<TBNode> argNodes;
+        /** predicate to (excluding) joinNode */
+        final List<TBNode> predNodes;
+        final TBNode       joinNode;
+        final List<String> path;
+        final String       pathStr;
+
+        String             depPathStr;
+
+        NodePath(List<TBNode> argPath, List<TBNode> predPath) {
+            int a = argPath.size();
+            int p = predPath.size();
+            TBNode join;
+            // same as SRLModel.trimPathNodes
+            do {
+                join = argPath.get(--a);
+                --p;
+            } while (a>0 && p>0 && argPath.get(a-1).getChildIndex()==predPath.get(p-1).getChildIndex());
+
+            joinNode = join;
+            argNodes = argPath.subList(0, a);
+            predNodes = predPath.subList(0, p);
+            path = SRLModel.getPath(argNodes, predNodes, joinNode);
+            pathStr = concat(path);
+        }
+
+        /**
+         * @return the path through the nodes that start a new head
+         */
+        String getDepPathStr() {
+            if (depPathStr==null)
+                depPathStr = concat(SRLModel.getPath(getDepNodes(argNodes, joinNode), getDepNodes(predNodes, joinNode), joinNode));
+            return depPathStr;
+        }
+
+        static List<TBNode> getDepNodes(List<TBNode> toTopNodes, TBNode joinNode) {
+            List<TBNode> depToTopNodes = new ArrayList<TBNode>();
+
+            if (!toTopNodes.isEmpty())
+                depToTopNodes.add(toTopNodes.get(0));
+
+            for (int i=1; i<toTopNodes.size()-1; ++i)
+                if (toTopNodes.get(i).getHead()!=toTopNodes.get(i+1).getHead())
+                    depToTopNodes.add(toTopNodes.get(i));
+
+            if (depToTopNodes.size()>1 && depToTopNodes.get(depToTopNodes.size()-1).getHead() == joinNode.getHead())
+                depToTopNodes.remove(depToTopNodes.size()-1);
+            return depToTopNodes;
+        }
+
+        static String concat(List<String> path) {
+            StringBuilder buffer = new StringBuilder();
+            for (String node:path) buffer.append(node);
+            return buffer.toString();
+        }
+    }
+
+    /** root of the tree */
+    final TBNode                              root;
+    final Map<TBNode, List<TBNode>>           rootPaths;
+    final Map<TBNode, Map<TBNode, NodePath>>  nodePaths;
+    final Map<TBNode, TBNode>                 argHeads;
+    final Map<TBNode, List<TBNode>>           tokenNodes;
+    final Map<String, SRLModel.GeneralizedPath> generalizedPaths;
+
+    PathContext(TBNode root) {
+        this.root = root;
+        rootPaths = new IdentityHashMap<TBNode, List<TBNode>>();
+        nodePaths = new IdentityHashMap<TBNode, Map<TBNode, NodePath>>();
+        argHeads = new IdentityHashMap<TBNode, TBNode>();
+        tokenNodes = new IdentityHashMap<TBNode, List<TBNode>>();
+        generalizedPaths = new HashMap<String, SRLModel.GeneralizedPath>();
+    }
+
+    /**
+     * @return the (read only) path from node to the root, inclusive
+     */
+    List<TBNode> getPathToRoot(TBNode node) {
+        List<TBNode> path = rootPaths.get(node);
+        if (path==null)
+            rootPaths.put(node, path=node.getPathToRoot());
+        return path;
+    }
+
+    NodePath getPath(TBNode argNode, TBNode predNode) {
+        Map<TBNode, NodePath> predPaths = nodePaths.get(predNode);
+        if (predPaths==null)
+            nodePaths.put(predNode, predPaths=new IdentityHashMap<TBNode, NodePath>());
+        NodePath path = predPaths.get(argNode);
+        if (path==null)
+            predPaths.put(argNode, path=new NodePath(getPathToRoot(argNode), getPathToRoot(predNode)));
+        return path;
+    }
+
+    /**
+     * @return the head used for argument features, the head of the object for PPs
+     */
+    TBNode getArgHead(TBNode argNode) {
+        TBNode head = argHeads.get(argNode);
+        if (head==null) {
+            head = argNode.getHead();
+            if (argNode.getPOS().startsWith("PP"))
+                for (TBNode child:argNode.getChildren())
+                    if (child.getHead()!=head) {
+                        head = child.getHead();
+                        break;
+                    }
+            argHeads.put(argNode, head);
+        }
+        return head;
+    }
+
+    List<TBNode> getTokenNodes(TBNode node) {
+        List<TBNode> nodes = tokenNodes.get(node);
+        if (nodes==null)
+            tokenNodes.put(node, nodes=node.getTokenNodes());
+        return nodes;
+    }
+
+    SRLModel.GeneralizedPath getGeneralizedPath(NodePath path) {
+        SRLModel.GeneralizedPath generalized = generalizedPaths.get(path.pathStr);
+        if (generalized==null)
+            generalizedPaths.put(path.pathStr, generalized=SRLModel.generalizePath(path.path));
+        return generalized;
+    }
+}
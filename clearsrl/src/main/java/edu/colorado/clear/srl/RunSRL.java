@@ -5,8 +5,10 @@ import edu.colorado.clear.common.treebank.SerialTBFileReader;
 import edu.colorado.clear.common.treebank.TBFileReader;
 import edu.colorado.clear.common.treebank.TBTree;
 import edu.colorado.clear.common.treebank.TBUtil;
+import edu.colorado.clear.common.util.ComputePool;
 import edu.colorado.clear.common.util.FileUtil;
 import edu.colorado.clear.common.util.LanguageUtil;
+import edu.colorado.clear.common.util.MappedObjectFile;
 import edu.colorado.clear.common.util.PBFrame;
 import edu.colorado.clear.common.util.ParseCorpus;
 import edu.colorado.clear.common.util.PropertyUtil;
@@ -25,8 +27,6 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.PipedReader;
-import java.io.PipedWriter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.Reader;
@@ -37,17 +37,18 @@ import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -105,7 +106,6 @@ public class RunSRL {
     
     static final float THRESHOLD=0.8f;
 
-    ExecutorService executor;
     class Output {
     	TBTree tree;
     	List<SRInstance> srls;
@@ -133,13 +133,38 @@ public class RunSRL {
 		}
     }
     
+    /**
+     * Sentence parsed by the phrase parser, heads/dependencies are added 
+     * once parsing completes
+     */
+    class ParsedSentence implements Function<TBTree, Output>  {
+    	TBUtil.Dependency[] deps;
+    	LanguageUtil langUtil;
+    	
+    	public ParsedSentence(TBUtil.Dependency[] deps, LanguageUtil langUtil) {
+    		this.deps = deps;
+    		this.langUtil = langUtil;
+    	}
+    	
+		@Override
+        public Output apply(TBTree tree) {
+			if (deps==null)
+        		TBUtil.linkHeads(tree, langUtil.getHeadRules());
+        	else
+        		TBUtil.addDependency(tree, deps);
+			return new RunnableSentence(new Sentence(null, tree, null, null, null, null, null, null, null)).call();
+		}
+    }
+    
     class SRLWriter extends Thread {
     	ObjectOutputStream objOut;
     	GZIPOutputStream gzipOut;
     	PrintWriter writer;
+    	PrintWriter parseOut;
     	int objCount=0;
     	
-        public SRLWriter(OutputStream out) {
+        public SRLWriter(OutputStream out, PrintWriter parseOut) {
+        	this.parseOut = parseOut;
         	if (outputFormat==SRInstance.OutputFormat.BINARY) {
         		try {
         			gzipOut = new GZIPOutputStream(out);
@@ -176,6 +201,9 @@ public class RunSRL {
 
             	if (output==null) break;
             	
+            	if (parseOut!=null)
+            		parseOut.println(output.tree.toString());
+            	
             	if (writer!=null) {
 	            	if (outputFormat.equals(OutputFormat.CONLL))
 	                    writer.println(CoNLLSentence.toString(output.tree, output.srls.toArray(new SRInstance[output.srls.size()])));
@@ -207,6 +235,8 @@ public class RunSRL {
             }
             if (writer!=null)
             	writer.flush();
+            if (parseOut!=null)
+            	parseOut.flush();
             if (objOut!=null)
 				try {
 					objOut.flush();
@@ -229,79 +259,96 @@ public class RunSRL {
     {
         logger.info("Processing "+(inName==null?"stdin":inName)+", outputing to "+(outName==null?"stdout":outName));
         
-        Thread writerThread = new SRLWriter(out);
-        writerThread.start();
-        
-        Reader parseIn = null;
         PrintWriter parseOut = null;
-        PipedWriter pipedWriter = null;
+        
+        if (sentences==null && !parsed && outputParse) {
+            if (outName==null)
+                inName = "stdout.parse";
+            else
+                inName = (outName.endsWith(".prop") ? outName.substring(0, outName.length()-5) : outName) + ".parse";
+            parseOut = new PrintWriter(new OutputStreamWriter(new FileOutputStream(inName), StandardCharsets.UTF_8));
+        }
+        
+        Thread writerThread = new SRLWriter(out, parseOut);
+        writerThread.start();
 
         if (sentences==null) {
-	        if (parsed)
-	        		parseIn = reader;
-	        else {
-	            pipedWriter = new PipedWriter();
-	            parseIn = new PipedReader(pipedWriter);
-	            
-	            parser.parse(reader, pipedWriter, true);
-	            
-	            if (outputParse)
-	            {
-	                if (outName==null)
-	                    inName = "stdout.parse";
-	                else
-	                    inName = (outName.endsWith(".prop") ? outName.substring(0, outName.length()-5) : outName) + ".parse";
-	                parseOut = new PrintWriter(new OutputStreamWriter(new FileOutputStream(inName), StandardCharsets.UTF_8));
-	            }
+	        if (parsed) {
+		        TBFileReader treeReader = new SerialTBFileReader(reader, inName);
+		        
+		        TBTree tree;
+		        while ((tree=treeReader.nextTree())!=null){
+		        	
+		        	if (depReader==null)
+		        		TBUtil.linkHeads(tree, langUtil.getHeadRules());
+		        	else
+		        		TBUtil.addDependency(tree, TBUtil.readCoNLLTree(depReader, 6, 7));
+		        	
+		        	queueSRL(ComputePool.submit(new RunnableSentence(new Sentence(null, tree, null, null, null, null, null, null, null))));
+		        }
+		        treeReader.close();
+	        } else {
+	        	// trees are handed over from the parser directly, no text round trip,
+	        	// and decoded in the pool once parsed
+	        	parser.parse(reader, inName, new Consumer<CompletableFuture<TBTree>>() {
+	        		@Override
+	        		public void accept(CompletableFuture<TBTree> parseFuture) {
+	        			TBUtil.Dependency[] deps = null;
+	        			if (depReader!=null)
+	        				try {
+	        					deps = TBUtil.readCoNLLTree(depReader, 6, 7);
+	        				} catch (IOException e) {
+	        					logger.severe(e.getMessage());
+	        				}
+	        			queueSRL(ComputePool.submitAfter(parseFuture, new ParsedSentence(deps, langUtil)));
+	        		}
+	        	});
 	        }
-	        
-	        TBFileReader treeReader = new SerialTBFileReader(parseIn, inName);
-	        
-	        TBTree tree;
-	        while ((tree=treeReader.nextTree())!=null){
-	        	
-	        	if (depReader==null)
-	        		TBUtil.linkHeads(tree, langUtil.getHeadRules());
-	        	else
-	        		TBUtil.addDependency(tree, TBUtil.readCoNLLTree(depReader, 6, 7));
-	        	
-	        	Future<Output> future = executor.submit(new RunnableSentence(new Sentence(null, tree, null, null, null, null, null, null, null)));
-	            while(true)
-	    	        try {
-	    	        	srlQueue.put(future);
-	    	        	break;
-	    	        } catch (InterruptedException e) {
-	    	        }  
-	            if (parseOut!=null)
-	                parseOut.println(tree.toString());
-	        }
-	        treeReader.close();
         } else {
-    		for (Sentence sentence:sentences) {
-    			Future<Output> future = executor.submit(new RunnableSentence(sentence));
-	            while(true)
-	    	        try {
-	    	        	srlQueue.put(future);
-	    	        	break;
-	    	        } catch (InterruptedException e) {
-	    	        }  
-    		}
+    		for (Sentence sentence:sentences)
+    			queueSRL(ComputePool.submit(new RunnableSentence(sentence)));
         }
         
-        if (parseIn!=null) parseIn.close();
-        if (parseOut!=null) parseOut.close();
-        if (pipedWriter!=null) pipedWriter.close();
         if (reader!=null) reader.close();
 
-        Future<Output> future = executor.submit(new RunnableSentence(null));
+        queueSRL(ComputePool.submit(new RunnableSentence(null)));
+
+        writerThread.join();
+        
+        if (parseOut!=null) parseOut.close();
+    }
+    
+    void queueSRL(Future<Output> future) {
         while (true)
 		    try {
 		        srlQueue.put(future);
 		        break;
 	        } catch (InterruptedException e) {
 	        }
-
-        writerThread.join();
+    }
+    
+    /**
+     * Reads the objects of a model file written by {@link TrainSRL}, either
+     * the memory mapped binary format ({@link MappedObjectFile}) or a gzipped
+     * object stream
+     * @param file
+     * @return language utility class name, optional frame map and the model
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static List<Object> readModelFile(File file) throws IOException, ClassNotFoundException {
+    	if (MappedObjectFile.isMappedObjectFile(file))
+    		return MappedObjectFile.read(file);
+    	
+    	List<Object> objects = new ArrayList<Object>();
+    	try (ObjectInputStream mIn = new ObjectInputStream(new GZIPInputStream(new FileInputStream(file)))) {
+    		Object obj;
+    		do {
+    			obj = mIn.readObject();
+    			objects.add(obj);
+    		} while (!(obj instanceof SRLModel));
+    	}
+    	return objects;
     }
     
 	@SuppressWarnings("unchecked")
@@ -355,19 +402,18 @@ public class RunSRL {
         
         logger.info("Loading model "+runSRLProps.getProperty("model_file"));
         
-        ObjectInputStream mIn = new ObjectInputStream(new GZIPInputStream(new FileInputStream(runSRLProps.getProperty("model_file"))));
+        Iterator<Object> mIter = readModelFile(new File(runSRLProps.getProperty("model_file"))).iterator();
         
-        Object obj = mIn.readObject();
+        Object obj = mIter.next();
         if (obj instanceof String) {
         	langUtilClassName = (String) obj;
-        	obj = mIn.readObject();
+        	obj = mIter.next();
         }
         if (obj instanceof Map) {
         	frameMap = (Map<String, PBFrame>)obj;
-        	obj = mIn.readObject();
+        	obj = mIter.next();
         }
         options.model = (SRLModel)obj;
-        mIn.close();
         
         logger.info("model loaded");
         
@@ -395,6 +441,11 @@ public class RunSRL {
         }
 
         
+        if (!runSRLProps.getProperty("compactModel", "false").equals("false")) {
+        	options.model.compact();
+        	logger.info("model compacted");
+        }
+        
         BitSet mask1 = options.model.argLabelClassifier.getFeatureMask();
         BitSet mask2 = options.model.argLabelStage2Classifier==null?new BitSet():(options.model.argLabelStage2Classifier.getFeatureMask());
         
@@ -435,7 +486,7 @@ public class RunSRL {
         if (threads>40) threads=40;
         logger.info(String.format("Using %d threads\n",threads));
         
-        options.executor = Executors.newFixedThreadPool(threads);
+        ComputePool.setParallelism(threads);
         options.srlQueue = new ArrayBlockingQueue<Future<Output>>(threads*20);
         
         String dataFormat = runSRLProps.getProperty("data.format", "default");
@@ -485,9 +536,8 @@ public class RunSRL {
             Source srcTreeType = srcSet.contains(Source.PARSE)?Source.PARSE:Source.TREEBANK;
             srcTreeType = Source.valueOf(props.getProperty("corpus.tree", srcTreeType.toString()));
             
-        	Map<String, Sentence[]>  sentenceMap = Sentence.readCorpus(srcProps, srcTreeType, srcSet, options.langUtil);
-        	
-        	for (Map.Entry<String, Sentence[]> entry: sentenceMap.entrySet()) {
+        	for (Iterator<Map.Entry<String, Sentence[]>> corpusIter = Sentence.streamCorpus(srcProps, srcTreeType, srcSet, options.langUtil); corpusIter.hasNext();) {
+        		Map.Entry<String, Sentence[]> entry = corpusIter.next();
         		String foutName = entry.getKey().replaceAll("\\.\\w+\\z", ".prop");
         		File outFile = new File(options.outFile, foutName);
                 if (outFile.getParentFile()!=null)
@@ -712,16 +762,6 @@ public class RunSRL {
         
         //System.out.println(SRLUtil.getFMeasure(model.labelStringMap, testProb.y, y));
         
-        if (options.executor!=null) {
-	        options.executor.shutdown();
-	        
-	        while (true) {
-	            try {
-	                if (options.executor.awaitTermination(1, TimeUnit.MINUTES)) break;
-	            } catch (InterruptedException e) {
-	                logger.severe(e.getMessage());
-	            }
-	        }
-        }
+        logger.info(ComputePool.getStatistics());
     }
 }
@@ -8,6 +8,7 @@ import edu.colorado.clear.common.alg.SimpleModel;
 import edu.colorado.clear.common.propbank.PBInstance;
 import edu.colorado.clear.common.treebank.TBNode;
 import edu.colorado.clear.common.treebank.TBTree;
+import edu.colorado.clear.common.util.ComputePool;
 import edu.colorado.clear.common.util.EnglishUtil;
 import edu.colorado.clear.common.util.LanguageUtil;
 import edu.colorado.clear.common.util.PBFrame;
@@ -36,6 +37,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
@@ -51,12 +53,21 @@ import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -77,6 +88,8 @@ public class SRLModel implements Serializable {
     
     private static final int GZIP_BUFFER = 0x40000;
     
+    static final EnumSet<Feature> DYNAMIC_FEATURES = Feature.getDynamicFeatures();
+    
     public enum Feature {
         // Constituent independent features
         PREDICATE,
@@ -176,6 +189,18 @@ public class SRLModel implements Serializable {
                     return true;
             return false;
         } 
+        
+        /**
+         * @return the sequence and stage 2 features, which depend on the 
+         * labels predicted for the other arguments
+         */
+        static EnumSet<Feature> getDynamicFeatures() {
+            EnumSet<Feature> features = EnumSet.noneOf(Feature.class);
+            for (Feature feature:values())
+                if (feature.isSequence() || feature.isStage2())
+                    features.add(feature);
+            return features;
+        }
     };
     
     class SRLSample implements Serializable{
@@ -348,11 +373,20 @@ public class SRLModel implements Serializable {
     
     transient File                          trainingSampleFile;
     transient File                          extractedSampleFile;
+    transient SampleStore                   extractedSamples;
+    // feature vectors of the templates without dynamic features, by argument of extractedSamples
+    transient int[]                         staticFeatureOffsets;
+    transient int[]                         staticFeatures;
+    // fold classifiers of the last iteration to warm start the next one from
+    transient Map<Classifier, Classifier[]> previousFolds;
     
     transient ObjectOutputStream            trainingSampleOutStream;
     
     transient int                           trainingTreeCnt;
     transient Set<String>                   predicateOverrideKeySet = null;
+    
+    /** path computation cache of the tree last processed by each thread */
+    transient ThreadLocal<PathContext>      pathContext = new ThreadLocal<PathContext>();
 
 
     /**
@@ -380,6 +414,7 @@ public class SRLModel implements Serializable {
     		nominalArgLabelStage2Threshold = argLabelStage2Threshold;
     	}
     	logger = Logger.getLogger("clearsrl");
+    	pathContext = new ThreadLocal<PathContext>();
     }
     
     public void initialize(Properties props) throws IOException {
@@ -392,9 +427,16 @@ public class SRLModel implements Serializable {
         predicateModel.initialize();
         rolesetModelMap = new HashMap<String, SimpleModel<Feature>>();
 
+        FeatureSet.Hashing hashing = FeatureSet.Hashing.valueOf(props.getProperty("featureHashing", "none").trim().toUpperCase());
+        int hashDimension = Integer.parseInt(props.getProperty("featureHashing.dimension", "4194304").trim());
+        
+        argLabelFeatures.setHashing(hashing, hashDimension);
+        // predicate alternatives are looked up in the predicate dictionary
+        argLabelFeatures.keepDictionary(EnumSet.of(Feature.PREDICATE));
         argLabelFeatures.initialize(); 
         if (trainNominal && separateNominalClassifier) {
         	nominalArgLabelFeatures = new FeatureSet<Feature>(argFeatureSet);
+        	nominalArgLabelFeatures.setHashing(hashing, hashDimension);
         	nominalArgLabelFeatures.initialize();
         } else 
         	nominalArgLabelFeatures = argLabelFeatures;
@@ -471,6 +513,26 @@ public class SRLModel implements Serializable {
     public void setPredicateOverride(Set<String> keySet) {
     	predicateOverrideKeySet = keySet;
     }
+    
+    /**
+     * Converts all trained classifiers to their compact, prediction only 
+     * form and freezes the feature dictionaries. Training should not be 
+     * resumed afterwards.
+     */
+    public void compact() {
+    	if (predicateModel!=null)
+    		predicateModel.compact();
+    	if (rolesetModelMap!=null)
+    		for (SimpleModel<Feature> rolesetModel:rolesetModelMap.values())
+    			rolesetModel.compact();
+    	for (Classifier classifier:new Classifier[]{argLabelClassifier, argLabelStage2Classifier, nominalArgLabelClassifier, nominalArgLabelStage2Classifier})
+    		if (classifier!=null)
+    			classifier.compact();
+    	if (argLabelFeatures!=null)
+    		argLabelFeatures.freeze();
+    	if (nominalArgLabelFeatures!=null)
+    		nominalArgLabelFeatures.freeze();
+    }
 
     @Override
 	protected void finalize() {
@@ -563,8 +625,9 @@ public class SRLModel implements Serializable {
      * 
      * 
      * @param cutoff
+     * @param threads number of feature extraction threads
      */
-    void makeTrainingArguments(int cutoff) throws IOException {
+    void makeTrainingArguments(int cutoff, int threads) throws IOException {
         
         // Probably should hard code minimum number of instances
         FeatureSet.trimMap(argLabelStringMap,argLabelMinCount);
@@ -603,40 +666,114 @@ public class SRLModel implements Serializable {
         
         logger.info("Second pass processing of training samples.");
         TObjectIntMap<String> rolesetCntMap = new TObjectIntHashMap<String>();
-        try (ObjectOutputStream cachedOutStream = 
-        		new ObjectOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(extractedSampleFile),GZIP_BUFFER),GZIP_BUFFER*4));
+        
+        // sentences are decoded and their training instances made (in order) on 
+        // this thread, features are extracted in the compute pool, and the 
+        // samples are written in sentence order by the writer thread (which 
+        // blocks on the queue, so it's kept out of the pool)
+        threads = Math.max(threads, 1);
+        final BlockingQueue<ArgumentSampleTask> writeQueue = new ArrayBlockingQueue<ArgumentSampleTask>(threads*4);
+        final ArgumentSampleTask endTask = new ArgumentSampleTask(null, null, null);
+        ExecutorService writerExecutor = Executors.newSingleThreadExecutor();
+        
+        try (final SampleStore.Writer sampleWriter = new SampleStore.Writer(extractedSampleFile);
         		ObjectInputStream cachedInStream = 
         				new ObjectInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(trainingSampleFile),GZIP_BUFFER),GZIP_BUFFER*4))) {
-        	int trainingTreeCnt =0;
+        	Future<Integer> writer = writerExecutor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+		        	int trainingTreeCnt = 0;
+		        	for (ArgumentSampleTask task=writeQueue.take(); task!=endTask; task=writeQueue.take()) {
+		        		sampleWriter.add(task.getTree(), task.samples.get());
+		        		++trainingTreeCnt;
+		        	}
+		        	return trainingTreeCnt;
+				}
+        	});
+        	
         	String trainFile = null;
             for (;;) {
-            	Sentence sentence = (Sentence)cachedInStream.readObject();
-                float threshold = cachedInStream.readFloat();
+            	Sentence sentence = null;
+            	float threshold = 0;
+            	try {
+            		sentence = (Sentence)cachedInStream.readObject();
+            		threshold = cachedInStream.readFloat();
+            	} catch (EOFException e) {
+            		break;
+            	}
                 
                 TBTree tree = sentence.parse==null?sentence.treeTB:sentence.parse;
                 if (!tree.getFilename().equals(trainFile)) {
                 	trainFile = tree.getFilename();
                 	logger.info("Processing (P2.2) "+trainFile);
                 }
-                SRLSample[] srlSamples = addTrainingArguments(sentence, threshold, rolesetCntMap, false);
-                cachedOutStream.writeObject(tree);
-                cachedOutStream.writeObject(srlSamples);
-                if (++trainingTreeCnt%500==0)
-                	cachedOutStream.reset();
+                List<SRInstance> goldInstances = getGoldTrainingInstances(sentence);
+                ArgumentSampleTask task = new ArgumentSampleTask(sentence, goldInstances, 
+                		makeTrainingInstances(sentence, goldInstances, rolesetCntMap, false));
+                task.samples = ComputePool.submit(task);
+                while (!writeQueue.offer(task, 1, TimeUnit.SECONDS))
+                	if (writer.isDone())
+                		writer.get();
             }
-        } catch (EOFException e) {
+            writeQueue.put(endTask);
+            logger.info(String.format("Second pass training trees: %d", writer.get()));
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+        	Thread.currentThread().interrupt();
+        	throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+        	// the writer rethrows the failures of the sample tasks wrapped again
+        	Throwable cause = e.getCause();
+        	while (cause instanceof ExecutionException && cause.getCause()!=null)
+        		cause = cause.getCause();
+        	if (cause instanceof IOException)
+        		throw (IOException)cause;
+        	if (cause instanceof RuntimeException)
+        		throw (RuntimeException)cause;
+        	if (cause instanceof Error)
+        		throw (Error)cause;
+        	throw new IOException(cause);
+        } finally {
+        	writerExecutor.shutdownNow();
         }
         for (Map.Entry<String, String[]> entry:rolesetValidatedLabelMap.entrySet())
         	if (entry.getValue().length!=rolesetCntMap.get(entry.getKey())+1)
         		logger.warning(String.format("roleset count mismatch: %s: %d/%d\n",entry.getKey(), entry.getValue().length, rolesetCntMap.get(entry.getKey())+1));
         trainingSampleFile.delete();
+        extractedSamples = SampleStore.open(extractedSampleFile);
+        staticFeatureOffsets = null;
+        staticFeatures = null;
         logger.info("Second pass argument processing completed.");
     }
     
 
     
+    /**
+     * Second pass feature extraction of the training samples of a sentence
+     */
+    final class ArgumentSampleTask implements Callable<SRLSample[]> {
+    	final Sentence          sentence;
+    	final List<SRInstance>  goldInstances;
+    	final List<SRInstance>  trainInstances;
+    	Future<SRLSample[]>     samples;
+    	
+    	ArgumentSampleTask(Sentence sentence, List<SRInstance> goldInstances, List<SRInstance> trainInstances) {
+    		this.sentence = sentence;
+    		this.goldInstances = goldInstances;
+    		this.trainInstances = trainInstances;
+    	}
+    	
+    	TBTree getTree() {
+    		return sentence.parse==null?sentence.treeTB:sentence.parse;
+    	}
+    	
+		@Override
+		public SRLSample[] call() {
+			return addTrainingArguments(sentence, goldInstances, trainInstances, false);
+		}
+    }
+    
     /**
      * add training sentences to the model
      * @param tree input parse tree
@@ -725,7 +862,14 @@ public class SRLModel implements Serializable {
     }
     
     SRLSample[] addTrainingArguments(Sentence sent, float threshold, TObjectIntMap<String> rolesetCntMap, boolean buildDictionary) {
-    	TBTree tree = sent.parse==null?sent.treeTB:sent.parse;
+    	List<SRInstance> goldInstances = getGoldTrainingInstances(sent);
+    	return addTrainingArguments(sent, goldInstances, makeTrainingInstances(sent, goldInstances, rolesetCntMap, buildDictionary), buildDictionary);
+    }
+    
+    /**
+     * @return the sorted gold instances of the sentence used for argument training
+     */
+    List<SRInstance> getGoldTrainingInstances(Sentence sent) {
     	List<SRInstance> goldInstances = SRLUtil.convertToSRInstance(sent.propPB);
     	for (Iterator<SRInstance> iter=goldInstances.iterator(); iter.hasNext();) {
     		SRInstance instance = iter.next();
@@ -733,6 +877,17 @@ public class SRLModel implements Serializable {
     			iter.remove();
     	}
     	Collections.sort(goldInstances);
+    	return goldInstances;
+    }
+    
+    /**
+     * Makes the training instances of the gold instances. Outside of the 
+     * dictionary pass, rolesets are assigned from the cross validated roleset
+     * labels, which are consumed in order through rolesetCntMap, so sentences
+     * must be processed in the same order as the first pass.
+     */
+    List<SRInstance> makeTrainingInstances(Sentence sent, List<SRInstance> goldInstances, TObjectIntMap<String> rolesetCntMap, boolean buildDictionary) {
+    	TBTree tree = sent.parse==null?sent.treeTB:sent.parse;
         List<SRInstance> trainInstances = new ArrayList<SRInstance>(goldInstances.size());
         for (SRInstance goldInstance:goldInstances) {
         	SRInstance trainInstance = new SRInstance(goldInstance.predicateNode, tree, null, goldInstance.getRolesetId(), 1.0);
@@ -761,6 +916,11 @@ public class SRLModel implements Serializable {
             				goldInstances);
             }
         }
+        return trainInstances;
+    }
+    
+    SRLSample[] addTrainingArguments(Sentence sent, List<SRInstance> goldInstances, List<SRInstance> trainInstances, boolean buildDictionary) {
+    	TBTree tree = sent.parse==null?sent.treeTB:sent.parse;
         SRLSample[] srlSamples = new SRLSample[trainInstances.size()]; 
         int[] supportIds = SRLUtil.findSupportPredicates(trainInstances, useGoldPredicateSeparation?goldInstances:null, langUtil, SRLUtil.SupportType.ALL, true);        
         BitSet processedSet = new BitSet(supportIds.length);
@@ -866,11 +1026,10 @@ public class SRLModel implements Serializable {
             for (int i=0; i<featureMapList.size();++i) {
                 boolean isNoArg = SRArg.NOT_ARG.equals(argSamples[i].label);
                 featureMapList.get(i).putAll(extractFeatureSequence(isNominal?nominalArgLabelFeatures:argLabelFeatures, sampleInstance.predicateNode, sampleInstance.getRolesetId(), sampleList.get(i), sampleInstance, predictedList, argTopicMap, buildDictionary));
-                for(Map.Entry<EnumSet<Feature>,Collection<String>> entry:argLabelFeatures.convertFlatSample(featureMapList.get(i)).entrySet())
-                	if (isNominal)
-                		nominalArgLabelFeatures.addToDictionary(entry.getKey(), entry.getValue(), isNoArg?noArgWeight:nominalWeight);
-                	else
-                		argLabelFeatures.addToDictionary(entry.getKey(), entry.getValue(), isNoArg?noArgWeight:1);
+                if (isNominal)
+                	nominalArgLabelFeatures.addToDictionary(featureMapList.get(i), isNoArg?noArgWeight:nominalWeight);
+                else
+                	argLabelFeatures.addToDictionary(featureMapList.get(i), isNoArg?noArgWeight:1);
                 
                 //if (!NOT_ARG.equals(SRLUtil.getMaxLabel(labels.get(c))))
                 //  System.out.println(sample.get(Feature.PATH));
@@ -882,150 +1041,57 @@ public class SRLModel implements Serializable {
         }
     }
 
+    /**
+     * @return the path context of the tree of node, a new one is started 
+     * whenever this thread moves on to a different tree
+     */
+    PathContext getPathContext(TBNode node) {
+        TBNode root = node.getRoot();
+        PathContext context = pathContext.get();
+        if (context==null || context.root!=root)
+            pathContext.set(context=new PathContext(root));
+        return context;
+    }
+    
     public EnumMap<Feature,Collection<String>> extractFeatureArgument(FeatureSet<Feature> featureSet, TBNode predicateNode, TBNode argNode, String[] namedEntities, List<String> headwordSP) {
         EnumMap<Feature,Collection<String>> featureMap = new EnumMap<Feature,Collection<String>>(Feature.class);
-        List<TBNode> tnodes = argNode.getTokenNodes();
+        PathContext context = getPathContext(predicateNode);
+        List<TBNode> tnodes = context.getTokenNodes(argNode);
         
-        List<TBNode> argToTopNodes = argNode.getPathToRoot();
-        List<TBNode> predToTopNodes = predicateNode.getPathToRoot();
-        TBNode joinNode = trimPathNodes(argToTopNodes, predToTopNodes);
-        List<String> path = getPath(argToTopNodes, predToTopNodes, joinNode);
-
-        List<TBNode> argDepToTopNodes = new ArrayList<TBNode>();
+        PathContext.NodePath nodePath = context.getPath(argNode, predicateNode);
+        List<TBNode> argToTopNodes = nodePath.argNodes;
+        List<TBNode> predToTopNodes = nodePath.predNodes;
+        TBNode joinNode = nodePath.joinNode;
         
-        if (!argToTopNodes.isEmpty())
-            argDepToTopNodes.add(argToTopNodes.get(0));
-        else
+        if (argToTopNodes.isEmpty())
             System.err.println("not good...");
-        
-        for (int i=1; i<argToTopNodes.size()-1; ++i)
-            if (argToTopNodes.get(i).getHead()!=argToTopNodes.get(i+1).getHead())
-                argDepToTopNodes.add(argToTopNodes.get(i));
-        
-        if (argDepToTopNodes.size()>1 && argDepToTopNodes.get(argDepToTopNodes.size()-1).getHead() == joinNode.getHead())
-            argDepToTopNodes.remove(argDepToTopNodes.size()-1);
-        
-        List<TBNode> predDepToTopNodes = new ArrayList<TBNode>();
-        
-        if (!predToTopNodes.isEmpty()) predDepToTopNodes.add(predToTopNodes.get(0));
-        
-        for (int i=1; i<predToTopNodes.size()-1; ++i)
-            if (predToTopNodes.get(i).getHead()!=predToTopNodes.get(i+1).getHead())
-                predDepToTopNodes.add(predToTopNodes.get(i));
-        
-        if (predDepToTopNodes.size()>1 && predDepToTopNodes.get(predDepToTopNodes.size()-1).getHead() == joinNode.getHead())
-            predDepToTopNodes.remove(predDepToTopNodes.size()-1);
 
-        List<String> depPath = getPath(argDepToTopNodes, predDepToTopNodes, joinNode);
-        
         // compute head
-        
-        TBNode head = argNode.getHead();
-        if (argNode.getPOS().matches("PP.*")) {
-        	/*
-            int i = argNode.getChildren().length-1;
-            for (; i>=0; --i)
-            {
-                if (argNode.getChildren()[i].getPOS().matches("NP.*"))
-                {
-                    if (argNode.getChildren()[i].getHead()!=null && argNode.getChildren()[i].getHeadword()!=null)
-                        head = argNode.getChildren()[i].getHead();
-                    break;
-                }
-            }
-            if (i<0 && argNode.getChildren()[argNode.getChildren().length-1].getHead()!=null && 
-                    argNode.getChildren()[argNode.getChildren().length-1].getHeadword()!=null)
-                head = argNode.getChildren()[argNode.getChildren().length-1].getHead();*/
-            for (TBNode child:argNode.getChildren())
-            	if (child.getHead()!=head) {
-            		head = child.getHead();
-            		break;
-            	}
-        }
+        TBNode head = context.getArgHead(argNode);
         
         boolean isBefore = tnodes.get(0).getTokenIndex() < predicateNode.getTokenIndex();
         //System.out.println(predicateNode+" "+predicateNode.tokenIndex+": "+argNode.getParent()+" "+argToTopNodes.size());
 
-        int cstDst = countConstituents(argToTopNodes.get(0).getPOS(), isBefore?argToTopNodes:predToTopNodes, isBefore?predToTopNodes:argToTopNodes, joinNode);
-        //System.out.println(cstDst+" "+path);
-        
         for (Feature feature:featureSet.getFeaturesFlat()) {
-            String pathStr=null;
-            {
-                StringBuilder buffer = new StringBuilder();
-                for (String node:path) buffer.append(node);
-                pathStr = buffer.toString();
-            }
             switch (feature) {
             case PATH:
-                featureMap.put(feature, Arrays.asList(pathStr));
+                featureMap.put(feature, Arrays.asList(nodePath.pathStr));
                 break;
             case PATHG1:
-            {
-                StringBuilder buffer = new StringBuilder();
-                for (String node:path) 
-                {
-                    if (node.equals(DOWN_CHAR)) break;
-                    buffer.append(node);
-                }
-                featureMap.put(feature, Arrays.asList(buffer.toString()));
+                featureMap.put(feature, context.getGeneralizedPath(nodePath).pathG1);
                 break;
-            }
             case PATHG2:
-            {
-                boolean inSameClause = true;
-                
-                StringBuilder buffer = new StringBuilder();
-                for (int i=1; i<path.size()-2; i++) 
-                {
-                    if (path.get(i).startsWith("S") || path.get(i).equals("IP"))
-                    {
-                        buffer.append("S");
-                        if (!path.get(i-1).equals(UP_CHAR)||!path.get(i+1).equals(DOWN_CHAR))
-                            inSameClause = false;
-                    }
-                    else
-                        buffer.append(path.get(i));
-                }
-
-                ArrayList<String> values = new ArrayList<String>();
-                if (inSameClause)
-                    values.add("SameClause");
-                if (path.size()>2)
-                {
-                    values.add(path.get(0)+buffer.toString().replaceAll("[^S\\^v][A-Z]*","*")+path.get(path.size()-2)+path.get(path.size()-1));
-                    values.add(path.get(0)+buffer.toString().replaceAll("[\\^v][^S][A-Z]*", "")+path.get(path.size()-2)+path.get(path.size()-1));
-                    values.add(path.get(0)+buffer.toString().replaceAll("S([\\^v][^S][A-Z]*)+\\^S", "S^S").replaceAll("S([\\^v][^S][A-Z]*)+vS", "SvS")+path.get(path.size()-2)+path.get(path.size()-1));
-                }
-                featureMap.put(feature, values);
+                featureMap.put(feature, context.getGeneralizedPath(nodePath).pathG2);
                 break;
-            }
             case PATHG3:
-            {
-                ArrayList<String> trigram = new ArrayList<String>();
-                for (int i=0; i<path.size()-4; i+=2)
-                    trigram.add(path.get(i)+path.get(i+1)+path.get(i+2)+path.get(i+3)+path.get(i+4));
-                    
-                featureMap.put(feature, trigram);
+                featureMap.put(feature, context.getGeneralizedPath(nodePath).pathG3);
                 break;
-            }
             case PATHG4:
-            {
-                StringBuilder buffer = new StringBuilder();
-                for (String node:path) buffer.append(node.charAt(0));
-                featureMap.put(feature, Arrays.asList(buffer.toString()));
+                featureMap.put(feature, context.getGeneralizedPath(nodePath).pathG4);
                 break;
-            }
             case PATHDEP:
-            {
-                StringBuilder buffer = new StringBuilder();
-                for (String node:depPath) buffer.append(node);
-                featureMap.put(feature, Arrays.asList(buffer.toString()));
-                
-                //System.out.println(pathStr+" "+buffer.toString());
-                
+                featureMap.put(feature, Arrays.asList(nodePath.getDepPathStr()));
                 break;
-            }
             case PHRASETYPE:
                 if (argNode.getPOS().equals("PP") && argNode.getHead()!=null && argNode.getHeadword()!=null)
                 {
@@ -1050,6 +1116,8 @@ public class SRLModel implements Serializable {
             	break;
             case CONSTITUENTDIST:
             {
+                int cstDst = countConstituents(argToTopNodes.get(0).getPOS(), isBefore?argToTopNodes:predToTopNodes, isBefore?predToTopNodes:argToTopNodes, joinNode);
+                //System.out.println(cstDst+" "+path);
                 ArrayList<String> list = new ArrayList<String>();
                 //if (cstDst!=1) list.add("notclosest");
                 //list.add(cstDst==1?"closest":"notclosest");
@@ -1151,6 +1219,150 @@ public class SRLModel implements Serializable {
         return featureMap;
     }
     
+    /**
+     * Generalized forms of a constituent path
+     */
+    static final class GeneralizedPath {
+        /** path up to the lowest common ancestor */
+        List<String> pathG1;
+        /** clause level paths */
+        List<String> pathG2;
+        /** trigrams of the path */
+        List<String> pathG3;
+        /** first characters of the path */
+        List<String> pathG4;
+    }
+    
+    /**
+     * Computes all the generalized paths in a single pass over the path. The
+     * clause level paths are produced by scanning the collapsed clause string
+     * instead of the regular expressions they were originally defined with
+     * (see {@link #maskLabels}, {@link #dropLabels} and {@link #collapseClauses}).
+     * @param path path as returned by {@link #getPath(TBNode, TBNode)}
+     */
+    static GeneralizedPath generalizePath(List<String> path) {
+        int size = path.size();
+        boolean inSameClause = true;
+        boolean goingDown = false;
+        
+        StringBuilder upPath = new StringBuilder();
+        StringBuilder clausePath = new StringBuilder();
+        StringBuilder initials = new StringBuilder(size);
+        List<String> trigrams = new ArrayList<String>(Math.max(0, (size-3)/2));
+        
+        for (int i=0; i<size; ++i) {
+            String node = path.get(i);
+            
+            if (!goingDown && node.equals(DOWN_CHAR))
+                goingDown = true;
+            if (!goingDown)
+                upPath.append(node);
+            
+            if (i>0 && i<size-2) {
+                if (node.startsWith("S") || node.equals("IP")) {
+                    clausePath.append('S');
+                    if (!path.get(i-1).equals(UP_CHAR)||!path.get(i+1).equals(DOWN_CHAR))
+                        inSameClause = false;
+                } else
+                    clausePath.append(node);
+            }
+            
+            if ((i&1)==0 && i<size-4)
+                trigrams.add(node+path.get(i+1)+path.get(i+2)+path.get(i+3)+path.get(i+4));
+            
+            initials.append(node.charAt(0));
+        }
+        
+        GeneralizedPath generalized = new GeneralizedPath();
+        generalized.pathG1 = Arrays.asList(upPath.toString());
+        
+        List<String> values = new ArrayList<String>(4);
+        if (inSameClause)
+            values.add("SameClause");
+        if (size>2) {
+            String suffix = path.get(size-2)+path.get(size-1);
+            StringBuilder buffer = new StringBuilder(clausePath.length()+path.get(0).length()+suffix.length());
+            
+            maskLabels(clausePath, buffer.append(path.get(0)));
+            values.add(buffer.append(suffix).toString());
+            
+            buffer.setLength(0);
+            dropLabels(clausePath, buffer.append(path.get(0)));
+            values.add(buffer.append(suffix).toString());
+            
+            StringBuilder collapsed = new StringBuilder(clausePath.length());
+            collapseClauses(clausePath, '^', collapsed);
+            buffer.setLength(0);
+            collapseClauses(collapsed, 'v', buffer.append(path.get(0)));
+            values.add(buffer.append(suffix).toString());
+        }
+        generalized.pathG2 = values;
+        generalized.pathG3 = trigrams;
+        generalized.pathG4 = Arrays.asList(initials.toString());
+        return generalized;
+    }
+    
+    static boolean isPathArrow(char c) {
+        return c=='^' || c=='v';
+    }
+    
+    static int skipUpperCase(CharSequence str, int i) {
+        while (i<str.length() && str.charAt(i)>='A' && str.charAt(i)<='Z') ++i;
+        return i;
+    }
+    
+    /**
+     * Replaces every label with '*', same as 
+     * <code>str.replaceAll("[^S\\^v][A-Z]*","*")</code>
+     */
+    static void maskLabels(CharSequence str, StringBuilder out) {
+        for (int i=0; i<str.length();) {
+            char c = str.charAt(i++);
+            if (c=='S' || isPathArrow(c))
+                out.append(c);
+            else {
+                i = skipUpperCase(str, i);
+                out.append('*');
+            }
+        }
+    }
+    
+    /**
+     * Removes every non-clause step, same as 
+     * <code>str.replaceAll("[\\^v][^S][A-Z]*", "")</code>
+     */
+    static void dropLabels(CharSequence str, StringBuilder out) {
+        for (int i=0; i<str.length();) {
+            if (isPathArrow(str.charAt(i)) && i+1<str.length() && str.charAt(i+1)!='S')
+                i = skipUpperCase(str, i+2);
+            else
+                out.append(str.charAt(i++));
+        }
+    }
+    
+    /**
+     * Collapses the steps between 2 clauses in the given direction, same as 
+     * <code>str.replaceAll("S([\\^v][^S][A-Z]*)+"+arrow+"S", "S"+arrow+"S")</code>.
+     * A step can never be followed by an arrow and a clause, so the match 
+     * (if any) ends right after the longest run of steps.
+     */
+    static void collapseClauses(CharSequence str, char arrow, StringBuilder out) {
+        for (int i=0; i<str.length();) {
+            if (str.charAt(i)=='S') {
+                int steps = 0;
+                int p = i+1;
+                for (; p+1<str.length() && isPathArrow(str.charAt(p)) && str.charAt(p+1)!='S'; ++steps)
+                    p = skipUpperCase(str, p+2);
+                if (steps>0 && p+1<str.length() && str.charAt(p)==arrow && str.charAt(p+1)=='S') {
+                    out.append('S').append(arrow).append('S');
+                    i = p+2;
+                    continue;
+                }
+            }
+            out.append(str.charAt(i++));
+        }
+    }
+    
     List<List<String>> getSPLabels(TBNode predicateNode, String rolesetId, List<TBNode> argNodes, boolean training) {
 	    String[] headwords = new String[argNodes.size()];
 	    Set<String> headwordSet = new HashSet<String>();
@@ -1235,15 +1447,8 @@ public class SRLModel implements Serializable {
                 }
                 break;
             case SUPPORTPATH:
-                if (support!=null) {
-                    List<TBNode> supportToTopNodes = support.getPredicateNode().getPathToRoot();
-                    List<TBNode> predToTopNodes = predicate.getPathToRoot();
-                    TBNode joinNode = trimPathNodes(supportToTopNodes, predToTopNodes);
-                    List<String> path = getPath(supportToTopNodes, predToTopNodes, joinNode);
-                    StringBuilder buffer = new StringBuilder();
-                    for (String node:path) buffer.append(node);
-                    featureMap.put(feature, Arrays.asList(buffer.toString()));
-                }
+                if (support!=null)
+                    featureMap.put(feature, Arrays.asList(getPathContext(predicate).getPath(support.getPredicateNode(), predicate).pathStr));
                 break;
             case SUPPORTARG:
                 if (support!=null) {
@@ -1628,18 +1833,32 @@ public class SRLModel implements Serializable {
         logger.info(String.format("Training predicates"));
         predicateModel.train(prop);
         
-        // train roleset classifiers
-        rolesetValidatedLabelMap = new HashMap<String, String[]>();
-        for (Map.Entry<String, SimpleModel<Feature>> entry:rolesetModelMap.entrySet()) {
-            logger.info(String.format("Training %s\n", entry.getKey()));
-            rolesetValidatedLabelMap.put(entry.getKey(),entry.getValue().train(prop, true));
+        int threads = Integer.parseInt(prop.getProperty("threads","1"));
+        ComputePool.setParallelism(threads);
+        
+        // train roleset classifiers, their cross validation folds share the pool
+        final Properties rolesetProp = prop;
+        List<String> rolesetKeys = new ArrayList<String>(rolesetModelMap.keySet());
+        List<Callable<String[]>> rolesetJobs = new ArrayList<Callable<String[]>>(rolesetKeys.size());
+        for (final String key:rolesetKeys) {
+            final SimpleModel<Feature> rolesetModel = rolesetModelMap.get(key);
+            rolesetJobs.add(new Callable<String[]>() {
+                @Override
+                public String[] call() {
+                    logger.info(String.format("Training %s\n", key));
+                    return rolesetModel.train(rolesetProp, true);
+                }
+            });
         }
+        List<String[]> rolesetLabels = ComputePool.invokeAll(rolesetJobs, threads);
+        rolesetValidatedLabelMap = new HashMap<String, String[]>();
+        for (int i=0; i<rolesetKeys.size(); ++i)
+            rolesetValidatedLabelMap.put(rolesetKeys.get(i), rolesetLabels.get(i));
         
-        makeTrainingArguments(cutoff);
+        makeTrainingArguments(cutoff, threads);
         
         boolean finalCrossValidation = !prop.getProperty("crossvalidation.final","false").equals("false");
         int folds = Integer.parseInt(prop.getProperty("crossvalidation.folds","5"));
-        int threads = Integer.parseInt(prop.getProperty("threads","1"));
         
         double stage2Threshold = 1.0;
         
@@ -1689,6 +1908,7 @@ public class SRLModel implements Serializable {
         }
         
         int maxIter = Integer.parseInt(prop.getProperty("sequence.iterations","3"));
+        previousFolds = Collections.synchronizedMap(new IdentityHashMap<Classifier, Classifier[]>());
         //if (hasStage2Feature)
         //	rounds = hasSequenceFeature?(int)(Math.ceil(rounds/2.0)):1;
         //else 
@@ -1703,7 +1923,7 @@ public class SRLModel implements Serializable {
         BitSet trainNominalMask = new BitSet();
         {
         	List<String> labelList = new ArrayList<String>();
-        	readTrainingArguments(extractedSampleFile, null, null, null, null, null, null, labelList, goldNominalMask, trainNominalMask, null, true, true);
+        	readTrainingArguments(extractedSamples, null, null, null, null, null, null, labelList, goldNominalMask, trainNominalMask, null, true, true);
         	goldLabels = labelList.toArray(new String[labelList.size()]);
         	y = new int[goldLabels.length];
         	for (int i=0; i<goldLabels.length; ++i)
@@ -1791,6 +2011,10 @@ public class SRLModel implements Serializable {
         	System.out.println("stage 2 training"+(finalCrossValidation?"(cross validated)":"")+":");
             printScore(predictions, goldLabels, goldNominalMask, stage2Mask);
         }
+        staticFeatureOffsets = null;
+        staticFeatures = null;
+        previousFolds = null;
+        logger.info(ComputePool.getStatistics());
     }
 
     
@@ -1811,7 +2035,7 @@ public class SRLModel implements Serializable {
 	        TIntArrayList seedList = new TIntArrayList();
 	        List<String> stage2GoldLabels = stage2Mask==null?null:new ArrayList<String>();
 	
-	        readTrainingArguments(extractedSampleFile, predictedLabels, predictedLabelProb, stage2Mask, verbClassifier, nounClassifier, xList, stage2GoldLabels, null, nominalMask, folds>1?seedList:null, useSequence, usePrediction);
+	        readTrainingArguments(extractedSamples, predictedLabels, predictedLabelProb, stage2Mask, verbClassifier, nounClassifier, xList, stage2GoldLabels, null, nominalMask, folds>1?seedList:null, useSequence, usePrediction);
 	        
 	        X = xList.toArray();
 	
@@ -1857,8 +2081,14 @@ public class SRLModel implements Serializable {
         	}
         }
         
-        String[] vLabels = trainClassifier(verbClassifier, vX, vy, vValues, vSeeds, folds, trainAll, threads);
-        String[] nLabels = trainClassifier(nounClassifier, nX, ny, nValues, nSeeds, folds, trainAll, threads);
+        // train the verb and nominal classifiers together, their jobs share the pool 
+        // so the one that finishes first leaves all the threads to the other
+        List<Callable<String[]>> jobs = new ArrayList<Callable<String[]>>(2);
+        jobs.add(makeTrainingJob(verbClassifier, vX, vy, vValues, vSeeds, folds, trainAll, threads));
+        jobs.add(makeTrainingJob(nounClassifier, nX, ny, nValues, nSeeds, folds, trainAll, threads));
+        List<String[]> labelList = ComputePool.invokeAll(jobs, threads);
+        String[] vLabels = labelList.get(0);
+        String[] nLabels = labelList.get(1);
         
         String[] newLabels = new String[y.length];
         
@@ -1879,15 +2109,33 @@ public class SRLModel implements Serializable {
     }
     
     
+    Callable<String[]> makeTrainingJob(final Classifier classifier, final Object[] X, final int[] y, final double[][] values, final int[] seeds, final int folds, final boolean trainAll, final int threads) {
+        return new Callable<String[]>() {
+            @Override
+            public String[] call() {
+                return trainClassifier(classifier, X, y, values, seeds, folds, trainAll, threads);
+            }
+        };
+    }
+    
     String[] trainClassifier(Classifier classifier, Object[] X, int[] y, double[][] values, int[] seeds, int folds, boolean trainAll, int threads) {
     	String[] newLabels = new String[y.length];
         if (folds>1) {
-            CrossValidator validator = new CrossValidator(classifier, threads/classifier.setThreads(threads));
+            // pairwise and cross validation jobs compose on the shared pool, each may use all the threads
+            classifier.setThreads(threads);
+            CrossValidator validator = new CrossValidator(classifier, threads);
+            if (classifier.isWarmStart())
+            	validator.setPreviousFolds(previousFolds.get(classifier));
             int[] yV =  validator.validate(folds, X, y, values, seeds, trainAll);
+            if (classifier.isWarmStart())
+            	previousFolds.put(classifier, validator.getFoldClassifiers());
             for (int i=0; i<yV.length; ++i)
                 newLabels[i] = argLabelIndexMap.get(yV[i]);
         } else {
         	classifier.setThreads(threads);
+        	// the final classifier starts from a fold of the last iteration
+        	if (classifier.isWarmStart() && previousFolds.get(classifier)!=null)
+        		classifier.warmStart(previousFolds.get(classifier)[0]);
         	classifier.trainNative(X, y);
  	        for (int i=0; i<y.length; ++i)
  	        	newLabels[i] = argLabelIndexMap.get(classifier.predictNative(X[i]));
@@ -1897,7 +2145,7 @@ public class SRLModel implements Serializable {
     	
     }
 
-    void readTrainingArguments(File sampleFile, String[] predictedLabels, double[][] predictedLabelProb, BitSet stage2Mask, 
+    void readTrainingArguments(SampleStore store, String[] predictedLabels, double[][] predictedLabelProb, BitSet stage2Mask, 
     		Classifier verbClassifier, Classifier nounClassifier, 
     		List<Object> xList, List<String> labelList, BitSet goldNominalMask, BitSet trainNominalMask, TIntArrayList seedList, boolean useSequence, boolean usePrediction) {
     	
@@ -1907,75 +2155,101 @@ public class SRLModel implements Serializable {
     	if (trainNominalMask!=null) trainNominalMask.clear();
     	if (seedList!=null) seedList.clear();
     	
-    	try (ObjectInputStream cachedInStream = 
-    			new ObjectInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(sampleFile),GZIP_BUFFER),GZIP_BUFFER*4))) {
-            int predictedCnt=0;
-            int stage2Cnt=0;
-            int sampleCount=0;
-            Set<String> treeNameSet = new HashSet<String>();
-            for (;;) {
-                TBTree tree = (TBTree)cachedInStream.readObject();
-                treeNameSet.add(tree.getFilename());
-                SRLSample[] samples = (SRLSample[]) cachedInStream.readObject();
-                // relabel everything first
-                if (labelList!=null || goldNominalMask!=null || trainNominalMask!=null) {
-                	int stage2LocalCnt = stage2Cnt;
-                	for (SRLSample srlSample:samples) {
-               		 	for (ArgSample argSample:srlSample.args)
-               		 		if (stage2Mask==null || stage2Mask.get(stage2LocalCnt++)) {
-               		 			if (goldNominalMask!=null && srlSample.isGoldNominal)
-               		 				goldNominalMask.set(sampleCount);
-	               		 		if (trainNominalMask!=null && useGoldPredicateSeparation?srlSample.isGoldNominal:srlSample.isTrainNominal)
-	           		 				trainNominalMask.set(sampleCount);
-               		 			sampleCount++;
-               		 			if (labelList!=null)
-               		 				labelList.add(argSample.label);
-               		 		}
-                	}
-                }
-                if (predictedLabels!=null)
-                	 for (SRLSample srlSample:samples) 
-                		 for (ArgSample argSample:srlSample.args) {
-                			 if (predictedLabelProb!=null)
-                				 argSample.labelProb = predictedLabelProb[predictedCnt];
-                			 argSample.label = predictedLabels[predictedCnt++];
-                		 }
-                
-                for (SRLSample srlSample:samples) {
-                    Map<String, List<String>> argTopicMap = null;
-                    List<SRArg> predictedArgs = new ArrayList<SRArg>();
-                    if (stage2Mask!=null && xList!=null && usePrediction) {
-	                    for (ArgSample argSample:srlSample.args)
-	                    	if (!argSample.label.equals(SRArg.NOT_ARG))
-	                    		predictedArgs.add(new SRArg(argSample.label, argSample.node));
-	                    	argTopicMap = makeArgTopicMap(srlSample.args);
-                    }
-                    for (ArgSample argSample:srlSample.args) {
-                    	// only train arguments needed for stage2
-                    	if (stage2Mask!=null && !stage2Mask.get(stage2Cnt++))
-                    		continue;
-                    	if (xList!=null) {
-	                        SRInstance support = null;
-	                        if (srlSample.support!=null) {
-	                            support = new SRInstance(srlSample.support.predicate, srlSample.support.tree, null);
-	                            for (ArgSample supportArg:srlSample.support.args)
-	                                if (!supportArg.label.equals(SRArg.NOT_ARG))
-	                                    support.addArg(new SRArg(supportArg.label, supportArg.node));
-	                        }
-	                        if (srlSample.isTrainNominal)
-	                        	xList.add(nounClassifier.getNativeFormat(getFeatureVector(nominalArgLabelFeatures, srlSample.predicate, srlSample.roleset, argSample, useSequence?support:null, predictedArgs, argTopicMap)));
-	                        else
-	                        	xList.add(verbClassifier.getNativeFormat(getFeatureVector(argLabelFeatures, srlSample.predicate, srlSample.roleset, argSample, useSequence?support:null, predictedArgs, argTopicMap)));
-                    	}
-                        
-                        if (seedList!=null)
-                        	seedList.add(treeNameSet.size()-1);
-                    }
-                }
-            }
-        } catch (Exception e) {
-            if (!(e instanceof EOFException))
-                e.printStackTrace();
+    	try {
+    		// the gold labels and nominal flags are read from the store columns
+    		if (labelList!=null || goldNominalMask!=null || trainNominalMask!=null) {
+    			int sampleCount=0;
+    			for (int i=0; i<store.size(); ++i)
+    				if (stage2Mask==null || stage2Mask.get(i)) {
+    					if (goldNominalMask!=null && store.isGoldNominal(i))
+    						goldNominalMask.set(sampleCount);
+    					if (trainNominalMask!=null && (useGoldPredicateSeparation?store.isGoldNominal(i):store.isTrainNominal(i)))
+    						trainNominalMask.set(sampleCount);
+    					sampleCount++;
+    					if (labelList!=null)
+    						labelList.add(store.getLabel(i));
+    				}
+    		}
+    		if (xList==null && seedList==null)
+    			return;
+    		
+    		// the static part of the feature vectors is converted on the first pass only
+    		boolean buildStatic = xList!=null && staticFeatureOffsets==null;
+    		TIntArrayList offsets = buildStatic?new TIntArrayList(store.size()+1):null;
+    		TIntArrayList features = buildStatic?new TIntArrayList():null;
+    		if (buildStatic) offsets.add(0);
+    		// later passes only decode the stored features the dynamic templates combine with
+    		EnumSet<Feature> readFeatures = EnumSet.noneOf(Feature.class);
+    		if (buildStatic)
+    			readFeatures = EnumSet.allOf(Feature.class);
+    		else if (xList!=null) {
+    			readFeatures.addAll(argLabelFeatures.getMixedFeatures(DYNAMIC_FEATURES));
+    			readFeatures.addAll(nominalArgLabelFeatures.getMixedFeatures(DYNAMIC_FEATURES));
+    		}
+    		
+    		try (SampleStore.BlockReader reader = store.openBlocks(this, readFeatures)) {
+	            int argCnt=0;
+	            int predictedCnt=0;
+	            int stage2Cnt=0;
+	            Set<String> treeNameSet = new HashSet<String>();
+	            for (SampleStore.Block block; (block=reader.next())!=null;) {
+	                treeNameSet.add(block.tree.getFilename());
+	                SRLSample[] samples = block.samples;
+	                if (predictedLabels!=null)
+	                	 for (SRLSample srlSample:samples) 
+	                		 for (ArgSample argSample:srlSample.args) {
+	                			 if (predictedLabelProb!=null)
+	                				 argSample.labelProb = predictedLabelProb[predictedCnt];
+	                			 argSample.label = predictedLabels[predictedCnt++];
+	                		 }
+	                
+	                for (SRLSample srlSample:samples) {
+	                    Map<String, List<String>> argTopicMap = null;
+	                    List<SRArg> predictedArgs = new ArrayList<SRArg>();
+	                    if (stage2Mask!=null && xList!=null && usePrediction) {
+		                    for (ArgSample argSample:srlSample.args)
+		                    	if (!argSample.label.equals(SRArg.NOT_ARG))
+		                    		predictedArgs.add(new SRArg(argSample.label, argSample.node));
+		                    	argTopicMap = makeArgTopicMap(srlSample.args);
+	                    }
+	                    for (ArgSample argSample:srlSample.args) {
+	                    	int argIdx = argCnt++;
+	                    	FeatureSet<Feature> featureSet = srlSample.isTrainNominal?nominalArgLabelFeatures:argLabelFeatures;
+	                    	int[] staticVector = null;
+	                    	if (buildStatic) {
+	                    		staticVector = featureSet.getFeatureVector(argSample.features, DYNAMIC_FEATURES, false);
+	                    		features.add(staticVector);
+	                    		offsets.add(features.size());
+	                    	}
+	                    	// only train arguments needed for stage2
+	                    	if (stage2Mask!=null && !stage2Mask.get(stage2Cnt++))
+	                    		continue;
+	                    	if (xList!=null) {
+		                        SRInstance support = null;
+		                        if (srlSample.support!=null) {
+		                            support = new SRInstance(srlSample.support.predicate, srlSample.support.tree, null);
+		                            for (ArgSample supportArg:srlSample.support.args)
+		                                if (!supportArg.label.equals(SRArg.NOT_ARG))
+		                                    support.addArg(new SRArg(supportArg.label, supportArg.node));
+		                        }
+		                        if (staticVector==null)
+		                        	staticVector = Arrays.copyOfRange(staticFeatures, staticFeatureOffsets[argIdx], staticFeatureOffsets[argIdx+1]);
+		                        int[] x = FeatureSet.union(staticVector, getDynamicFeatureVector(featureSet, srlSample.predicate, srlSample.roleset, argSample, useSequence?support:null, predictedArgs, argTopicMap));
+		                        xList.add((srlSample.isTrainNominal?nounClassifier:verbClassifier).getNativeFormat(x));
+	                    	}
+	                        
+	                        if (seedList!=null)
+	                        	seedList.add(treeNameSet.size()-1);
+	                    }
+	                }
+	            }
+    		}
+    		if (buildStatic) {
+    			staticFeatureOffsets = offsets.toArray();
+    			staticFeatures = features.toArray();
+    		}
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     	System.gc();
     }
@@ -1994,6 +2268,18 @@ public class SRLModel implements Serializable {
         sampleFeatures.putAll(sample.features);
         return featureSet.getFeatureVector(sampleFeatures);
     }
+    
+    /**
+     * @return the part of the feature vector from the templates with dynamic 
+     * features, the rest is the same from pass to pass
+     */
+    int[] getDynamicFeatureVector(FeatureSet<Feature> featureSet, TBNode predicate, String rolesetId, ArgSample sample, SRInstance support, List<SRArg> predictedArgs, Map<String, List<String>> topicMap) {
+        EnumMap<Feature,Collection<String>> sampleFeatures = extractFeatureSequence(featureSet, predicate, rolesetId, sample, support, predictedArgs, topicMap, false);
+        if (sampleFeatures.isEmpty())
+            return new int[0];
+        sampleFeatures.putAll(sample.features);
+        return featureSet.getFeatureVector(sampleFeatures, DYNAMIC_FEATURES, true);
+    }
  
     String predictRoleSet(TBNode node, EnumMap<Feature,Collection<String>> features) {
         String key = langUtil.makePBFrameKey(node);
@@ -2195,8 +2481,9 @@ public class SRLModel implements Serializable {
         Arrays.sort(fsamples, sampleComparator);
         
         List<SRArg> emptyArgs = new ArrayList<SRArg>();
+        // scoring buffer, only copied for the candidates that keep their label values
+        double[] labelValues = new double[argLabelIndexMap.size()];
         for (int i=0; i<fsamples.length; ++i) {
-            double[] labelValues = new double[argLabelIndexMap.size()];
             int labelIndex;
             if (isNominal) {
             	int[] x = getFeatureVector(nominalArgLabelFeatures, prediction.predicateNode, prediction.rolesetId, fsamples[i], support, emptyArgs, null);
@@ -2218,10 +2505,12 @@ public class SRLModel implements Serializable {
            
             String goldLabel = fsamples[i].label;
             fsamples[i].label = argLabelIndexMap.get(labelIndex);
-            fsamples[i].labelProb = labelValues;
+            if (stage2Mask!=null)
+                fsamples[i].labelProb = labelValues.clone();
 
             if (labeled && !fsamples[i].label.equals(SRArg.NOT_ARG)) {
-                prediction.addArg(new SRArg(fsamples[i].label, fsamples[i].node, labelValues[argLabelStringMap.get(fsamples[i].label)-1], labelValues));
+                prediction.addArg(new SRArg(fsamples[i].label, fsamples[i].node, labelValues[argLabelStringMap.get(fsamples[i].label)-1], 
+                		fsamples[i].labelProb==null?labelValues.clone():fsamples[i].labelProb));
                 if (stage2Mask!=null)
                 	stage2Mask.set(i);
             } else if (!isNominal && labelValues[argLabelStringMap.get(SRArg.NOT_ARG)-1]<=argLabelStage2Threshold ||
@@ -2241,8 +2530,7 @@ public class SRLModel implements Serializable {
                         filteredNoArg++;
                 }
                 */
-                Arrays.sort(labelValues);
-                if (labelValues[labelValues.length-2]<threshold) {
+                if (secondHighest(labelValues)<threshold) {
                     if (!goldLabel.equals(SRArg.NOT_ARG))
                         filteredArg++;
                     else
@@ -2262,7 +2550,6 @@ public class SRLModel implements Serializable {
         	for (int i=0; i<fsamples.length; ++i) {
         		if (!stage2Mask.get(i)) continue;
 
-                double[] labelValues = new double[argLabelIndexMap.size()];
                 int labelIndex;
                 
                 if (isNominal) {
@@ -2285,7 +2572,7 @@ public class SRLModel implements Serializable {
                 
                 fsamples[i].label = argLabelIndexMap.get(labelIndex);
                 if (labeled && !fsamples[i].label.equals(SRArg.NOT_ARG))
-                    prediction.addArg(new SRArg(fsamples[i].label, fsamples[i].node, labelValues[argLabelStringMap.get(fsamples[i].label)-1], labelValues));
+                    prediction.addArg(new SRArg(fsamples[i].label, fsamples[i].node, labelValues[argLabelStringMap.get(fsamples[i].label)-1], labelValues.clone()));
         	}
         }
         
@@ -2302,6 +2589,18 @@ public class SRLModel implements Serializable {
         return featureMapList.size();
     }
     
+    static double secondHighest(double[] values) {
+    	double highest = Double.NEGATIVE_INFINITY;
+    	double second = Double.NEGATIVE_INFINITY;
+    	for (double value:values)
+    		if (value>highest) {
+    			second = highest;
+    			highest = value;
+    		} else if (value>second)
+    			second = value;
+    	return second;
+    }
+    
     int countConstituents(String label, List<TBNode> lnodes, List<TBNode> rnodes, TBNode joinNode) {   
         int count = 0;
         
@@ -2369,7 +2668,7 @@ public class SRLModel implements Serializable {
         return getPath(argNodes, predNodes, joinNode);
     }
     
-    List<String> getPath(List<TBNode> argNodes, List<TBNode> predNodes, TBNode joinNode) {
+    static List<String> getPath(List<TBNode> argNodes, List<TBNode> predNodes, TBNode joinNode) {
         ArrayList<String> path = new ArrayList<String>();
         
         for (TBNode node:argNodes) {
@@ -0,0 +1,390 @@
+package edu.colorado.clear.srl;
+
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.colorado.clear.common.treebank.ParseException;
+import edu.colorado.clear.common.treebank.TBBinaryCodec;
+import edu.colorado.clear.common.treebank.TBNode;
+import edu.colorado.clear.common.treebank.TBTree;
+import edu.colorado.clear.srl.SRLModel.Feature;
+
+/**
+ * File store of the extracted argument training samples, written once and
+ * scanned on every training pass.
+ *
+ * The samples of a tree are written as a block: the trees the samples refer
+ * to (see {@link TBBinaryCodec}), then for each sample its predicate, roleset,
+ * support and arguments. Nodes are (tree, preorder index) references and the
+ * feature values of an argument are symbol ids. The label and nominal flags
+ * of every argument are kept in columns after the blocks, so they can be
+ * read without scanning the blocks, which are memory mapped.
+ *
+ * <pre>
+ * file:   magic, blocks, footer, footer offset (8 bytes)
+ * footer: symbol table, block count, block lengths, argument count,
+ *         argument labels and flags
+ * block:  tree count, file name and tree, root nodes of the other trees,
+ *         sample count, samples
+ * sample: flags, [predicate, roleset, [support], arguments]
+ * arg:    node, predicate, feature count, (feature, value count, values)*
+ * </pre>
+ */
+final class SampleStore {
+
+    static final int MAGIC = 0x53524c53; // SRLS
+
+    static final int GOLD_NOMINAL  = 1;
+    static final int TRAIN_NOMINAL = 1<<1;
+    static final int SUPPORT       = 1<<2;
+    static final int MISSING       = 1<<3;
+
+    /** size of the part of the file mapped at a time */
+    static final int WINDOW_SIZE = 1<<28;
+
+    static final Feature[] FEATURES = Feature.values();
+
+    /**
+     * The samples of a tree
+     */
+    static final class Block {
+        TBTree                tree;
+        SRLModel.SRLSample[]  samples;
+    }
+
+    File          file;
+    TBBinaryCodec codec;
+    long[]        blockOffsets; // start of each block, the last is the end of the blocks
+    int[]         labels;       // label symbol of each argument
+    byte[]        flags;        // nominal flags of each argument
+
+    private SampleStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens a store written by {@link Writer}, only the footer is read
+     */
+    static SampleStore open(File file) throws IOException {
+        SampleStore store = new SampleStore(file);
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.readInt()!=MAGIC)
+                throw new IOException(file.getPath()+" is not a sample store");
+            in.seek(in.length()-8);
+            long footerOffset = in.readLong();
+            byte[] footer = new byte[(int)(in.length()-8-footerOffset)];
+            in.seek(footerOffset);
+            in.readFully(footer);
+
+            ByteBuffer buf = ByteBuffer.wrap(footer);
+            store.codec = new TBBinaryCodec(TBBinaryCodec.readSymbols(buf));
+            store.blockOffsets = new long[TBBinaryCodec.readInt(buf)+1];
+            store.blockOffsets[0] = 4;
+            for (int i=1; i<store.blockOffsets.length; ++i)
+                store.blockOffsets[i] = store.blockOffsets[i-1]+TBBinaryCodec.readInt(buf);
+            store.labels = new int[TBBinaryCodec.readInt(buf)];
+            store.flags = new byte[store.labels.length];
+            for (int i=0; i<store.labels.length; ++i) {
+                store.labels[i] = TBBinaryCodec.readInt(buf);
+                store.flags[i] = buf.get();
+            }
+        }
+        return store;
+    }
+
+    /**
+     * @return number of arguments
+     */
+    int size() {
+        return labels.length;
+    }
+
+    String getLabel(int i) throws IOException {
+        return codec.getSymbol(labels[i]);
+    }
+
+    boolean isGoldNominal(int i) {
+        return (flags[i]&GOLD_NOMINAL)!=0;
+    }
+
+    boolean isTrainNominal(int i) {
+        return (flags[i]&TRAIN_NOMINAL)!=0;
+    }
+
+    BlockReader openBlocks(SRLModel model) throws IOException {
+        return new BlockReader(model, EnumSet.allOf(Feature.class));
+    }
+
+    /**
+     * @param readFeatures the features whose values are decoded, the other
+     * features are left out of the arguments
+     */
+    BlockReader openBlocks(SRLModel model, EnumSet<Feature> readFeatures) throws IOException {
+        return new BlockReader(model, readFeatures);
+    }
+
+    /**
+     * Reads the blocks in order, the samples are made fresh (with the gold
+     * labels) for every read
+     */
+    final class BlockReader implements Closeable {
+        SRLModel         model;
+        EnumSet<Feature> readFeatures;
+        FileChannel      channel;
+        MappedByteBuffer window;
+        long             windowStart;
+        long             windowEnd;
+        int              blockIdx;
+        int              argIdx;
+
+        BlockReader(SRLModel model, EnumSet<Feature> readFeatures) throws IOException {
+            this.model = model;
+            this.readFeatures = readFeatures;
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            blockIdx = 0;
+            argIdx = 0;
+        }
+
+        /**
+         * @return the next block, null at the end of the store
+         */
+        Block next() throws IOException {
+            if (blockIdx+1>=blockOffsets.length)
+                return null;
+            long start = blockOffsets[blockIdx];
+            long end = blockOffsets[++blockIdx];
+            if (window==null || end>windowEnd) {
+                windowStart = start;
+                windowEnd = Math.min(blockOffsets[blockOffsets.length-1], start+Math.max(WINDOW_SIZE, end-start));
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd-windowStart);
+            }
+            ByteBuffer in = window.duplicate();
+            in.limit((int)(end-windowStart));
+            in.position((int)(start-windowStart));
+            try {
+                return readBlock(in);
+            } catch (ParseException e) {
+                throw new IOException(e);
+            }
+        }
+
+        TBNode readNode(ByteBuffer in, List<TBNode[]> trees) throws IOException {
+            int tree = TBBinaryCodec.readInt(in);
+            int node = TBBinaryCodec.readInt(in);
+            if (tree>=trees.size() || node>=trees.get(tree).length)
+                throw new IOException("bad node reference "+tree+":"+node);
+            return trees.get(tree)[node];
+        }
+
+        Block readBlock(ByteBuffer in) throws IOException, ParseException {
+            Block block = new Block();
+            List<TBNode[]> trees = new ArrayList<TBNode[]>();
+            int treeCnt = TBBinaryCodec.readInt(in);
+            String fileName = codec.getSymbol(TBBinaryCodec.readInt(in));
+            block.tree = codec.readTree(in, fileName);
+            trees.add(TBBinaryCodec.preorder(block.tree.getRootNode()).toArray(new TBNode[0]));
+            for (int t=1; t<treeCnt; ++t)
+                trees.add(codec.readNodes(in));
+
+            block.samples = new SRLModel.SRLSample[TBBinaryCodec.readInt(in)];
+            // a support can come later in the block, they are linked at the end
+            int[] supports = new int[block.samples.length];
+            for (int s=0; s<block.samples.length; ++s) {
+                int sampleFlags = TBBinaryCodec.readInt(in);
+                if ((sampleFlags&MISSING)!=0)
+                    continue;
+                TBNode predicate = readNode(in, trees);
+                int roleset = TBBinaryCodec.readInt(in);
+                supports[s] = (sampleFlags&SUPPORT)==0?-1:TBBinaryCodec.readInt(in);
+                if (supports[s]>=block.samples.length)
+                    throw new IOException("bad support reference "+supports[s]);
+
+                SRLModel.ArgSample[] args = new SRLModel.ArgSample[TBBinaryCodec.readInt(in)];
+                for (int a=0; a<args.length; ++a) {
+                    TBNode node = readNode(in, trees);
+                    TBNode argPredicate = readNode(in, trees);
+                    EnumMap<Feature,Collection<String>> features = new EnumMap<Feature,Collection<String>>(Feature.class);
+                    for (int f=TBBinaryCodec.readInt(in); f>0; --f) {
+                        Feature feature = FEATURES[TBBinaryCodec.readInt(in)];
+                        int valueCnt = TBBinaryCodec.readInt(in);
+                        if (!readFeatures.contains(feature)) {
+                            for (int v=0; v<valueCnt; ++v)
+                                TBBinaryCodec.readInt(in);
+                            continue;
+                        }
+                        List<String> values = new ArrayList<String>(valueCnt);
+                        for (int v=0; v<valueCnt; ++v) {
+                            int value = TBBinaryCodec.readInt(in);
+                            values.add(value==0?null:codec.getSymbol(value-1));
+                        }
+                        features.put(feature, values);
+                    }
+                    args[a] = model.new ArgSample(node, argPredicate, getLabel(argIdx++), features);
+                }
+                block.samples[s] = model.new SRLSample(predicate, roleset==0?null:codec.getSymbol(roleset-1), block.tree,
+                        null, args, (sampleFlags&GOLD_NOMINAL)!=0, (sampleFlags&TRAIN_NOMINAL)!=0);
+            }
+            for (int s=0; s<block.samples.length; ++s)
+                if (block.samples[s]!=null && supports[s]>=0) {
+                    if (block.samples[supports[s]]==null)
+                        throw new IOException("bad support reference "+supports[s]);
+                    block.samples[s].support = block.samples[supports[s]];
+                }
+            return block;
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes a store, blocks are added in order
+     */
+    static final class Writer implements Closeable {
+        File                    file;
+        DataOutputStream        out;
+        long                    size;
+        TBBinaryCodec           codec;
+        TIntArrayList           blockLengths;
+        TIntArrayList           labels;
+        TByteArrayList          flags;
+        ByteArrayOutputStream   block;
+
+        Writer(File file) throws IOException {
+            this.file = file;
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1<<16));
+            out.writeInt(MAGIC);
+            size = 4;
+            codec = new TBBinaryCodec();
+            blockLengths = new TIntArrayList();
+            labels = new TIntArrayList();
+            flags = new TByteArrayList();
+            block = new ByteArrayOutputStream(1<<16);
+        }
+
+        /**
+         * Numbers the nodes of the tree of node if it's not already in trees
+         */
+        void addTree(TBNode node, List<TBNode> roots, Map<TBNode, int[]> nodeRefs) {
+            TBNode root = node.getRoot();
+            if (nodeRefs.containsKey(root))
+                return;
+            int tree = roots.size();
+            roots.add(root);
+            List<TBNode> nodes = TBBinaryCodec.preorder(root);
+            for (int i=0; i<nodes.size(); ++i)
+                nodeRefs.put(nodes.get(i), new int[]{tree, i});
+        }
+
+        void writeNode(TBNode node, Map<TBNode, int[]> nodeRefs) {
+            int[] ref = nodeRefs.get(node);
+            TBBinaryCodec.writeInt(block, ref[0]);
+            TBBinaryCodec.writeInt(block, ref[1]);
+        }
+
+        void add(TBTree tree, SRLModel.SRLSample[] samples) throws IOException {
+            List<TBNode> roots = new ArrayList<TBNode>();
+            Map<TBNode, int[]> nodeRefs = new IdentityHashMap<TBNode, int[]>();
+            addTree(tree.getRootNode(), roots, nodeRefs);
+            for (SRLModel.SRLSample sample:samples) {
+                if (sample==null) continue;
+                addTree(sample.predicate, roots, nodeRefs);
+                for (SRLModel.ArgSample arg:sample.args) {
+                    addTree(arg.node, roots, nodeRefs);
+                    addTree(arg.predicate, roots, nodeRefs);
+                }
+            }
+
+            block.reset();
+            TBBinaryCodec.writeInt(block, roots.size());
+            TBBinaryCodec.writeInt(block, codec.symbol(tree.getFilename()));
+            codec.writeTree(tree, block);
+            for (int t=1; t<roots.size(); ++t)
+                codec.writeNodes(roots.get(t), block);
+
+            TBBinaryCodec.writeInt(block, samples.length);
+            for (int s=0; s<samples.length; ++s) {
+                SRLModel.SRLSample sample = samples[s];
+                if (sample==null) {
+                    TBBinaryCodec.writeInt(block, MISSING);
+                    continue;
+                }
+                int support = -1;
+                for (int i=0; i<samples.length && sample.support!=null; ++i)
+                    if (samples[i]==sample.support) {
+                        support = i;
+                        break;
+                    }
+                int nominalFlags = (sample.isGoldNominal?GOLD_NOMINAL:0) | (sample.isTrainNominal?TRAIN_NOMINAL:0);
+                TBBinaryCodec.writeInt(block, nominalFlags | (support<0?0:SUPPORT));
+                writeNode(sample.predicate, nodeRefs);
+                TBBinaryCodec.writeInt(block, sample.roleset==null?0:codec.symbol(sample.roleset)+1);
+                if (support>=0)
+                    TBBinaryCodec.writeInt(block, support);
+
+                TBBinaryCodec.writeInt(block, sample.args.length);
+                for (SRLModel.ArgSample arg:sample.args) {
+                    writeNode(arg.node, nodeRefs);
+                    writeNode(arg.predicate, nodeRefs);
+                    TBBinaryCodec.writeInt(block, arg.features.size());
+                    for (Map.Entry<Feature, Collection<String>> entry:arg.features.entrySet()) {
+                        TBBinaryCodec.writeInt(block, entry.getKey().ordinal());
+                        TBBinaryCodec.writeInt(block, entry.getValue().size());
+                        for (String value:entry.getValue())
+                            TBBinaryCodec.writeInt(block, value==null?0:codec.symbol(value)+1);
+                    }
+                    labels.add(codec.symbol(arg.label));
+                    flags.add((byte)nominalFlags);
+                }
+            }
+            block.writeTo(out);
+            blockLengths.add(block.size());
+            size += block.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out==null) return;
+            try {
+                block.reset();
+                codec.writeSymbols(block);
+                TBBinaryCodec.writeInt(block, blockLengths.size());
+                for (int i=0; i<blockLengths.size(); ++i)
+                    TBBinaryCodec.writeInt(block, blockLengths.get(i));
+                TBBinaryCodec.writeInt(block, labels.size());
+                for (int i=0; i<labels.size(); ++i) {
+                    TBBinaryCodec.writeInt(block, labels.get(i));
+                    block.write(flags.get(i));
+                }
+                block.writeTo(out);
+                out.writeLong(size);
+            } finally {
+                out.close();
+                out = null;
+            }
+        }
+    }
+}
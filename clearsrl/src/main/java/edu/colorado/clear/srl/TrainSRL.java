@@ -13,12 +13,14 @@ import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -32,6 +34,7 @@ import edu.colorado.clear.common.alg.FeatureSet;
 import edu.colorado.clear.common.propbank.PBInstance;
 import edu.colorado.clear.common.treebank.TBNode;
 import edu.colorado.clear.common.util.LanguageUtil;
+import edu.colorado.clear.common.util.MappedObjectFile;
 import edu.colorado.clear.common.util.PropertyUtil;
 import edu.colorado.clear.srl.SRLModel.Feature;
 import edu.colorado.clear.srl.Sentence.Source;
@@ -159,108 +162,101 @@ public class TrainSRL {
             String sourceList = props.getProperty("corpus","");
             String[] sources = sourceList.trim().split("\\s*,\\s*");
 
-            Map<String, Sentence[]> sentenceMap = null;
-            TObjectIntMap<String> trainWeights =new TObjectIntHashMap<String>();
+            if (srcTreeType.equals(Source.TREEBANK)||srcTreeType.equals(Source.TB_HEAD))
+                model.setTrainGoldParse(true);
 
+            model.initialize(props);
+            
+            int fileCnt = 0;
             for (String source:sources) {
                 System.out.println("Processing corpus "+source);
                 Properties srcProps = source.isEmpty()?props:PropertyUtil.filterProperties(props, source+".", true);
                 System.out.println(PropertyUtil.toString(srcProps));
                 
-                Map<String, Sentence[]> corpusMap = Sentence.readCorpus(srcProps, srcTreeType, srcSet, langUtil);
-                
                 int weight = Integer.parseInt(srcProps.getProperty("weight", "1"));
-                for (String key:corpusMap.keySet())
-                    trainWeights.put(key, weight);
-                
-                if (sentenceMap==null) sentenceMap = corpusMap;
-                else sentenceMap.putAll(corpusMap);
-            }
-
-            System.out.printf("%d training files read\n",sentenceMap.size());
-
-            if (srcTreeType.equals(Source.TREEBANK)||srcTreeType.equals(Source.TB_HEAD))
-                model.setTrainGoldParse(true);
-
-            model.initialize(props);
-            for (Map.Entry<String, Sentence[]> entry: sentenceMap.entrySet()) {
-                int weight = trainWeights.get(entry.getKey());
                 weight = weight==0?1:weight;
                 
-                logger.info("Processing "+entry.getKey());
+                // documents are read and released one at a time
+                for (Iterator<Map.Entry<String, Sentence[]>> corpusIter = Sentence.streamCorpus(srcProps, srcTreeType, srcSet, langUtil); corpusIter.hasNext();) {
+                    Map.Entry<String, Sentence[]> entry = corpusIter.next();
+                    ++fileCnt;
                 
-                Set<String> annotatedNominals = null;
-                if (partialNominalAnnotation) {
-	                annotatedNominals = new HashSet<String>();
-	                for (Sentence sent:entry.getValue()) 
-	                	 if (sent.propPB!=null)
-	                		 for (PBInstance instance:sent.propPB)
-	                			 if (!langUtil.isVerb(instance.getPredicate().getPOS()))
-	                				annotatedNominals.add(langUtil.makePBFrameKey(instance.getPredicate()));
-                }
+                    logger.info("Processing "+entry.getKey());
                 
-                for (Sentence sent:entry.getValue()) {   
-                	sent.annotatedNominals = annotatedNominals;
-                    logger.fine("Processing tree "+(sent.parse==null?sent.treeTB.getIndex():sent.parse.getIndex()));
-                    if (sent.parse!=null && sent.treeTB!=null && sent.parse.getTokenCount()!=sent.treeTB.getTokenCount()) {
-                    	logger.warning("tree "+entry.getKey()+":"+sent.parse.getIndex()+" inconsistent, skipping");
-                    	continue;
+                    Set<String> annotatedNominals = null;
+                    if (partialNominalAnnotation) {
+    	                annotatedNominals = new HashSet<String>();
+    	                for (Sentence sent:entry.getValue()) 
+    	                	 if (sent.propPB!=null)
+    	                		 for (PBInstance instance:sent.propPB)
+    	                			 if (!langUtil.isVerb(instance.getPredicate().getPOS()))
+    	                				annotatedNominals.add(langUtil.makePBFrameKey(instance.getPredicate()));
                     }
-                    if (sent.propPB!=null) {
-                    	Collections.sort(sent.propPB);
-                    	BitSet predMask = new BitSet();
-                    	for (Iterator<PBInstance> iter=sent.propPB.iterator();iter.hasNext();) {
-                    		PBInstance instance = iter.next();
-                    		if (predMask.get(instance.getPredicate().getTokenIndex())) {
-                    			logger.warning("deleting duplicate props: "+sent.propPB);
-                    			iter.remove();
-                    			continue;
-                    		}
-                    		predMask.set(instance.getPredicate().getTokenIndex());
-                    	}                    	
-                    }
-                    for (int w=0; w<weight; ++w) {
-                        model.addTrainingSentence(sent, THRESHOLD);
-                        if (trainPredCntMap!=null)
-                        	for (PBInstance pb:sent.propPB) {
-                        		SRInstance instance = new SRInstance(pb);                        		
-                        		String predKey = instance.getRolesetId();
-                        		if (langUtil.isVerb(instance.getPredicateNode().getPOS()))
-                        			predKey+="-v";
-                        		else if (langUtil.isNoun(instance.getPredicateNode().getPOS()))
-                        			predKey+="-n";
-                        		else if (langUtil.isAdjective(instance.getPredicateNode().getPOS()))
-                        			predKey+="-j";
-                        		Map<String, TObjectIntMap<String>> labelMap = trainPredCntMap.get(predKey);
-                        		if (labelMap==null)
-                        			trainPredCntMap.put(predKey, labelMap=new TreeMap<String, TObjectIntMap<String>>());
-                        		for (SRArg arg:instance.getScoringArgs()) {
-                        			if (arg.getLabel().equals("rel"))
-                        				continue;                        			
-                        			TBNode headNode = SRLSelPref.getHeadNode(arg.node);
-                        			if (!langUtil.isNoun(headNode.getPOS()))
-                        				continue;
+                
+                    for (Sentence sent:entry.getValue()) {   
+                    	sent.annotatedNominals = annotatedNominals;
+                        logger.fine("Processing tree "+(sent.parse==null?sent.treeTB.getIndex():sent.parse.getIndex()));
+                        if (sent.parse!=null && sent.treeTB!=null && sent.parse.getTokenCount()!=sent.treeTB.getTokenCount()) {
+                        	logger.warning("tree "+entry.getKey()+":"+sent.parse.getIndex()+" inconsistent, skipping");
+                        	continue;
+                        }
+                        if (sent.propPB!=null) {
+                        	Collections.sort(sent.propPB);
+                        	BitSet predMask = new BitSet();
+                        	for (Iterator<PBInstance> iter=sent.propPB.iterator();iter.hasNext();) {
+                        		PBInstance instance = iter.next();
+                        		if (predMask.get(instance.getPredicate().getTokenIndex())) {
+                        			logger.warning("deleting duplicate props: "+sent.propPB);
+                        			iter.remove();
+                        			continue;
+                        		}
+                        		predMask.set(instance.getPredicate().getTokenIndex());
+                        	}                    	
+                        }
+                        for (int w=0; w<weight; ++w) {
+                            model.addTrainingSentence(sent, THRESHOLD);
+                            if (trainPredCntMap!=null)
+                            	for (PBInstance pb:sent.propPB) {
+                            		SRInstance instance = new SRInstance(pb);                        		
+                            		String predKey = instance.getRolesetId();
+                            		if (langUtil.isVerb(instance.getPredicateNode().getPOS()))
+                            			predKey+="-v";
+                            		else if (langUtil.isNoun(instance.getPredicateNode().getPOS()))
+                            			predKey+="-n";
+                            		else if (langUtil.isAdjective(instance.getPredicateNode().getPOS()))
+                            			predKey+="-j";
+                            		Map<String, TObjectIntMap<String>> labelMap = trainPredCntMap.get(predKey);
+                            		if (labelMap==null)
+                            			trainPredCntMap.put(predKey, labelMap=new TreeMap<String, TObjectIntMap<String>>());
+                            		for (SRArg arg:instance.getScoringArgs()) {
+                            			if (arg.getLabel().equals("rel"))
+                            				continue;                        			
+                            			TBNode headNode = SRLSelPref.getHeadNode(arg.node);
+                            			if (!langUtil.isNoun(headNode.getPOS()))
+                            				continue;
                         			
-                        			Map<String, TObjectIntMap<String>> currLabelMap = labelMap;
+                            			Map<String, TObjectIntMap<String>> currLabelMap = labelMap;
                         			
-                        			if (arg.node.getPOS().equals("PP")) {
-                        				TBNode pNode = headNode.getHeadOfHead();
-                        				if (pNode.getConstituentByHead()!=arg.node || pNode.getWord()==null)
-                        					continue;
-                        				String preposition = "PP-"+pNode.getWord().toLowerCase();
-                        				currLabelMap = trainPPCntMap.get(preposition);
-                        				if (currLabelMap==null)
-                        					trainPPCntMap.put(preposition, currLabelMap = new TreeMap<String, TObjectIntMap<String>>());
-                        			} 
-                        			TObjectIntMap<String> wordMap = currLabelMap.get(langUtil.convertPBLabelTrain(arg.label));
-                        			if (wordMap==null)
-                        				currLabelMap.put(langUtil.convertPBLabelTrain(arg.label), wordMap=new TObjectIntHashMap<String>());
-                        			wordMap.adjustOrPutValue(SRLVerbNetSP.getArgHeadword(headNode, langUtil), 1, 1);
-                        		}
-                        	}
+                            			if (arg.node.getPOS().equals("PP")) {
+                            				TBNode pNode = headNode.getHeadOfHead();
+                            				if (pNode.getConstituentByHead()!=arg.node || pNode.getWord()==null)
+                            					continue;
+                            				String preposition = "PP-"+pNode.getWord().toLowerCase();
+                            				currLabelMap = trainPPCntMap.get(preposition);
+                            				if (currLabelMap==null)
+                            					trainPPCntMap.put(preposition, currLabelMap = new TreeMap<String, TObjectIntMap<String>>());
+                            			} 
+                            			TObjectIntMap<String> wordMap = currLabelMap.get(langUtil.convertPBLabelTrain(arg.label));
+                            			if (wordMap==null)
+                            				currLabelMap.put(langUtil.convertPBLabelTrain(arg.label), wordMap=new TObjectIntHashMap<String>());
+                            			wordMap.adjustOrPutValue(SRLVerbNetSP.getArgHeadword(headNode, langUtil), 1, 1);
+                            		}
+                            	}
+                        }
                     }
                 }
             }
+            System.out.printf("%d training files read\n", fileCnt);
             System.out.println("Nominal predicate training counts: "+model.nomPositiveCnt+"/"+model.nomNegativeCnt);
             System.out.println("***************************************************");
             for (TObjectIntIterator<String> iter=rolesetEmpty.iterator();iter.hasNext();) {
@@ -313,12 +309,21 @@ public class TrainSRL {
         System.gc();
         model.train(props);
         
-        ObjectOutputStream mOut = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(props.getProperty("model_file"))));
-        mOut.writeObject(langUtil.getClass().getName());
+        List<Object> modelObjects = new ArrayList<Object>();
+        modelObjects.add(langUtil.getClass().getName());
         if (!props.getProperty("saveFrameMap", "false").equals("false"))
-        	mOut.writeObject(langUtil.getFrameMap());
-        mOut.writeObject(model);
-        mOut.close();
+        	modelObjects.add(langUtil.getFrameMap());
+        modelObjects.add(model);
+        
+        if (props.getProperty("model_format", "gzip").equals("binary")) {
+        	model.compact();
+        	MappedObjectFile.write(new File(props.getProperty("model_file")), modelObjects.toArray());
+        } else {
+	        ObjectOutputStream mOut = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(props.getProperty("model_file"))));
+	        for (Object obj:modelObjects)
+	        	mOut.writeObject(obj);
+	        mOut.close();
+        }
         
         System.out.println("Model saved to "+props.getProperty("model_file"));  
     }
@@ -0,0 +1,56 @@
+package edu.colorado.clear.srl.util;
+
+import java.io.File;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import edu.colorado.clear.common.util.MappedObjectFile;
+import edu.colorado.clear.srl.RunSRL;
+import edu.colorado.clear.srl.SRLModel;
+
+/**
+ * Converts a (gzipped object stream) SRL model to the compacted, memory
+ * mappable binary format read by {@link RunSRL}
+ */
+public class ConvertModel {
+
+    private static Logger logger = Logger.getLogger("clearsrl");
+
+    @Option(name="-in",usage="input model file",required=true)
+    private File inFile = null;
+
+    @Option(name="-out",usage="output model file",required=true)
+    private File outFile = null;
+
+    @Option(name="-h",usage="help message")
+    private boolean help = false;
+
+    public static void main(String[] args) throws Exception {
+        ConvertModel options = new ConvertModel();
+        CmdLineParser parser = new CmdLineParser(options);
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println("invalid options:"+e);
+            parser.printUsage(System.err);
+            System.exit(0);
+        }
+        if (options.help) {
+            parser.printUsage(System.err);
+            System.exit(0);
+        }
+
+        logger.info("Loading model "+options.inFile.getPath());
+        List<Object> objects = RunSRL.readModelFile(options.inFile);
+        for (Object obj:objects)
+            if (obj instanceof SRLModel)
+                ((SRLModel)obj).compact();
+
+        MappedObjectFile.write(options.outFile, objects.toArray());
+        logger.info("Model saved to "+options.outFile.getPath());
+    }
+}
@@ -0,0 +1,70 @@
+package edu.colorado.clear.srl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestSRLModel {
+
+    static final String[] labels = {"S", "SBAR", "SINV", "SYM", "IP", "CP", "NP", "VP", "PP", "NNS", "PRP$", "-NONE-", ",", "WHNP", "VSB", "Sv", "^"};
+
+    /**
+     * original regular expression based definition of PATHG2
+     */
+    static List<String> pathG2(List<String> path) {
+        boolean inSameClause = true;
+
+        StringBuilder buffer = new StringBuilder();
+        for (int i=1; i<path.size()-2; i++) {
+            if (path.get(i).startsWith("S") || path.get(i).equals("IP")) {
+                buffer.append("S");
+                if (!path.get(i-1).equals(SRLModel.UP_CHAR)||!path.get(i+1).equals(SRLModel.DOWN_CHAR))
+                    inSameClause = false;
+            } else
+                buffer.append(path.get(i));
+        }
+
+        List<String> values = new ArrayList<String>();
+        if (inSameClause)
+            values.add("SameClause");
+        if (path.size()>2) {
+            values.add(path.get(0)+buffer.toString().replaceAll("[^S\\^v][A-Z]*","*")+path.get(path.size()-2)+path.get(path.size()-1));
+            values.add(path.get(0)+buffer.toString().replaceAll("[\\^v][^S][A-Z]*", "")+path.get(path.size()-2)+path.get(path.size()-1));
+            values.add(path.get(0)+buffer.toString().replaceAll("S([\\^v][^S][A-Z]*)+\\^S", "S^S").replaceAll("S([\\^v][^S][A-Z]*)+vS", "SvS")+path.get(path.size()-2)+path.get(path.size()-1));
+        }
+        return values;
+    }
+
+    static List<String> makePath(Random rand) {
+        List<String> path = new ArrayList<String>();
+        int up = rand.nextInt(6);
+        int down = rand.nextInt(6);
+        path.add(labels[rand.nextInt(labels.length)]);
+        for (int i=0; i<up+down; ++i) {
+            path.add(i<up?SRLModel.UP_CHAR:SRLModel.DOWN_CHAR);
+            path.add(labels[rand.nextInt(labels.length)]);
+        }
+        return path;
+    }
+
+    @Test
+    public void testGeneralizePath() {
+        List<String> path = Arrays.asList("NP", "^", "S", "^", "VP", "^", "SBAR", "^", "S", "v", "VP", "v", "VBD");
+        SRLModel.GeneralizedPath generalized = SRLModel.generalizePath(path);
+        assertEquals(Arrays.asList("NP^S^VP^SBAR^S"), generalized.pathG1);
+        assertEquals(Arrays.asList("NP^S^*^S^Sv*vVBD", "NP^S^S^SvVBD", "NP^S^S^SvVPvVBD"), generalized.pathG2);
+        assertEquals(Arrays.asList("NP^S^VP", "S^VP^SBAR", "VP^SBAR^S", "SBAR^SvVP", "SvVPvVBD"), generalized.pathG3);
+        assertEquals(Arrays.asList("N^S^V^S^SvVvV"), generalized.pathG4);
+
+        Random rand = new Random(0);
+        for (int i=0; i<20000; ++i) {
+            path = makePath(rand);
+            assertEquals(path.toString(), pathG2(path), SRLModel.generalizePath(path).pathG2);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package edu.colorado.clear.srl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.colorado.clear.common.treebank.SerialTBFileReader;
+import edu.colorado.clear.common.treebank.TBBinaryCodec;
+import edu.colorado.clear.common.treebank.TBNode;
+import edu.colorado.clear.common.treebank.TBTree;
+import edu.colorado.clear.srl.SRLModel.Feature;
+
+public class TestSampleStore {
+
+    @Test
+    public void testSampleStore() throws Exception {
+        SerialTBFileReader reader = new SerialTBFileReader(new StringReader(
+                "((S (NP-SBJ (NNP John)) (VP (VBD made) (NP (DT a) (NN decision)))))\n"+
+                "((S (NP-SBJ (NNP John)) (VP (VBD made) (NP (DT a) (NN decision)))))"), "test.parse");
+        TBTree parse = reader.nextTree();
+        TBTree gold = reader.nextTree();
+
+        Set<EnumSet<Feature>> features = new HashSet<EnumSet<Feature>>();
+        features.add(EnumSet.of(Feature.PATH));
+        SRLModel model = new SRLModel(features, features);
+
+        List<TBNode> parseNodes = TBBinaryCodec.preorder(parse.getRootNode());
+        TBNode[] goldTokens = gold.getTokenNodes();
+
+        EnumMap<Feature,Collection<String>> featureMap = new EnumMap<Feature,Collection<String>>(Feature.class);
+        featureMap.put(Feature.PATH, Arrays.asList("NP^S^VPvVBD", null));
+        SRLModel.ArgSample arg0 = model.new ArgSample(parseNodes.get(1), goldTokens[1], "ARG0", featureMap);
+        SRLModel.ArgSample arg1 = model.new ArgSample(parseNodes.get(6), goldTokens[1], "ARG1", new EnumMap<Feature,Collection<String>>(Feature.class));
+        SRLModel.ArgSample argNull = model.new ArgSample(parseNodes.get(2), goldTokens[3], SRArg.NOT_ARG, featureMap);
+
+        SRLModel.SRLSample verb = model.new SRLSample(goldTokens[1], "make.01", parse, null, new SRLModel.ArgSample[]{arg0, arg1}, false, false);
+        SRLModel.SRLSample noun = model.new SRLSample(goldTokens[3], null, parse, verb, new SRLModel.ArgSample[]{argNull}, true, false);
+
+        File file = File.createTempFile("test", ".samples");
+        file.deleteOnExit();
+        try (SampleStore.Writer writer = new SampleStore.Writer(file)) {
+            writer.add(parse, new SRLModel.SRLSample[]{verb, null, noun});
+            writer.add(gold, new SRLModel.SRLSample[0]);
+        }
+
+        SampleStore store = SampleStore.open(file);
+        assertEquals(3, store.size());
+        assertEquals("ARG0", store.getLabel(0));
+        assertEquals(SRArg.NOT_ARG, store.getLabel(2));
+        assertFalse(store.isGoldNominal(1));
+        assertTrue(store.isGoldNominal(2));
+        assertFalse(store.isTrainNominal(2));
+
+        try (SampleStore.BlockReader blocks = store.openBlocks(model)) {
+            SampleStore.Block block = blocks.next();
+            assertEquals("test.parse", block.tree.getFilename());
+            assertEquals(parse.getRootNode().toParse(), block.tree.getRootNode().toParse());
+            assertEquals(3, block.samples.length);
+            assertNull(block.samples[1]);
+
+            SRLModel.SRLSample bVerb = block.samples[0];
+            SRLModel.SRLSample bNoun = block.samples[2];
+            assertEquals("make.01", bVerb.roleset);
+            assertNull(bNoun.roleset);
+            assertSame(bVerb, bNoun.support);
+            assertTrue(bNoun.isGoldNominal);
+            assertSame(block.tree, bVerb.tree);
+
+            // the predicates are on the gold tree, the arguments on the parse
+            assertEquals("made", bVerb.predicate.getWord());
+            assertTrue(bVerb.predicate.getRoot()!=block.tree.getRootNode());
+            assertSame(bVerb.predicate, bVerb.args[0].predicate);
+            assertSame(bVerb.predicate.getRoot(), bNoun.predicate.getRoot());
+
+            List<TBNode> bNodes = TBBinaryCodec.preorder(block.tree.getRootNode());
+            assertSame(bNodes.get(1), bVerb.args[0].node);
+            assertSame(bNodes.get(6), bVerb.args[1].node);
+            assertEquals("ARG1", bVerb.args[1].label);
+            assertEquals(Arrays.asList("NP^S^VPvVBD", null), bVerb.args[0].features.get(Feature.PATH));
+            assertTrue(bVerb.args[1].features.isEmpty());
+
+            block = blocks.next();
+            assertEquals(0, block.samples.length);
+            assertNull(blocks.next());
+        }
+
+        // features not asked for are skipped
+        try (SampleStore.BlockReader blocks = store.openBlocks(model, EnumSet.noneOf(Feature.class))) {
+            SampleStore.Block block = blocks.next();
+            assertTrue(block.samples[0].args[0].features.isEmpty());
+            assertEquals("ARG1", block.samples[0].args[1].label);
+        }
+    }
+
+    @Test
+    public void testForwardSupport() throws Exception {
+        SerialTBFileReader reader = new SerialTBFileReader(new StringReader(
+                "((S (NP-SBJ (NNP John)) (VP (VBD made) (NP (DT a) (NN decision)))))"), "test.parse");
+        TBTree parse = reader.nextTree();
+
+        Set<EnumSet<Feature>> features = new HashSet<EnumSet<Feature>>();
+        features.add(EnumSet.of(Feature.PATH));
+        SRLModel model = new SRLModel(features, features);
+
+        List<TBNode> parseNodes = TBBinaryCodec.preorder(parse.getRootNode());
+        TBNode[] tokens = parse.getTokenNodes();
+        SRLModel.ArgSample arg0 = model.new ArgSample(parseNodes.get(1), tokens[1], "ARG0", new EnumMap<Feature,Collection<String>>(Feature.class));
+        SRLModel.ArgSample argNull = model.new ArgSample(parseNodes.get(2), tokens[3], SRArg.NOT_ARG, new EnumMap<Feature,Collection<String>>(Feature.class));
+
+        // the nominal predicate comes before the verb supporting it
+        SRLModel.SRLSample verb = model.new SRLSample(tokens[1], "make.01", parse, null, new SRLModel.ArgSample[]{arg0}, false, false);
+        SRLModel.SRLSample noun = model.new SRLSample(tokens[3], null, parse, verb, new SRLModel.ArgSample[]{argNull}, true, false);
+
+        File file = File.createTempFile("test", ".samples");
+        file.deleteOnExit();
+        try (SampleStore.Writer writer = new SampleStore.Writer(file)) {
+            writer.add(parse, new SRLModel.SRLSample[]{noun, verb});
+        }
+
+        SampleStore store = SampleStore.open(file);
+        try (SampleStore.BlockReader blocks = store.openBlocks(model)) {
+            SampleStore.Block block = blocks.next();
+            assertEquals(2, block.samples.length);
+            assertSame(block.samples[1], block.samples[0].support);
+            assertNull(block.samples[1].support);
+            assertEquals("make.01", block.samples[0].support.roleset);
+        }
+    }
+}
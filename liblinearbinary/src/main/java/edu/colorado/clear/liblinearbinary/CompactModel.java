@@ -0,0 +1,318 @@
+package edu.colorado.clear.liblinearbinary;
+
+import java.io.Serializable;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+
+/**
+ * <p>Read only, inference only form of a trained {@link Model}.</p>
+ *
+ * <p>Features whose weights are all zero are dropped and the remaining ones
+ * are renumbered densely. Weights are stored as float, with the nr_w
+ * weights of a feature in one contiguous block, so scoring a (binary)
+ * instance is a sum of contiguous rows the JIT can vectorize:</p>
+ *
+ * <pre>
+ * +-------------------+-------------------+------------+
+ * | nr_w weights for  | nr_w weights for  |  ...
+ * | 1st kept feature  | 2nd kept feature  |
+ * +-------------------+-------------------+------------+
+ * </pre>
+ *
+ * <p>The weights and the row index can also live outside the heap (e.g. a
+ * memory mapped file region), see {@link #getWeights()},
+ * {@link #getRowIndex()} and {@link #withWeights(IntBuffer, FloatBuffer)}.</p>
+ */
+public final class CompactModel implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    double                    bias;
+
+    /** label of each class */
+    int[]                     label;
+
+    int                       nr_class;
+
+    int                       nr_feature;
+
+    /** number of weights per feature, 1 for binary non-MCSVM models */
+    int                       nr_w;
+
+    SolverType                solverType;
+
+    /** original (1-based) feature index -&gt; 1-based row in w, 0 if dropped */
+    int[]                     rowIndex;
+
+    /** used in place of rowIndex when the index is not on the heap */
+    transient IntBuffer       rowBuffer;
+
+    /** rows of nr_w float weights, one per kept feature */
+    float[]                   w;
+
+    /** used in place of w when the weights are not on the heap */
+    transient FloatBuffer     wBuffer;
+
+    /** created on first use, also for deserialized models */
+    private transient volatile ThreadLocal<float[]> scratch;
+
+    CompactModel() {}
+
+    /**
+     * Builds the compact form of model
+     * @param model trained model
+     * @return the compact model
+     */
+    public static CompactModel build(Model model) {
+        CompactModel compact = new CompactModel();
+        compact.bias = model.bias;
+        compact.label = Linear.copyOf(model.label, model.nr_class);
+        compact.nr_class = model.nr_class;
+        compact.nr_feature = model.nr_feature;
+        compact.solverType = model.solverType;
+        compact.nr_w = model.nr_class == 2 && model.solverType != SolverType.MCSVM_CS ? 1 : model.nr_class;
+
+        int n = model.w.length / compact.nr_w;
+        compact.rowIndex = new int[n + 1];
+
+        int rows = 0;
+        for (int j = 0; j < n; j++)
+            for (int i = 0; i < compact.nr_w; i++)
+                if (model.w[j * compact.nr_w + i] != 0) {
+                    compact.rowIndex[j + 1] = ++rows;
+                    break;
+                }
+
+        compact.w = new float[rows * compact.nr_w];
+        for (int j = 0; j < n; j++) {
+            int row = compact.rowIndex[j + 1];
+            if (row == 0) continue;
+            for (int i = 0; i < compact.nr_w; i++)
+                compact.w[(row - 1) * compact.nr_w + i] = (float)model.w[j * compact.nr_w + i];
+        }
+        return compact;
+    }
+
+    /**
+     * @return whether this model carries its weights (models created by
+     * {@code withWeights(null, null)} only hold the header fields)
+     */
+    public boolean hasWeights() {
+        return w != null || wBuffer != null;
+    }
+
+    /**
+     * @return a read only view of the weight rows
+     */
+    public FloatBuffer getWeights() {
+        return w != null ? FloatBuffer.wrap(w).asReadOnlyBuffer() : wBuffer.duplicate();
+    }
+
+    /**
+     * @return a read only view of the row index, entry j is the (1-based)
+     * weight row of feature j, 0 if the feature was dropped
+     */
+    public IntBuffer getRowIndex() {
+        return rowIndex != null ? IntBuffer.wrap(rowIndex).asReadOnlyBuffer() : rowBuffer.duplicate();
+    }
+
+    /**
+     * @param rowIndex row index in the layout of {@link #getRowIndex()},
+     * or null for a header only copy
+     * @param weights weight rows in the layout of {@link #getWeights()},
+     * or null for a header only copy
+     * @return a copy of this model using rowIndex and weights
+     */
+    public CompactModel withWeights(IntBuffer rowIndex, FloatBuffer weights) {
+        CompactModel model = new CompactModel();
+        model.bias = bias;
+        model.label = label;
+        model.nr_class = nr_class;
+        model.nr_feature = nr_feature;
+        model.nr_w = nr_w;
+        model.solverType = solverType;
+        model.rowBuffer = rowIndex;
+        model.wBuffer = weights;
+        return model;
+    }
+
+    /**
+     * the index and weights that aren't on the heap are copied back in when serialized
+     */
+    private Object writeReplace() {
+        if (rowBuffer == null && wBuffer == null)
+            return this;
+        CompactModel model = withWeights(null, null);
+        model.rowIndex = new int[indexLength()];
+        getRowIndex().get(model.rowIndex);
+        model.w = new float[getWeights().limit()];
+        getWeights().get(model.w);
+        return model;
+    }
+
+    public int getNrClass() {
+        return nr_class;
+    }
+
+    public int getNrFeature() {
+        return nr_feature;
+    }
+
+    public int[] getLabels() {
+        return Linear.copyOf(label, nr_class);
+    }
+
+    public double getBias() {
+        return bias;
+    }
+
+    public SolverType getSolverType() {
+        return solverType;
+    }
+
+    /**
+     * @return the (0-based) features with non-zero weights
+     */
+    public BitSet getFeatureMask() {
+        BitSet mask = new BitSet(indexLength());
+        for (int j = 1; j < indexLength(); j++)
+            if (row(j) != 0) mask.set(j - 1);
+        return mask;
+    }
+
+    int indexLength() {
+        return rowIndex != null ? rowIndex.length : rowBuffer.limit();
+    }
+
+    /**
+     * @return the (1-based) weight row of feature idx, 0 if it was dropped
+     * or is beyond the features seen in training
+     */
+    int row(int idx) {
+        // the dimension of testing data may exceed that of training
+        if (rowIndex != null)
+            return idx < rowIndex.length ? rowIndex[idx] : 0;
+        return idx < rowBuffer.limit() ? rowBuffer.get(idx) : 0;
+    }
+
+    private float[] getScratch() {
+        ThreadLocal<float[]> local = scratch;
+        if (local == null) {
+            synchronized (this) {
+                local = scratch;
+                if (local == null) scratch = local = new ThreadLocal<float[]>() {
+                    @Override
+                    protected float[] initialValue() {
+                        return new float[nr_w];
+                    }
+                };
+            }
+        }
+        return local.get();
+    }
+
+    /**
+     * @return the decision value of a binary model, positive values predict label[0]
+     */
+    double predictBinaryValue(int[] x) {
+        float dec_value = 0;
+        for (int idx : x) {
+            int row = row(idx);
+            if (row != 0) dec_value += w != null ? w[row - 1] : wBuffer.get(row - 1);
+        }
+        return dec_value;
+    }
+
+    float[] sumRows(int[] x) {
+        float[] dec_values = getScratch();
+        Arrays.fill(dec_values, 0);
+        for (int idx : x) {
+            int row = row(idx);
+            if (row == 0) continue;
+            int offset = (row - 1) * nr_w;
+            if (w != null)
+                for (int i = 0; i < nr_w; i++)
+                    dec_values[i] += w[offset + i];
+            else
+                for (int i = 0; i < nr_w; i++)
+                    dec_values[i] += wBuffer.get(offset + i);
+        }
+        return dec_values;
+    }
+
+    public int predict(int[] x) {
+        // a single class model has nothing else to predict
+        if (nr_class == 1)
+            return label[0];
+        if (nr_w == 1)
+            return (predictBinaryValue(x) > 0) ? label[0] : label[1];
+        float[] dec_values = sumRows(x);
+        if (nr_class == 2)
+            return (dec_values[0] > 0) ? label[0] : label[1];
+        int dec_max_idx = 0;
+        for (int i = 1; i < nr_class; i++)
+            if (dec_values[i] > dec_values[dec_max_idx]) dec_max_idx = i;
+        return label[dec_max_idx];
+    }
+
+    /**
+     * see {@link Linear#predictLabelValues(Model, int[], double[])}
+     */
+    public int predictLabelValues(int[] x, double[] label_values) {
+        Arrays.fill(label_values, 0);
+
+        if (nr_w == 1) {
+            double dec_value = predictBinaryValue(x);
+            label_values[label[0] - 1] = dec_value;
+            return (dec_value > 0 || nr_class == 1) ? label[0] : label[1];
+        }
+
+        float[] dec_values = sumRows(x);
+        int dec_max_idx = 0;
+        for (int i = 0; i < nr_w; i++) {
+            label_values[label[i] - 1] = dec_values[i];
+            if (dec_values[i] > dec_values[dec_max_idx]) dec_max_idx = i;
+        }
+        if (nr_class == 2)
+            return (dec_values[0] > 0) ? label[0] : label[1];
+        return label[dec_max_idx];
+    }
+
+    /**
+     * see {@link Linear#predictLabelProbability(Model, int[], double[])}
+     */
+    public int predictLabelProbability(int[] x, double[] label_prob) {
+        if (solverType != SolverType.L2R_LR)
+            return 0;
+
+        int predicted = predictLabelValues(x, label_prob);
+
+        if (nr_class == 2) { // for binary classification
+            double p = 1 / (1 + Math.exp(-label_prob[label[0] - 1]));
+            label_prob[label[0] - 1] = p;
+            label_prob[label[1] - 1] = 1. - p;
+        } else {
+            double sum = 0;
+            for (int i = 0; i < nr_class; i++)
+                sum += label_prob[label[i] - 1] = 1 / (1 + Math.exp(-label_prob[label[i] - 1]));
+
+            for (int i = 0; i < nr_class; i++)
+                label_prob[label[i] - 1] /= sum;
+        }
+        return predicted;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("CompactModel");
+        sb.append(" bias=").append(bias);
+        sb.append(" nr_class=").append(nr_class);
+        sb.append(" nr_feature=").append(nr_feature);
+        sb.append(" solverType=").append(solverType);
+        if (hasWeights()) sb.append(" rows=").append(getWeights().limit() / nr_w);
+        return sb.toString();
+    }
+}
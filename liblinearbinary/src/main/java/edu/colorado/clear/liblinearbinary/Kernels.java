@@ -0,0 +1,92 @@
+package edu.colorado.clear.liblinearbinary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>Products of the binary instance matrix with a vector for the TRON
+ * functions, computed in parallel by the calling fork/join pool.</p>
+ *
+ * <p>Xv is split into blocks of rows, XTv into blocks of columns of the
+ * column major copy of the matrix ({@link Problem#getColumns()}). Either
+ * way each output element is summed in the same order as the serial
+ * loops, so the result doesn't depend on the number of threads.</p>
+ */
+final class Kernels {
+
+    /** smallest number of rows or columns worth a task */
+    static final int MIN_BLOCK = 2048;
+
+    interface Block {
+        void run(int begin, int end);
+    }
+
+    private Kernels() {
+    }
+
+    /**
+     * runs block over [0, size) split into at most threads parts
+     */
+    static void forBlocks(int size, int threads, final Block block) {
+        int parts = Math.min(threads, size / MIN_BLOCK);
+        if (parts <= 1 || !ForkJoinTask.inForkJoinPool()) {
+            block.run(0, size);
+            return;
+        }
+        List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(parts);
+        for (int p = 0; p < parts; p++) {
+            final int begin = (int)((long)size * p / parts);
+            final int end = (int)((long)size * (p + 1) / parts);
+            tasks.add(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    block.run(begin, end);
+                }
+            });
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * Xv[k] = x[rows[k]] v for k &lt; size, rows null for all the rows
+     */
+    static void Xv(final int[][] x, final int[] rows, int size, final double[] v, final double[] Xv, int threads) {
+        forBlocks(size, threads, new Block() {
+            @Override
+            public void run(int begin, int end) {
+                for (int k = begin; k < end; k++) {
+                    double sum = 0;
+                    for (int s : x[rows == null ? k : rows[k]])
+                        sum += v[s - 1];
+                    Xv[k] = sum;
+                }
+            }
+        });
+    }
+
+    /**
+     * XTv[j] = sum of v[position[i]] over the rows i of column j,
+     * position null for v indexed by row, position[i] &lt; 0 skips row i
+     */
+    static void XTv(final int[][] columns, final int[] position, final double[] v, final double[] XTv, int threads) {
+        forBlocks(columns.length, threads, new Block() {
+            @Override
+            public void run(int begin, int end) {
+                for (int j = begin; j < end; j++) {
+                    double sum = 0;
+                    if (position == null)
+                        for (int i : columns[j])
+                            sum += v[i];
+                    else
+                        for (int i : columns[j])
+                            if (position[i] >= 0) sum += v[position[i]];
+                    XTv[j] = sum;
+                }
+            }
+        });
+    }
+}
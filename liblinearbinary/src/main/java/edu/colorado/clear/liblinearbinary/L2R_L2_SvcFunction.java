@@ -6,17 +6,33 @@ class L2R_L2_SvcFunction implements Function {
     private final double[] C;
     private final int[]    I;
     private final double[] z;
+    private final double[] wa;
+    private final int      threads;
+    private final int[][]  columns;
+    /** position of each row in I, -1 for the rows not in I */
+    private final int[]    position;
 
     private int            sizeI;
 
     public L2R_L2_SvcFunction( Problem prob, double Cp, double Cn ) {
+        this(prob, Cp, Cn, 1);
+    }
+
+    /**
+     * @param threads the number of threads computing Xv and XTv
+     */
+    public L2R_L2_SvcFunction( Problem prob, double Cp, double Cn, int threads ) {
         int i;
         int l = prob.l;
         int[] y = prob.y;
 
         this.prob = prob;
+        this.threads = threads;
+        columns = threads > 1 ? prob.getColumns() : null;
+        position = threads > 1 ? new int[l] : null;
 
         z = new double[l];
+        wa = new double[l];
         C = new double[l];
         I = new int[l];
 
@@ -25,6 +41,7 @@ class L2R_L2_SvcFunction implements Function {
                 C[i] = Cp;
             else
                 C[i] = Cn;
+            if (prob.weight != null) C[i] *= prob.weight[i];
         }
     }
 
@@ -64,8 +81,9 @@ class L2R_L2_SvcFunction implements Function {
             if (z[i] < 1) {
                 z[sizeI] = C[i] * y[i] * (z[i] - 1);
                 I[sizeI] = i;
+                if (position != null) position[i] = sizeI;
                 sizeI++;
-            }
+            } else if (position != null) position[i] = -1;
         }
         subXTv(z, g);
 
@@ -75,9 +93,7 @@ class L2R_L2_SvcFunction implements Function {
 
     public void Hv(double[] s, double[] Hs) {
         int i;
-        int l = prob.l;
         int w_size = get_nr_variable();
-        double[] wa = new double[l];
 
         subXv(s, wa);
         for (i = 0; i < sizeI; i++)
@@ -92,6 +108,11 @@ class L2R_L2_SvcFunction implements Function {
         int i;
         int w_size = get_nr_variable();
 
+        if (threads > 1) {
+            Kernels.XTv(columns, position, v, XTv, threads);
+            return;
+        }
+
         for (i = 0; i < w_size; i++)
             XTv[i] = 0;
 
@@ -103,6 +124,10 @@ class L2R_L2_SvcFunction implements Function {
     }
 
     private void subXv(double[] v, double[] Xv) {
+        if (threads > 1) {
+            Kernels.Xv(prob.x, I, sizeI, v, Xv, threads);
+            return;
+        }
 
         for (int i = 0; i < sizeI; i++) {
             Xv[i] = 0;
@@ -113,6 +138,10 @@ class L2R_L2_SvcFunction implements Function {
     }
 
     private void Xv(double[] v, double[] Xv) {
+        if (threads > 1) {
+            Kernels.Xv(prob.x, null, prob.l, v, Xv, threads);
+            return;
+        }
 
         for (int i = 0; i < prob.l; i++) {
             Xv[i] = 0;
@@ -5,16 +5,29 @@ class L2R_LrFunction implements Function {
     private final double[] C;
     private final double[] z;
     private final double[] D;
+    private final double[] wa;
     private final Problem  prob;
+    private final int      threads;
+    private final int[][]  columns;
 
     public L2R_LrFunction( Problem prob, double Cp, double Cn ) {
+        this(prob, Cp, Cn, 1);
+    }
+
+    /**
+     * @param threads the number of threads computing Xv and XTv
+     */
+    public L2R_LrFunction( Problem prob, double Cp, double Cn, int threads ) {
         int i;
         int l = prob.l;
         int[] y = prob.y;
 
         this.prob = prob;
+        this.threads = threads;
+        columns = threads > 1 ? prob.getColumns() : null;
 
         z = new double[l];
+        wa = new double[l];
         D = new double[l];
         C = new double[l];
 
@@ -23,11 +36,16 @@ class L2R_LrFunction implements Function {
                 C[i] = Cp;
             else
                 C[i] = Cn;
+            if (prob.weight != null) C[i] *= prob.weight[i];
         }
     }
 
 
     private void Xv(double[] v, double[] Xv) {
+        if (threads > 1) {
+            Kernels.Xv(prob.x, null, prob.l, v, Xv, threads);
+            return;
+        }
 
         for (int i = 0; i < prob.l; i++) {
             Xv[i] = 0;
@@ -42,6 +60,11 @@ class L2R_LrFunction implements Function {
         int w_size = get_nr_variable();
         int[][] x = prob.x;
 
+        if (threads > 1) {
+            Kernels.XTv(columns, null, v, XTv, threads);
+            return;
+        }
+
         for (int i = 0; i < w_size; i++)
             XTv[i] = 0;
 
@@ -97,7 +120,6 @@ class L2R_LrFunction implements Function {
         int i;
         int l = prob.l;
         int w_size = get_nr_variable();
-        double[] wa = new double[l];
 
         Xv(s, wa);
         for (i = 0; i < l; i++)
@@ -106,7 +128,6 @@ class L2R_LrFunction implements Function {
         XTv(wa, Hs);
         for (i = 0; i < w_size; i++)
             Hs[i] = s[i] + Hs[i];
-        // delete[] wa;
     }
 
     public int get_nr_variable() {
@@ -14,9 +14,18 @@ import java.io.PrintStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Formatter;
+import java.util.List;
 import java.util.Locale;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
 
@@ -42,8 +51,7 @@ public class Linear {
     /** platform-independent new-line string */
     final static String        NL                  = System.getProperty("line.separator");
 
-    private static final long  DEFAULT_RANDOM_SEED = 0L;
-    static Random              random              = new Random(DEFAULT_RANDOM_SEED);
+    static final long          DEFAULT_RANDOM_SEED = 0L;
 
     /**
      * @param target predicted classes
@@ -53,6 +61,7 @@ public class Linear {
         int[] fold_start = new int[nr_fold + 1];
         int l = prob.l;
         int[] perm = new int[l];
+        SplittableRandom random = new SplittableRandom(param.seed);
 
         for (i = 0; i < l; i++)
             perm[i] = i;
@@ -67,28 +76,16 @@ public class Linear {
             int begin = fold_start[i];
             int end = fold_start[i + 1];
             int j, k;
-            Problem subprob = new Problem();
-
-            subprob.bias = prob.bias;
-            subprob.n = prob.n;
-            subprob.l = l - (end - begin);
-            subprob.x = new int[subprob.l][];
-            subprob.y = new int[subprob.l];
+            int[] rows = new int[l - (end - begin)];
 
             k = 0;
-            for (j = 0; j < begin; j++) {
-                subprob.x[k] = prob.x[perm[j]];
-                subprob.y[k] = prob.y[perm[j]];
-                ++k;
-            }
-            for (j = end; j < l; j++) {
-                subprob.x[k] = prob.x[perm[j]];
-                subprob.y[k] = prob.y[perm[j]];
-                ++k;
-            }
-            Model submodel = train(subprob, param);
+            for (j = 0; j < begin; j++)
+                rows[k++] = perm[j];
+            for (j = end; j < l; j++)
+                rows[k++] = perm[j];
+            Model submodel = train(prob.subset(rows), param);
             for (j = begin; j < end; j++)
-                target[perm[j]] = predict(submodel, prob.x[perm[j]]);
+                target[perm[j]] = predict(submodel, prob.getX(perm[j]));
         }
     }
 
@@ -119,7 +116,7 @@ public class Linear {
         int i;
 
         for (i = 0; i < l; i++) {
-            int this_label = prob.y[i];
+            int this_label = prob.getY(i);
             int j;
             for (j = 0; j < nr_class; j++) {
                 if (this_label == label[j]) {
@@ -315,8 +312,35 @@ public class Linear {
     }
 
     public static int predict(Model model, int[] x) {
-        double[] dec_values = new double[model.nr_class];
-        return predictValues(model, x, dec_values);
+        if (model.nr_class == 2 && model.solverType != SolverType.MCSVM_CS)
+            return (predictBinaryValue(model, x) > 0) ? model.label[0] : model.label[1];
+        return predictValues(model, x, getScratch(model.nr_class));
+    }
+
+    /** per thread buffer for predict() so multi-class scoring doesn't allocate */
+    private static final ThreadLocal<double[]> SCRATCH = new ThreadLocal<double[]>();
+
+    private static double[] getScratch(int size) {
+        double[] scratch = SCRATCH.get();
+        if (scratch == null || scratch.length < size) {
+            scratch = new double[size];
+            SCRATCH.set(scratch);
+        }
+        return scratch;
+    }
+
+    /**
+     * decision value of a binary (single weight vector) model, positive 
+     * values predict label[0]
+     */
+    static double predictBinaryValue(Model model, int[] x) {
+        int n = model.bias >= 0 ? model.nr_feature + 1 : model.nr_feature;
+        double[] w = model.w;
+        double dec_value = 0;
+        for (int idx : x)
+            // the dimension of testing data may exceed that of training
+            if (idx <= n) dec_value += w[idx - 1];
+        return dec_value;
     }
 
     public static int predictProbability(Model model, int[] x, double[] prob_estimates) {
@@ -348,7 +372,40 @@ public class Linear {
             return 0;
     }
 
+    /**
+     * Same as predictProbability, except the estimates are written to 
+     * label_prob[label-1] for each model label rather than in model label 
+     * order (labels must be positive). Everything else in label_prob is set 
+     * to 0. Does not allocate.
+     */
+    public static int predictLabelProbability(Model model, int[] x, double[] label_prob) {
+        if (model.solverType != SolverType.L2R_LR)
+            return 0;
+
+        int label = predictLabelValues(model, x, label_prob);
+        int[] labels = model.label;
+
+        if (model.nr_class == 2) { // for binary classification
+            double p = 1 / (1 + Math.exp(-label_prob[labels[0] - 1]));
+            label_prob[labels[0] - 1] = p;
+            label_prob[labels[1] - 1] = 1. - p;
+        } else {
+            double sum = 0;
+            for (int i = 0; i < model.nr_class; i++)
+                sum += label_prob[labels[i] - 1] = 1 / (1 + Math.exp(-label_prob[labels[i] - 1]));
+
+            for (int i = 0; i < model.nr_class; i++)
+                label_prob[labels[i] - 1] /= sum;
+        }
+        return label;
+    }
+
     public static int predictValues(Model model, int[] x, double[] dec_values) {
+        if (model.nr_class == 2 && model.solverType != SolverType.MCSVM_CS) {
+            dec_values[0] = predictBinaryValue(model, x);
+            return (dec_values[0] > 0) ? model.label[0] : model.label[1];
+        }
+
         int n;
         if (model.bias >= 0)
             n = model.nr_feature + 1;
@@ -357,11 +414,7 @@ public class Linear {
 
         double[] w = model.w;
 
-        int nr_w;
-        if (model.nr_class == 2 && model.solverType != SolverType.MCSVM_CS)
-            nr_w = 1;
-        else
-            nr_w = model.nr_class;
+        int nr_w = model.nr_class;
 
         for (int i = 0; i < nr_w; i++)
             dec_values[i] = 0;
@@ -369,21 +422,61 @@ public class Linear {
         for (int idx : x) {
             // the dimension of testing data may exceed that of training
             if (idx <= n) {
+                int offset = (idx - 1) * nr_w;
                 for (int i = 0; i < nr_w; i++) {
-                    dec_values[i] += w[(idx - 1) * nr_w + i];
+                    dec_values[i] += w[offset + i];
                 }
             }
         }
 
         if (model.nr_class == 2)
             return (dec_values[0] > 0) ? model.label[0] : model.label[1];
-        else {
-            int dec_max_idx = 0;
-            for (int i = 1; i < model.nr_class; i++) {
-                if (dec_values[i] > dec_values[dec_max_idx]) dec_max_idx = i;
-            }
-            return model.label[dec_max_idx];
+        return model.label[maxIndex(dec_values, model.nr_class)];
+    }
+
+    /**
+     * Same as predictValues, except the decision values are written to 
+     * label_values[label-1] for each model label rather than in model label 
+     * order (labels must be positive). Everything else in label_values is 
+     * set to 0 (including label[1] of a binary model, which has only one 
+     * decision value). Does not allocate.
+     */
+    public static int predictLabelValues(Model model, int[] x, double[] label_values) {
+        Arrays.fill(label_values, 0);
+        int[] labels = model.label;
+
+        if (model.nr_class == 2 && model.solverType != SolverType.MCSVM_CS) {
+            double dec_value = predictBinaryValue(model, x);
+            label_values[labels[0] - 1] = dec_value;
+            return (dec_value > 0) ? labels[0] : labels[1];
         }
+
+        int n = model.bias >= 0 ? model.nr_feature + 1 : model.nr_feature;
+        double[] w = model.w;
+        int nr_w = model.nr_class;
+
+        for (int idx : x)
+            // the dimension of testing data may exceed that of training
+            if (idx <= n) {
+                int offset = (idx - 1) * nr_w;
+                for (int i = 0; i < nr_w; i++)
+                    label_values[labels[i] - 1] += w[offset + i];
+            }
+
+        if (nr_w == 2)
+            return (label_values[labels[0] - 1] > 0) ? labels[0] : labels[1];
+
+        int dec_max_idx = 0;
+        for (int i = 1; i < nr_w; i++)
+            if (label_values[labels[i] - 1] > label_values[labels[dec_max_idx] - 1]) dec_max_idx = i;
+        return labels[dec_max_idx];
+    }
+
+    private static int maxIndex(double[] values, int size) {
+        int max_idx = 0;
+        for (int i = 1; i < size; i++)
+            if (values[i] > values[max_idx]) max_idx = i;
+        return max_idx;
     }
 
 
@@ -481,14 +574,20 @@ public class Linear {
      *      D_ii = 1/(2*Cp) if y_i = 1
      *      D_ii = 1/(2*Cn) if y_i = -1
      *
+     * Cp and Cn are scaled by the instance weight if there is one.
+     *
      * Given:
      * x, y, Cp, Cn
      * eps is the stopping tolerance
      *
      * solution will be put in w
      *</pre>
+     *
+     * @param alpha the initial dual variables (clipped to their bounds, all
+     *              0 for a cold start), replaced by the solution
      */
-    private static void solve_l2r_l1l2_svc(Problem prob, double[] w, double eps, double Cp, double Cn, SolverType solver_type) {
+    private static void solve_l2r_l1l2_svc(Problem prob, double[] w, double eps, double Cp, double Cn, SolverType solver_type,
+            SplittableRandom random, double[] alpha) {
         int l = prob.l;
         int w_size = prob.n;
         int i, s, iter = 0;
@@ -496,8 +595,9 @@ public class Linear {
         double[] QD = new double[l];
         int max_iter = 1000;
         int[] index = new int[l];
-        double[] alpha = new double[l];
         byte[] y = new byte[l];
+        double[] inst_diag = new double[l];
+        double[] inst_upper = new double[l];
         int active_size = l;
 
         // PG: projected gradient, for shrinking and stopping
@@ -519,15 +619,24 @@ public class Linear {
         for (i = 0; i < w_size; i++)
             w[i] = 0;
         for (i = 0; i < l; i++) {
-            alpha[i] = 0;
             if (prob.y[i] > 0) {
                 y[i] = +1;
             } else {
                 y[i] = -1;
             }
-            QD[i] = diag[GETI(y, i)];
+            double weight_i = prob.weight == null ? 1 : prob.weight[i];
+            inst_diag[i] = diag[GETI(y, i)] / weight_i;
+            inst_upper[i] = upper_bound[GETI(y, i)] * weight_i;
+            QD[i] = inst_diag[i];
 	    QD[i] += prob.x[i].length;
             index[i] = i;
+
+            // w = sum of y_i alpha_i x_i
+            alpha[i] = Math.min(Math.max(alpha[i], 0.0), inst_upper[i]);
+            if (alpha[i] != 0) {
+                for (int xi : prob.x[i])
+                    w[xi - 1] += y[i] * alpha[i];
+            }
         }
 
         while (iter < max_iter) {
@@ -549,8 +658,8 @@ public class Linear {
                 }
                 G = G * yi - 1;
 
-                C = upper_bound[GETI(y, i)];
-                G += alpha[i] * diag[GETI(y, i)];
+                C = inst_upper[i];
+                G += alpha[i] * inst_diag[i];
 
                 PG = 0;
                 if (alpha[i] == 0) {
@@ -619,7 +728,7 @@ public class Linear {
         for (i = 0; i < w_size; i++)
             v += w[i] * w[i];
         for (i = 0; i < l; i++) {
-            v += alpha[i] * (alpha[i] * diag[GETI(y, i)] - 2);
+            v += alpha[i] * (alpha[i] * inst_diag[i] - 2);
             if (alpha[i] > 0) ++nSV;
         }
         info("Objective value = %f" + NL, v / 2);
@@ -640,7 +749,7 @@ public class Linear {
      * solution will be put in w
      *</pre>
      */
-    private static void solve_l1r_l2_svc(Problem prob_col, double[] w, double eps, double Cp, double Cn) {
+    private static void solve_l1r_l2_svc(Problem prob_col, double[] w, double eps, double Cp, double Cn, SplittableRandom random) {
         int l = prob_col.l;
         int w_size = prob_col.n;
         int j, s, iter = 0;
@@ -865,7 +974,7 @@ public class Linear {
      * solution will be put in w
      *</pre>
      */
-    private static void solve_l1r_lr(Problem prob_col, double[] w, double eps, double Cp, double Cn) {
+    private static void solve_l1r_lr(Problem prob_col, double[] w, double eps, double Cp, double Cn, SplittableRandom random) {
         int l = prob_col.l;
         int w_size = prob_col.n;
         int j, s, iter = 0;
@@ -1141,12 +1250,13 @@ public class Linear {
     /**
      * @throws IllegalArgumentException if the feature nodes of prob are not sorted in ascending order
      */
-    public static Model train(Problem prob, Parameter param) {
+    public static Model train(final Problem prob, final Parameter param) {
 
         if (prob == null) throw new IllegalArgumentException("problem must not be null");
         if (param == null) throw new IllegalArgumentException("parameter must not be null");
 
-        for (int[] nodes : prob.x) {
+        for (int r = 0; r < prob.l; r++) {
+            int[] nodes = prob.getX(r);
             int indexBefore = 0;
             for (int n : nodes) {
                 if (n <= indexBefore) {
@@ -1156,6 +1266,31 @@ public class Linear {
             }
         }
 
+        if (prob.weight != null && !param.solverType.supportsInstanceWeights())
+            throw new IllegalArgumentException("instance weights are not supported by " + param.solverType);
+
+        // with several threads the whole training runs in the fork/join pool
+        ForkJoinPool pool = param.pool != null ? param.pool : ForkJoinTask.getPool();
+        if (param.threads <= 1 || (pool != null && ForkJoinTask.getPool() == pool))
+            return train_model(prob, param);
+
+        boolean own_pool = pool == null;
+        if (own_pool) pool = new ForkJoinPool(param.threads);
+        try {
+            return pool.invoke(new RecursiveTask<Model>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected Model compute() {
+                    return train_model(prob, param);
+                }
+            });
+        } finally {
+            if (own_pool) pool.shutdown();
+        }
+    }
+
+    private static Model train_model(Problem prob, Parameter param) {
         int i, j;
         int l = prob.l;
         int n = prob.n;
@@ -1196,11 +1331,7 @@ public class Linear {
             weighted_C[j] *= param.weight[i];
         }
 
-        // constructing the subproblem
-        int[][] x = new int[l][];
-        for (i = 0; i < l; i++)
-            x[i] = prob.x[perm[i]];
-
+        // constructing the subproblem, instances grouped by class
         int k;
         Problem sub_prob = new Problem();
         sub_prob.l = l;
@@ -1209,7 +1340,12 @@ public class Linear {
         sub_prob.y = new int[sub_prob.l];
 
         for (k = 0; k < sub_prob.l; k++)
-            sub_prob.x[k] = x[k];
+            sub_prob.x[k] = prob.getX(perm[k]);
+        if (prob.weight != null) {
+            sub_prob.weight = new double[l];
+            for (k = 0; k < l; k++)
+                sub_prob.weight[k] = prob.getWeight(perm[k]);
+        }
 
         // multi-class svm by Crammer and Singer
         if (param.solverType == SolverType.MCSVM_CS) {
@@ -1220,7 +1356,7 @@ public class Linear {
                 }
             }
 
-            SolverMCSVM_CS solver = new SolverMCSVM_CS(sub_prob, nr_class, weighted_C, param.eps);
+            SolverMCSVM_CS solver = new SolverMCSVM_CS(sub_prob, nr_class, weighted_C, param.eps, 100000, param.seed);
             solver.solve(model.w);
         } else {
             if (nr_class == 2) {
@@ -1233,34 +1369,208 @@ public class Linear {
                 for (; k < sub_prob.l; k++)
                     sub_prob.y[k] = -1;
 
-                train_one(sub_prob, param, model.w, weighted_C[0], weighted_C[1]);
+                WarmStart warm = new WarmStart(prob, param, perm);
+                warm.initial_w(label[0], model.w);
+                double[] alpha = warm.initial_alpha(label[0]);
+                train_one(sub_prob, param, model.w, weighted_C[0], weighted_C[1], param.seed, param.threads, alpha);
+                if (warm.keep) model.alpha = new float[][] {warm.stored_alpha(alpha)};
             } else {
                 model.w = new double[w_size * nr_class];
-                double[] w = new double[w_size];
-                for (i = 0; i < nr_class; i++) {
-                    int si = start[i];
-                    int ei = si + count[i];
-
-                    k = 0;
-                    for (; k < si; k++)
-                        sub_prob.y[k] = -1;
-                    for (; k < ei; k++)
-                        sub_prob.y[k] = +1;
-                    for (; k < sub_prob.l; k++)
-                        sub_prob.y[k] = -1;
-
-                    train_one(sub_prob, param, w, weighted_C[i], param.C);
-
-                    for (j = 0; j < n; j++)
-                        model.w[j * nr_class + i] = w[j];
-                }
+                WarmStart warm = new WarmStart(prob, param, perm);
+                if (warm.keep) model.alpha = new float[nr_class][];
+                train_one_vs_rest(sub_prob, param, start, count, weighted_C, warm, model);
             }
 
         }
         return model;
     }
 
-    private static void train_one(Problem prob, Parameter param, double[] w, double Cp, double Cn) {
+    /**
+     * trains the classes of the grouped sub_prob against the rest, at most
+     * param.threads of them at once. Each class has its own labels and
+     * weight vector, the instances are shared. The threads left over by
+     * the classes compute the TRON kernels.
+     */
+    private static void train_one_vs_rest(final Problem sub_prob, final Parameter param, final int[] start, final int[] count,
+            final double[] weighted_C, final WarmStart warm, final Model model) {
+        final int nr_class = model.nr_class;
+        // the seed of each class is fixed up front, whichever thread trains it
+        final long[] seeds = new long[nr_class];
+        SplittableRandom random = new SplittableRandom(param.seed);
+        for (int i = 0; i < nr_class; i++)
+            seeds[i] = random.nextLong();
+
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<RuntimeException> error = new AtomicReference<RuntimeException>();
+        final int lanes = Math.min(param.threads, nr_class);
+        final int kernel_threads = Math.max(1, param.threads / lanes);
+        if (lanes <= 1) {
+            train_classes(sub_prob, param, start, count, weighted_C, seeds, kernel_threads, warm, model, next);
+            return;
+        }
+
+        final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(lanes);
+        for (int t = 0; t < lanes; t++)
+            tasks.add(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    try {
+                        train_classes(sub_prob, param, start, count, weighted_C, seeds, kernel_threads, warm, model, next);
+                    } catch (RuntimeException e) {
+                        error.compareAndSet(null, e);
+                        next.set(nr_class);
+                    }
+                }
+            });
+        // train runs in the pool when there are several threads
+        ForkJoinTask.invokeAll(tasks);
+        if (error.get() != null) throw error.get();
+    }
+
+    /**
+     * trains the classes taken from next until none is left
+     */
+    private static void train_classes(Problem sub_prob, Parameter param, int[] start, int[] count, double[] weighted_C,
+            long[] seeds, int kernel_threads, WarmStart warm, Model model, AtomicInteger next) {
+        int nr_class = model.nr_class;
+        int l = sub_prob.l;
+        int n = sub_prob.n;
+        double[] w = new double[n];
+        for (int i = next.getAndIncrement(); i < nr_class; i = next.getAndIncrement()) {
+            Problem class_prob = new Problem();
+            class_prob.l = l;
+            class_prob.n = n;
+            class_prob.bias = sub_prob.bias;
+            class_prob.x = sub_prob.x;
+            class_prob.y = new int[l];
+            class_prob.weight = sub_prob.weight;
+            if (kernel_threads > 1 && uses_tron(param.solverType)) class_prob.columns = sub_prob.getColumns();
+
+            int si = start[i];
+            int ei = si + count[i];
+            int k = 0;
+            for (; k < si; k++)
+                class_prob.y[k] = -1;
+            for (; k < ei; k++)
+                class_prob.y[k] = +1;
+            for (; k < l; k++)
+                class_prob.y[k] = -1;
+
+            warm.initial_w(model.label[i], w);
+            double[] alpha = warm.initial_alpha(model.label[i]);
+            train_one(class_prob, param, w, weighted_C[i], param.C, seeds[i], kernel_threads, alpha);
+
+            for (int j = 0; j < n; j++)
+                model.w[j * nr_class + i] = w[j];
+            if (warm.keep) model.alpha[i] = warm.stored_alpha(alpha);
+        }
+    }
+
+    /**
+     * <p>Initial solutions from {@link Parameter#setInitialModel(Model)}
+     * (w for the TRON solvers, the dual variables for the dual solvers) and
+     * the dual variables kept for {@link Parameter#setKeepDual(boolean)}.</p>
+     *
+     * <p>The dual variables are stored by row of the feature store x, so
+     * problems viewing the same store (cross validation folds) or a store
+     * of the same instances (the next training iteration) can use them.</p>
+     */
+    private static final class WarmStart {
+
+        final Model   initial;
+        final boolean dual;
+        final boolean keep;
+        final int     store_size;
+        /** store row of each instance of the grouped sub problem */
+        final int[]   store_row;
+
+        WarmStart( Problem prob, Parameter param, int[] perm ) {
+            initial = param.initialModel;
+            dual = param.solverType == SolverType.L2R_L1LOSS_SVC_DUAL || param.solverType == SolverType.L2R_L2LOSS_SVC_DUAL;
+            keep = dual && param.keepDual;
+            store_size = prob.x.length;
+            if (keep || dual && initial != null && initial.alpha != null) {
+                store_row = new int[prob.l];
+                for (int k = 0; k < prob.l; k++)
+                    store_row[k] = prob.index == null ? perm[k] : prob.index[perm[k]];
+            } else
+                store_row = null;
+        }
+
+        /**
+         * sets w to the initial weights of label against the rest, 0 if
+         * there are none
+         */
+        void initial_w(int label, double[] w) {
+            Arrays.fill(w, 0);
+            if (initial == null || dual) return;
+            int w_size = initial.bias >= 0 ? initial.nr_feature + 1 : initial.nr_feature;
+            if (w_size != w.length) return;
+
+            int c = 0;
+            while (c < initial.nr_class && initial.label[c] != label)
+                c++;
+            if (c == initial.nr_class) return;
+            if (initial.w.length == w_size) {
+                // binary model, the weights of label[0] against label[1]
+                double sign = c == 0 ? 1 : -1;
+                for (int j = 0; j < w_size; j++)
+                    w[j] = sign * initial.w[j];
+            } else {
+                for (int j = 0; j < w_size; j++)
+                    w[j] = initial.w[j * initial.nr_class + c];
+            }
+        }
+
+        /**
+         * @return the initial dual variables of label against the rest, null
+         * if the solver doesn't need them
+         */
+        double[] initial_alpha(int label) {
+            if (store_row == null) return null;
+            double[] alpha = new double[store_row.length];
+            if (initial == null || initial.alpha == null) return alpha;
+
+            float[] stored = null;
+            if (initial.alpha.length == 1) {
+                // binary model, the same dual variables for either label
+                if (initial.label[0] == label || initial.label[1] == label) stored = initial.alpha[0];
+            } else {
+                for (int c = 0; c < initial.nr_class; c++)
+                    if (initial.label[c] == label) stored = initial.alpha[c];
+            }
+            if (stored != null && stored.length == store_size) {
+                for (int k = 0; k < alpha.length; k++)
+                    alpha[k] = stored[store_row[k]];
+            }
+            return alpha;
+        }
+
+        float[] stored_alpha(double[] alpha) {
+            float[] stored = new float[store_size];
+            for (int k = 0; k < alpha.length; k++)
+                stored[store_row[k]] = (float)alpha[k];
+            return stored;
+        }
+    }
+
+    private static boolean uses_tron(SolverType solverType) {
+        return solverType == SolverType.L2R_LR || solverType == SolverType.L2R_L2LOSS_SVC;
+    }
+
+    /**
+     * @param seed seeds the solver's own PRNG, so the result doesn't depend
+     *             on what other threads train
+     * @param threads the number of threads computing the TRON kernels
+     * @param w the initial solution of the TRON solvers, replaced by the
+     *          solution
+     * @param alpha the initial dual variables of the dual solvers, replaced
+     *              by the solution, null for a cold start
+     */
+    private static void train_one(Problem prob, Parameter param, double[] w, double Cp, double Cn, long seed, int threads,
+            double[] alpha) {
         double eps = param.eps;
         int pos = 0;
         for (int i = 0; i < prob.l; i++)
@@ -1270,31 +1580,33 @@ public class Linear {
         Function fun_obj = null;
         switch (param.solverType) {
             case L2R_LR: {
-                fun_obj = new L2R_LrFunction(prob, Cp, Cn);
+                fun_obj = new L2R_LrFunction(prob, Cp, Cn, threads);
                 Tron tron_obj = new Tron(fun_obj, eps * Math.min(pos, neg) / prob.l);
                 tron_obj.tron(w);
                 break;
             }
             case L2R_L2LOSS_SVC: {
-                fun_obj = new L2R_L2_SvcFunction(prob, Cp, Cn);
+                fun_obj = new L2R_L2_SvcFunction(prob, Cp, Cn, threads);
                 Tron tron_obj = new Tron(fun_obj, eps * Math.min(pos, neg) / prob.l);
                 tron_obj.tron(w);
                 break;
             }
             case L2R_L2LOSS_SVC_DUAL:
-                solve_l2r_l1l2_svc(prob, w, eps, Cp, Cn, SolverType.L2R_L2LOSS_SVC_DUAL);
+                solve_l2r_l1l2_svc(prob, w, eps, Cp, Cn, SolverType.L2R_L2LOSS_SVC_DUAL, new SplittableRandom(seed),
+                        alpha == null ? new double[prob.l] : alpha);
                 break;
             case L2R_L1LOSS_SVC_DUAL:
-                solve_l2r_l1l2_svc(prob, w, eps, Cp, Cn, SolverType.L2R_L1LOSS_SVC_DUAL);
+                solve_l2r_l1l2_svc(prob, w, eps, Cp, Cn, SolverType.L2R_L1LOSS_SVC_DUAL, new SplittableRandom(seed),
+                        alpha == null ? new double[prob.l] : alpha);
                 break;
             case L1R_L2LOSS_SVC: {
                 Problem prob_col = transpose(prob);
-                solve_l1r_l2_svc(prob_col, w, eps * Math.min(pos, neg) / prob.l, Cp, Cn);
+                solve_l1r_l2_svc(prob_col, w, eps * Math.min(pos, neg) / prob.l, Cp, Cn, new SplittableRandom(seed));
                 break;
             }
             case L1R_LR: {
                 Problem prob_col = transpose(prob);
-                solve_l1r_lr(prob_col, w, eps * Math.min(pos, neg) / prob.l, Cp, Cn);
+                solve_l1r_lr(prob_col, w, eps * Math.min(pos, neg) / prob.l, Cp, Cn, new SplittableRandom(seed));
                 break;
             }
             default:
@@ -1317,11 +1629,10 @@ public class Linear {
     }
 
     /**
-     * resets the PRNG
-     *
-     * this is i.a. needed for regression testing (eg. the Weka wrapper)
+     * does nothing, each solver call now seeds its own PRNG from
+     * {@link Parameter#setSeed(long)}
      */
+    @Deprecated
     public static void resetRandom() {
-        random = new Random(DEFAULT_RANDOM_SEED);
     }
 }
@@ -33,6 +33,12 @@ public final class Model implements Serializable {
     /** feature weight array */
     double[]                  w;
 
+    /**
+     * dual variables of each class against the rest (one array for 2
+     * classes) by row of the feature store, see {@link Parameter#setKeepDual(boolean)}
+     */
+    transient float[][]       alpha;
+
     /**
      * @return number of classes
      */
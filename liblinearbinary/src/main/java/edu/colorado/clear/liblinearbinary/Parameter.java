@@ -2,6 +2,8 @@ package edu.colorado.clear.liblinearbinary;
 
 import static edu.colorado.clear.liblinearbinary.Linear.copyOf;
 
+import java.util.concurrent.ForkJoinPool;
+
 
 public final class Parameter {
 
@@ -16,6 +18,16 @@ public final class Parameter {
 
     int[]      weightLabel = null;
 
+    int        threads     = 1;
+
+    long       seed        = Linear.DEFAULT_RANDOM_SEED;
+
+    Model      initialModel = null;
+
+    boolean    keepDual    = false;
+
+    ForkJoinPool pool      = null;
+
     public Parameter( SolverType solverType, double C, double eps ) {
         setSolverType(solverType);
         setC(C);
@@ -97,4 +109,61 @@ public final class Parameter {
     public SolverType getSolverType() {
         return solverType;
     }
+
+    /**
+     * <p>Maximum number of threads training, shared by the one-vs-rest
+     * classes and the TRON kernels.</p>
+     *
+     * <p>Training runs in pool if set, otherwise in the pool of
+     * the calling thread if it's a fork/join worker, or else in a pool
+     * created for the call.</p>
+     */
+    public void setThreads(int threads, ForkJoinPool pool) {
+        if (threads <= 0) throw new IllegalArgumentException("threads must not be <= 0");
+        this.threads = threads;
+        this.pool = pool;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * <p>Seeds the PRNGs of the solvers. Training with the same seed gives
+     * the same model, regardless of the number of threads.</p>
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * <p>Warm starts training from a previous model of a similar problem,
+     * training converges in fewer iterations. The TRON solvers start from
+     * its weights, the dual solvers from its dual variables if it kept
+     * them. The classes are matched by label.</p>
+     */
+    public void setInitialModel(Model initialModel) {
+        this.initialModel = initialModel;
+    }
+
+    public Model getInitialModel() {
+        return initialModel;
+    }
+
+    /**
+     * <p>Keeps the dual variables of the dual solvers in the model (not
+     * saved), so it can warm start training on the same instances. It
+     * takes a float per class and instance.</p>
+     */
+    public void setKeepDual(boolean keepDual) {
+        this.keepDual = keepDual;
+    }
+
+    public boolean isKeepDual() {
+        return keepDual;
+    }
 }
@@ -2,6 +2,9 @@ package edu.colorado.clear.liblinearbinary;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 
 /**
@@ -52,6 +55,148 @@ public class Problem {
      */
     public double          bias;
 
+    /**
+     * rows of x and y making up the problem, null for all of them. Lets
+     * problems (cross validation folds) share one feature store.
+     */
+    public int[]           index;
+
+    /**
+     * weight of each instance (the C of the instance is scaled by it),
+     * indexed like y, null for all 1. Supported by the L2-regularized
+     * solvers except MCSVM_CS.
+     */
+    public double[]        weight;
+
+    /** column major copy of the instances, see {@link #getColumns()} */
+    int[][]                columns;
+
+    /**
+     * @return the instances (ascending) having each feature, built on
+     * first use
+     */
+    synchronized int[][] getColumns() {
+        if (columns != null) return columns;
+        int[] count = new int[n];
+        for (int i = 0; i < l; i++)
+            for (int s : getX(i))
+                count[s - 1]++;
+        int[][] cols = new int[n][];
+        for (int j = 0; j < n; j++) {
+            cols[j] = new int[count[j]];
+            count[j] = 0;
+        }
+        for (int i = 0; i < l; i++)
+            for (int s : getX(i))
+                cols[s - 1][count[s - 1]++] = i;
+        return columns = cols;
+    }
+
+    /**
+     * @return the feature indices of the i-th instance
+     */
+    public int[] getX(int i) {
+        return index==null?x[i]:x[index[i]];
+    }
+
+    /**
+     * @return the target value of the i-th instance
+     */
+    public int getY(int i) {
+        return index==null?y[i]:y[index[i]];
+    }
+
+    /**
+     * @return the weight of the i-th instance
+     */
+    public double getWeight(int i) {
+        return weight==null?1:weight[index==null?i:index[i]];
+    }
+
+    /**
+     * @return a problem of the given instances of this problem, the feature
+     * store is shared
+     */
+    public Problem subset(int[] rows) {
+        Problem sub = new Problem();
+        sub.n = n;
+        sub.bias = bias;
+        sub.x = x;
+        sub.y = y;
+        sub.weight = weight;
+        sub.l = rows.length;
+        if (index==null)
+            sub.index = rows;
+        else {
+            sub.index = new int[rows.length];
+            for (int i=0; i<rows.length; ++i)
+                sub.index[i] = index[rows[i]];
+        }
+        return sub;
+    }
+
+    /**
+     * Collapses the instances with the same target value and features into
+     * one instance weighted by their total weight, which has the same
+     * optimum. The instances are kept in the order of their first
+     * occurrence.
+     * @return the compressed problem, this problem if it has no duplicates
+     */
+    public Problem compress() {
+        Map<Instance, Integer> unique = new HashMap<Instance, Integer>();
+        int[] first = new int[l];
+        double[] sum = new double[l];
+        int cnt = 0;
+        for (int i = 0; i < l; i++) {
+            Instance instance = new Instance(getY(i), getX(i));
+            Integer u = unique.get(instance);
+            if (u == null) {
+                unique.put(instance, u = cnt++);
+                first[u] = i;
+            }
+            sum[u] += getWeight(i);
+        }
+        if (cnt == l) return this;
+
+        Problem compressed = new Problem();
+        compressed.l = cnt;
+        compressed.n = n;
+        compressed.bias = bias;
+        compressed.x = new int[cnt][];
+        compressed.y = new int[cnt];
+        compressed.weight = Arrays.copyOf(sum, cnt);
+        for (int u = 0; u < cnt; u++) {
+            compressed.x[u] = getX(first[u]);
+            compressed.y[u] = getY(first[u]);
+        }
+        return compressed;
+    }
+
+    private static final class Instance {
+
+        final int   y;
+        final int[] x;
+        final int   hash;
+
+        Instance( int y, int[] x ) {
+            this.y = y;
+            this.x = x;
+            hash = 31 * Arrays.hashCode(x) + y;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Instance)) return false;
+            Instance other = (Instance)obj;
+            return hash == other.hash && y == other.y && Arrays.equals(x, other.x);
+        }
+    }
+
     /**
      * see {@link Train#readProblem(File, double)}
      */
@@ -4,6 +4,8 @@ import static edu.colorado.clear.liblinearbinary.Linear.copyOf;
 import static edu.colorado.clear.liblinearbinary.Linear.info;
 import static edu.colorado.clear.liblinearbinary.Linear.swap;
 
+import java.util.SplittableRandom;
+
 
 /**
  * A coordinate descent algorithm for
@@ -36,6 +38,7 @@ class SolverMCSVM_CS {
     private final int      w_size, l;
     private final int      nr_class;
     private final Problem  prob;
+    private final SplittableRandom random;
 
     public SolverMCSVM_CS( Problem prob, int nr_class, double[] C ) {
         this(prob, nr_class, C, 0.1);
@@ -47,6 +50,11 @@ class SolverMCSVM_CS {
 
 
     public SolverMCSVM_CS( Problem prob, int nr_class, double[] weighted_C, double eps, int max_iter ) {
+        this(prob, nr_class, weighted_C, eps, max_iter, Linear.DEFAULT_RANDOM_SEED);
+    }
+
+    public SolverMCSVM_CS( Problem prob, int nr_class, double[] weighted_C, double eps, int max_iter, long seed ) {
+        this.random = new SplittableRandom(seed);
         this.w_size = prob.n;
         this.l = prob.l;
         this.nr_class = nr_class;
@@ -106,7 +114,7 @@ class SolverMCSVM_CS {
 
             for (i = 0; i < active_size; i++) {
                 // int j = i+rand()%(active_size-i);
-                int j = i + Linear.random.nextInt(active_size - i);
+                int j = i + random.nextInt(active_size - i);
                 swap(index, i, j);
             }
             for (s = 0; s < active_size; s++) {
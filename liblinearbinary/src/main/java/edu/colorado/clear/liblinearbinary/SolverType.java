@@ -48,4 +48,11 @@ public enum SolverType {
      * @since 1.5
      */
     L1R_LR;
+
+    /**
+     * @return whether the solver supports instance weights ({@link Problem#weight})
+     */
+    public boolean supportsInstanceWeights() {
+        return this == L2R_LR || this == L2R_L2LOSS_SVC || this == L2R_L2LOSS_SVC_DUAL || this == L2R_L1LOSS_SVC_DUAL;
+    }
 }
@@ -27,6 +27,10 @@ class Tron {
         this.max_iter = max_iter;
     }
 
+    /**
+     * @param w the initial solution (all 0 for a cold start), replaced by
+     *          the solution
+     */
     void tron(double[] w) {
         // Parameters for updating the iterates.
         double eta0 = 1e-4, eta1 = 0.25, eta2 = 0.75;
@@ -44,14 +48,24 @@ class Tron {
         double[] w_new = new double[n];
         double[] g = new double[n];
 
-        for (i = 0; i < n; i++)
-            w[i] = 0;
+        boolean warm_start = false;
+        for (i = 0; i < n && !warm_start; i++)
+            warm_start = w[i] != 0;
+
+        // the stopping criterion is relative to the gradient at w = 0
+        double gnorm0 = 0;
+        if (warm_start) {
+            double[] w0 = new double[n];
+            fun_obj.fun(w0);
+            fun_obj.grad(w0, g);
+            gnorm0 = euclideanNorm(g);
+        }
 
         f = fun_obj.fun(w);
         fun_obj.grad(w, g);
         delta = euclideanNorm(g);
-        double gnorm1 = delta;
-        double gnorm = gnorm1;
+        double gnorm1 = warm_start ? gnorm0 : delta;
+        double gnorm = delta;
 
         if (gnorm <= eps * gnorm1) search = 0;
 